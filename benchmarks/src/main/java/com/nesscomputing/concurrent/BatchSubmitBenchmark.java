@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a fan-out of no-op tasks through a decorated pool, submitted one at a time and as one
+ * batch with {@link BatchingExecutorService#submitAll(java.util.Collection)}.  Only the batching
+ * queue types take the whole batch at once; the others show the cost of the wrapping pass alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class BatchSubmitBenchmark
+{
+    static final int FAN_OUT = 200;
+
+    @Param({"LINKED", "RING_BUFFER", "PRIORITY"})
+    public QueueType queueType;
+
+    @Param({"4"})
+    public int poolThreads;
+
+    @Param({BenchmarkPools.TIMER + "+" + BenchmarkPools.THREAD_DELEGATING})
+    public String wrappers;
+
+    private ExecutorService pool;
+    private BatchingExecutorService service;
+    private final List<Callable<Integer>> tasks = Lists.newArrayList();
+
+    @Setup
+    public void setUp()
+    {
+        pool = BenchmarkPools.createPool("batch-benchmark", poolThreads, 4096, queueType);
+        service = (BatchingExecutorService) BenchmarkPools.decorate("batch-benchmark", pool, wrappers);
+        for (int i = 0; i < FAN_OUT; i++) {
+            final Integer value = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call()
+                {
+                    return value;
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        BenchmarkPools.shutdown(pool);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FAN_OUT)
+    public int submitEach() throws Exception
+    {
+        final List<Future<Integer>> futures = Lists.newArrayListWithCapacity(FAN_OUT);
+        for (Callable<Integer> task : tasks) {
+            futures.add(service.submit(task));
+        }
+        return sum(futures);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FAN_OUT)
+    public int submitAll() throws Exception
+    {
+        return sum(service.submitAll(tasks));
+    }
+
+    private static int sum(List<? extends Future<Integer>> futures) throws Exception
+    {
+        int result = 0;
+        for (Future<Integer> future : futures) {
+            result += future.get();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mogwee.executors.LoggingExecutor;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Builds the executors under test the same way {@link NessThreadPoolModule} does, without
+ * dragging in Guice, config and lifecycle.
+ */
+final class BenchmarkPools
+{
+    /** Wrapper spec for the undecorated pool. */
+    static final String RAW = "raw";
+
+    /** Wrapper spec for a decorated pool with an empty wrapper chain. */
+    static final String NONE = "none";
+
+    static final String TIMER = "timer";
+    static final String THREAD_DELEGATING = "thread-delegating";
+    static final String DEADLINE = "deadline";
+
+    private BenchmarkPools() {}
+
+    /**
+     * Create a pool equivalent to what {@link NessThreadPoolModule} builds for the given sizes, using the
+     * default caller-runs rejection policy.
+     */
+    static ThreadPoolExecutor createPool(String name, int threads, int queueSize)
+    {
+        return createPool(name, threads, queueSize, ThreadPoolConfiguration.DEFAULT_QUEUE_TYPE);
+    }
+
+    /**
+     * Create a pool like {@link #createPool(String, int, int)} with the given kind of work queue.
+     */
+    static ThreadPoolExecutor createPool(String name, int threads, int queueSize, QueueType queueType)
+    {
+        final BlockingQueue<Runnable> queue;
+        if (queueSize == 0) {
+            queue = new SynchronousQueue<Runnable>();
+        } else {
+            queue = queueType.createQueue(queueSize);
+        }
+
+        final ThreadPoolExecutor executor = new LoggingExecutor(
+                threads,
+                threads,
+                ThreadPoolConfiguration.DEFAULT_TIMEOUT.getMillis(),
+                TimeUnit.MILLISECONDS,
+                queue,
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+                ThreadPoolConfiguration.DEFAULT_REJECTED_HANDLER.getHandler());
+        executor.prestartAllCoreThreads();
+        return executor;
+    }
+
+    /**
+     * Decorate a pool according to a wrapper spec.  The spec is either {@link #RAW}, {@link #NONE} or a
+     * {@code +} separated list of {@link #DEADLINE}, {@link #TIMER} and {@link #THREAD_DELEGATING}, applied
+     * in order.  The pools of {@link NessThreadPoolModule} use all three, in that order.
+     */
+    static ExecutorService decorate(String name, ExecutorService pool, String wrapperSpec)
+    {
+        if (RAW.equals(wrapperSpec)) {
+            return pool;
+        }
+        return DecoratingExecutors.decorate(pool, CallableWrappers.combine(createWrappers(name, wrapperSpec)));
+    }
+
+    static List<CallableWrapper> createWrappers(String name, String wrapperSpec)
+    {
+        final List<CallableWrapper> wrappers = Lists.newArrayList();
+        if (NONE.equals(wrapperSpec)) {
+            return wrappers;
+        }
+
+        for (String wrapper : Splitter.on('+').trimResults().omitEmptyStrings().split(wrapperSpec)) {
+            if (TIMER.equals(wrapper)) {
+                wrappers.add(TimedExecutors.createTimerWrapper(name, new MetricsRegistry()));
+            } else if (DEADLINE.equals(wrapper)) {
+                wrappers.add(new DeadlineWrapper(name));
+            } else if (THREAD_DELEGATING.equals(wrapper)) {
+                wrappers.add(ThreadDelegatingDecorator.THREAD_DELEGATING_WRAPPER);
+            } else {
+                throw new IllegalArgumentException("Unknown wrapper '" + wrapper + "' in '" + wrapperSpec + "'");
+            }
+        }
+        return wrappers;
+    }
+
+    static void shutdown(ExecutorService service) throws InterruptedException
+    {
+        service.shutdown();
+        if (!service.awaitTermination(20, TimeUnit.SECONDS)) {
+            service.shutdownNow();
+        }
+    }
+}
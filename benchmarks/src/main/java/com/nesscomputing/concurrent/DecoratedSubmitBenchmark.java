@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency a producer sees when handing a no-op task to a raw or decorated pool.
+ * Run with {@code -t N} to vary the number of producer threads and with {@code -prof gc} to
+ * get the allocation per task.  Once the queue is full the caller-runs policy kicks in, exactly
+ * as it does with the {@link NessThreadPoolModule} defaults.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoratedSubmitBenchmark
+{
+    private static final Runnable NOOP_RUNNABLE = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    private static final Callable<Object> NOOP_CALLABLE = new Callable<Object>() {
+        @Override
+        public Object call()
+        {
+            return null;
+        }
+    };
+
+    @Param({BenchmarkPools.RAW, BenchmarkPools.NONE, BenchmarkPools.TIMER, BenchmarkPools.THREAD_DELEGATING, "timer+thread-delegating", "deadline+timer+thread-delegating"})
+    public String wrappers;
+
+    @Param({"0", "10", "1024"})
+    public int queueSize;
+
+    @Param({"4"})
+    public int poolThreads;
+
+    private ExecutorService pool;
+    private ExecutorService service;
+
+    @Setup
+    public void setUp()
+    {
+        pool = BenchmarkPools.createPool("submit-benchmark", poolThreads, queueSize);
+        service = BenchmarkPools.decorate("submit-benchmark", pool, wrappers);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        BenchmarkPools.shutdown(pool);
+    }
+
+    @Benchmark
+    public void execute()
+    {
+        service.execute(NOOP_RUNNABLE);
+    }
+
+    @Benchmark
+    public Future<?> submitRunnable()
+    {
+        return service.submit(NOOP_RUNNABLE);
+    }
+
+    @Benchmark
+    public Future<Object> submitCallable()
+    {
+        return service.submit(NOOP_CALLABLE);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures end-to-end task throughput: each invocation pushes a batch of tasks through the pool
+ * and waits until all of them have run.  Run with {@code -t N} to vary the number of producer
+ * threads and with {@code -prof gc} to get the allocation per task.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoratedThroughputBenchmark
+{
+    static final int BATCH_SIZE = 1000;
+
+    @Param({BenchmarkPools.RAW, BenchmarkPools.NONE, BenchmarkPools.TIMER, BenchmarkPools.THREAD_DELEGATING, "timer+thread-delegating"})
+    public String wrappers;
+
+    @Param({"10", "1024"})
+    public int queueSize;
+
+    @Param({"4"})
+    public int poolThreads;
+
+    /** Amount of simulated work per task, in {@link Blackhole#consumeCPU(long)} tokens. */
+    @Param({"0", "100"})
+    public long work;
+
+    private ExecutorService pool;
+    private ExecutorService service;
+
+    @Setup
+    public void setUp()
+    {
+        pool = BenchmarkPools.createPool("throughput-benchmark", poolThreads, queueSize);
+        service = BenchmarkPools.decorate("throughput-benchmark", pool, wrappers);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        BenchmarkPools.shutdown(pool);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void executeBatch() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        final Runnable task = new LatchTask(latch, work);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            service.execute(task);
+        }
+        latch.await();
+    }
+
+    private static class LatchTask implements Runnable
+    {
+        private final CountDownLatch latch;
+        private final long work;
+
+        LatchTask(CountDownLatch latch, long work)
+        {
+            this.latch = latch;
+            this.work = work;
+        }
+
+        @Override
+        public void run()
+        {
+            if (work > 0) {
+                Blackhole.consumeCPU(work);
+            }
+            latch.countDown();
+        }
+    }
+}
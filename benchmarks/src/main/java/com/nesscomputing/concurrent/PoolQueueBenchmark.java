@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures task throughput of an undecorated pool with each {@link QueueType}, with several threads
+ * submitting batches of no-op tasks at once.  This is where the queue is the contention point.  Vary
+ * the number of submitters with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class PoolQueueBenchmark
+{
+    static final int BATCH_SIZE = 1000;
+
+    @Param({"LINKED", "ARRAY", "LINKED_TRANSFER", "RING_BUFFER"})
+    public QueueType queueType;
+
+    @Param({"1024"})
+    public int queueSize;
+
+    @Param({"4"})
+    public int poolThreads;
+
+    private ExecutorService pool;
+
+    @Setup
+    public void setUp()
+    {
+        pool = BenchmarkPools.createPool("queue-benchmark", poolThreads, queueSize, queueType);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        BenchmarkPools.shutdown(pool);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void executeBatch() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        };
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            pool.execute(task);
+        }
+        latch.await();
+    }
+}
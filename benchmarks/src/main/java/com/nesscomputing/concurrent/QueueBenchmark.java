@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the work queues of {@link QueueType} with producers offering and consumers polling at the
+ * same time, which is what submitters and workers of a busy pool do.  A producer that finds the queue
+ * full and a consumer that finds it empty yield and try again.  Change the number of producers and
+ * consumers with {@code -tg producers,consumers}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueBenchmark
+{
+    private static final Runnable NOOP_RUNNABLE = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    @Param({"ARRAY", "LINKED", "LINKED_TRANSFER", "PRIORITY", "RING_BUFFER", "ADAPTIVE_LIFO"})
+    public QueueType queueType;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private BlockingQueue<Runnable> queue;
+
+    @Setup
+    public void setUp()
+    {
+        queue = queueType.createQueue(capacity);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(2)
+    public void offer()
+    {
+        while (!queue.offer(NOOP_RUNNABLE)) {
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(2)
+    public Runnable poll()
+    {
+        Runnable task;
+        while ((task = queue.poll()) == null) {
+            Thread.yield();
+        }
+        return task;
+    }
+}
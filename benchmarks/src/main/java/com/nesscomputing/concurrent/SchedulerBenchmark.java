@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JDK scheduler with the hashed wheel scheduler for timeouts: every operation schedules a
+ * task a while out and cancels it again, which is what a request timeout does when the request
+ * finishes in time.  The JDK scheduler keeps cancelled tasks in its heap until they are due unless
+ * remove-on-cancel is set; run with {@code -prof gc} to see what that costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class SchedulerBenchmark
+{
+    static final String JDK = "jdk";
+    static final String JDK_REMOVE_ON_CANCEL = "jdk-remove-on-cancel";
+    static final String WHEEL = "wheel";
+
+    private static final Runnable NOOP_RUNNABLE = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    @Param({JDK, JDK_REMOVE_ON_CANCEL, WHEEL})
+    public String scheduler;
+
+    /** How far out the timeouts are scheduled. */
+    @Param({"1000"})
+    public long timeoutMillis;
+
+    private ScheduledExecutorService service;
+
+    @Setup
+    public void setUp()
+    {
+        if (WHEEL.equals(scheduler)) {
+            service = NessExecutors.hashedWheelScheduler("scheduler-benchmark", 1, TimeUnit.MILLISECONDS);
+        } else {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(JDK_REMOVE_ON_CANCEL.equals(scheduler));
+            service = executor;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        service.shutdownNow();
+        service.awaitTermination(20, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public boolean scheduleAndCancel()
+    {
+        final ScheduledFuture<?> future = service.schedule(NOOP_RUNNABLE, timeoutMillis, TimeUnit.MILLISECONDS);
+        return future.cancel(false);
+    }
+
+    @Benchmark
+    public ScheduledFuture<?> schedule()
+    {
+        return service.schedule(NOOP_RUNNABLE, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScope.SCOPE;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedContext;
+
+/**
+ * Measures the cost of the {@link ThreadDelegatingDecorator} wrapper on the calling thread.
+ * {@code sameContext} runs a task that was wrapped in the context it runs in, which must not switch
+ * scope; {@code otherContext} runs one that was wrapped in another context, like a pool thread does.
+ * {@code directPool} and {@code directPoolUndelegated} submit to a same thread executor, the pool
+ * {@link NessThreadPoolModule} creates for {@code max-threads} 0, with and without the wrapper.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadDelegationBenchmark
+{
+    private static final Runnable NOOP_RUNNABLE = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    private Runnable sameContextTask;
+    private Runnable otherContextTask;
+    private ExecutorService delegatedPool;
+    private ExecutorService undelegatedPool;
+
+    @Setup
+    public void setUp()
+    {
+        final ThreadDelegatedContext callerContext = SCOPE.getContext();
+        sameContextTask = ThreadDelegatingDecorator.THREAD_DELEGATING_WRAPPER.wrap(NOOP_RUNNABLE);
+
+        SCOPE.changeScope(null);
+        otherContextTask = ThreadDelegatingDecorator.THREAD_DELEGATING_WRAPPER.wrap(NOOP_RUNNABLE);
+        SCOPE.changeScope(callerContext);
+
+        delegatedPool = BenchmarkPools.decorate("delegation-benchmark", MoreExecutors.sameThreadExecutor(), BenchmarkPools.THREAD_DELEGATING);
+        undelegatedPool = BenchmarkPools.decorate("delegation-benchmark", MoreExecutors.sameThreadExecutor(), BenchmarkPools.NONE);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        delegatedPool.shutdown();
+        undelegatedPool.shutdown();
+    }
+
+    @Benchmark
+    public void sameContext()
+    {
+        sameContextTask.run();
+    }
+
+    @Benchmark
+    public void otherContext()
+    {
+        otherContextTask.run();
+    }
+
+    @Benchmark
+    public void directPool()
+    {
+        delegatedPool.execute(NOOP_RUNNABLE);
+    }
+
+    @Benchmark
+    public void directPoolUndelegated()
+    {
+        undelegatedPool.execute(NOOP_RUNNABLE);
+    }
+}
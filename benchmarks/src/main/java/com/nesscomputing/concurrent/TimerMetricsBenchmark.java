@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of recording task timings with each {@link TimerMetricsMode} when many threads
+ * record into the same pool metrics at once.  Every thread wraps and runs a no-op runnable, which is
+ * what the worker threads of a busy pool full of short tasks do.  Vary the contention with {@code -t}.
+ * A sample rate above 1 times only one in that many tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class TimerMetricsBenchmark
+{
+    private static final Runnable NOOP_RUNNABLE = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    @Param({"YAMMER", "STRIPED"})
+    public TimerMetricsMode mode;
+
+    @Param({"1", "16"})
+    public int sampleRate;
+
+    private CallableWrapper timer;
+
+    @Setup
+    public void setUp()
+    {
+        timer = TimedExecutors.createTimerWrapper("metrics-benchmark", new MetricsRegistry(), mode, sampleRate);
+    }
+
+    @Benchmark
+    public void wrapAndRun()
+    {
+        timer.wrap(NOOP_RUNNABLE).run();
+    }
+}
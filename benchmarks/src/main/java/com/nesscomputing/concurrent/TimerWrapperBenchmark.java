@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Regression benchmark for the fire-and-forget {@code execute()} path of {@link TimerWrapper}.  Wraps and
+ * runs a no-op runnable on the calling thread, so the executor does not muddy the numbers.  Run with
+ * {@code -prof gc}; {@code runnableNative} must allocate less per task than {@code runnableAdapted}, which
+ * goes through the {@link Callable} adaptation in {@link CallableWrapper#wrap(Runnable)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerWrapperBenchmark
+{
+    private static final Runnable NOOP_RUNNABLE = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    private CallableWrapper timer;
+    private CallableWrapper adapted;
+
+    @Setup
+    public void setUp()
+    {
+        timer = TimedExecutors.createTimerWrapper("timer-benchmark", new MetricsRegistry());
+
+        // Only knows how to wrap callables, like TimerWrapper used to.
+        adapted = new CallableWrapper() {
+            @Override
+            public <T> Callable<T> wrap(Callable<T> callable)
+            {
+                return timer.wrap(callable);
+            }
+        };
+    }
+
+    @Benchmark
+    public void runnableNative()
+    {
+        timer.wrap(NOOP_RUNNABLE).run();
+    }
+
+    @Benchmark
+    public void runnableAdapted()
+    {
+        adapted.wrap(NOOP_RUNNABLE).run();
+    }
+}
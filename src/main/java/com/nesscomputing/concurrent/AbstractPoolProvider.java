@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.google.inject.Binding;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.TypeLiteral;
+import com.google.inject.name.Names;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import org.apache.commons.lang3.time.StopWatch;
+import org.skife.config.TimeSpan;
+
+import com.nesscomputing.concurrent.ThreadPoolConfiguration.RejectedHandler;
+import com.nesscomputing.config.Config;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleListener;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.logging.Log;
+
+/**
+ * The parts of a pool provider that {@link NessThreadPoolModule} and {@link NessScheduledThreadPoolModule}
+ * share: reading the configuration, creating the pool on injection, shutting it down on lifecycle stop,
+ * the rejected execution handler and the management bean.
+ */
+abstract class AbstractPoolProvider<S extends ExecutorService> implements Provider<S>
+{
+    private static final Log LOG = Log.findLog();
+
+    final String threadPoolName;
+    private final Key<S> key;
+
+    ThreadPoolConfiguration config;
+    MetricsRegistry registry;
+    Set<CallableWrapper> wrappers;
+    Provider<ExecutorService> fallbackPool;
+    volatile ExecutorServiceManagementBean management;
+    private volatile S service;
+
+    AbstractPoolProvider(String threadPoolName, Key<S> key)
+    {
+        this.threadPoolName = threadPoolName;
+        this.key = key;
+    }
+
+    @Inject
+    public void inject(Config config, Lifecycle lifecycle, Injector injector)
+    {
+        wrappers = injector.getInstance(Key.get(new TypeLiteral<Set<CallableWrapper>>() {}, key.getAnnotation()));
+
+        // Looked up here rather than injected optionally, because create() below needs it.
+        Binding<MetricsRegistry> registryBinding = injector.getExistingBinding(Key.get(MetricsRegistry.class));
+        registry = registryBinding != null ? registryBinding.getProvider().get() : null;
+
+        this.config = config.getBean("ness.thread-pool." + threadPoolName, ThreadPoolConfiguration.class);
+
+        String fallbackPoolName = this.config.getRejectedFallbackPool();
+        if (fallbackPoolName != null) {
+            Preconditions.checkArgument(!fallbackPoolName.equals(threadPoolName), "Thread pool %s can not fall back to itself", threadPoolName);
+            checkNoFallbackCycle(config);
+            fallbackPool = injector.getProvider(Key.get(ExecutorService.class, Names.named(fallbackPoolName)));
+        }
+
+        service = create();
+
+        lifecycle.addListener(LifecycleStage.STOP_STAGE, new LifecycleListener() {
+            @Override
+            public void onStage(LifecycleStage lifecycleStage)
+            {
+                stopExecutor();
+            }
+        });
+    }
+
+    /**
+     * Pools that fall back to one another would hand a task around until the stack overflows once they
+     * are all saturated, so follow the fallback pools of this one and refuse to come back.
+     */
+    private void checkNoFallbackCycle(Config config)
+    {
+        final Set<String> pools = Sets.newLinkedHashSet();
+        pools.add(threadPoolName);
+        ThreadPoolConfiguration poolConfig = this.config;
+        while (poolConfig.getRejectedHandler() == RejectedHandler.FALLBACK && poolConfig.getRejectedFallbackPool() != null) {
+            final String fallbackPoolName = poolConfig.getRejectedFallbackPool();
+            Preconditions.checkArgument(pools.add(fallbackPoolName), "Thread pools fall back in a cycle: %s -> %s", Joiner.on(" -> ").join(pools), fallbackPoolName);
+            poolConfig = config.getBean("ness.thread-pool." + fallbackPoolName, ThreadPoolConfiguration.class);
+        }
+    }
+
+    /**
+     * Build the pool from {@link #config}, and set {@link #management}.
+     */
+    abstract S create();
+
+    /**
+     * Called on lifecycle stop, before the pool is shut down.
+     */
+    void beforeShutdown()
+    {
+    }
+
+    @Override
+    public S get()
+    {
+        S myService = service;
+        Preconditions.checkState(myService != null, "Thread pool %s was injected before lifecycle start or after lifecycle stop.  " +
+                "You might consider injecting a Provider instead, or maybe you forgot a Lifecycle entirely.", threadPoolName);
+        return myService;
+    }
+
+    void stopExecutor()
+    {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.start();
+
+        S myService = service;
+        Preconditions.checkState(myService != null, "no service was ever started?");
+
+        beforeShutdown();
+
+        myService.shutdown();
+        try {
+            if (!myService.awaitTermination(20, TimeUnit.SECONDS))
+            {
+                LOG.error("Executor service %s did not shut down after 20 seconds of waiting!", threadPoolName);
+                myService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            LOG.warn(e, "While awaiting executor %s termination", threadPoolName);
+            Thread.currentThread().interrupt();
+        }
+
+        LOG.info("Executor service %s shutdown after %s", threadPoolName, stopWatch);
+    }
+
+    RejectedExecutionHandler createRejectedHandler(RejectedExecutionHandler defaultRejectedHandler)
+    {
+        RejectedHandler rejectedHandlerEnum = config.getRejectedHandler();
+        if (rejectedHandlerEnum == null) {
+            return defaultRejectedHandler;
+        }
+
+        switch (rejectedHandlerEnum) {
+        case BLOCK_WITH_TIMEOUT:
+            TimeSpan timeout = Objects.firstNonNull(config.getRejectedBlockTimeout(), ThreadPoolConfiguration.DEFAULT_REJECTED_BLOCK_TIMEOUT);
+            return RejectionPolicies.blockWithTimeout(timeout.getMillis(), TimeUnit.MILLISECONDS);
+        case CALLER_RUNS_WITH_LIMIT:
+            int limit = Objects.firstNonNull(config.getRejectedCallerRunsLimit(), ThreadPoolConfiguration.DEFAULT_REJECTED_CALLER_RUNS_LIMIT);
+            return RejectionPolicies.callerRunsWithLimit(limit);
+        case FALLBACK:
+            Preconditions.checkState(fallbackPool != null, "Thread pool %s has a FALLBACK rejected handler but no rejected-fallback-pool", threadPoolName);
+            return RejectionPolicies.fallbackTo(config.getRejectedFallbackPool(), fallbackPool);
+        default:
+            return rejectedHandlerEnum.getHandler();
+        }
+    }
+
+    Provider<ExecutorServiceManagementBean> getManagementProvider()
+    {
+        return new ManagementProvider();
+    }
+
+    private class ManagementProvider implements Provider<ExecutorServiceManagementBean>
+    {
+        @Inject
+        void setInjector(Injector injector)
+        {
+            // Ensure that create() has been called so that management is set.
+            injector.getInstance(key);
+        }
+
+        @Override
+        public ExecutorServiceManagementBean get()
+        {
+            return management;
+        }
+    }
+}
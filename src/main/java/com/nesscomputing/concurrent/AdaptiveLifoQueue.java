@@ -0,0 +1,485 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * A bounded work queue that serves tasks first in, first out while the pool keeps up, and switches to
+ * last in, first out with CoDel style dropping once it falls behind.  Under overload the newest tasks,
+ * whose callers are most likely still waiting, run first, and tasks that have waited too long are
+ * dropped instead of run late.
+ * <p>
+ * The pool counts as overloaded when the oldest task had always waited longer than the target time during
+ * a whole interval, that is, when the queue never got short, and stays overloaded until it does get short
+ * for a whole interval.  While it is, tasks that waited longer than twice the target are dropped, which
+ * leaves a standing queue that keeps the overload state; a pool that keeps up drops nothing.
+ * <p>
+ * Dropped tasks go to the rejected execution handler of the pool.  With a caller runs handler they run on
+ * the worker that dropped them, which keeps every task but gives up the latency gain.  Whatever the handler
+ * does, a dropped task that has not completed when it returns is then failed with a
+ * {@link RejectedExecutionException}, so the future of a dropped task never stays pending; that includes
+ * tasks that the handler discarded or queued again.  The pool must queue tasks that can be failed, i.e.
+ * futures or tasks of a decorated executor, as {@link PriorityThreadPoolExecutor} does.
+ */
+class AdaptiveLifoQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable>
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final RejectedExecutionException STALE = new StaleTaskException();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final ArrayDeque<Entry> deque;
+    private final int capacity;
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final Ticker ticker;
+
+    // Guarded by lock.
+    private long intervalEnd;
+    private long minSojournNanos = Long.MAX_VALUE;
+    private volatile boolean overloaded;
+    private volatile long droppedCount;
+
+    private volatile ThreadPoolExecutor executor;
+    private volatile RejectedExecutionHandler handler;
+
+    AdaptiveLifoQueue(int capacity, long target, long interval, TimeUnit unit)
+    {
+        this(capacity, target, interval, unit, Ticker.systemTicker());
+    }
+
+    AdaptiveLifoQueue(int capacity, long target, long interval, TimeUnit unit, Ticker ticker)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkArgument(target > 0 && target < interval, "need 0 < target < interval");
+        this.capacity = capacity;
+        this.deque = new ArrayDeque<Entry>(Math.min(capacity, 64));
+        this.targetNanos = unit.toNanos(target);
+        this.intervalNanos = unit.toNanos(interval);
+        this.ticker = ticker;
+        this.intervalEnd = ticker.read() + intervalNanos;
+    }
+
+    /**
+     * Set where dropped tasks go.  Until this is called they are only failed.
+     */
+    void setRejectionHandler(ThreadPoolExecutor executor, RejectedExecutionHandler handler)
+    {
+        this.executor = executor;
+        this.handler = handler;
+    }
+
+    boolean isOverloaded()
+    {
+        return overloaded;
+    }
+
+    long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    @Override
+    public boolean offer(Runnable task)
+    {
+        Preconditions.checkNotNull(task, "null task");
+        lock.lock();
+        try {
+            if (deque.size() >= capacity) {
+                return false;
+            }
+            enqueue(task);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        Preconditions.checkNotNull(task, "null task");
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (deque.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException
+    {
+        Preconditions.checkNotNull(task, "null task");
+        lock.lockInterruptibly();
+        try {
+            while (deque.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(task);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException
+    {
+        return awaitTask(false, 0);
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return awaitTask(true, unit.toNanos(timeout));
+    }
+
+    @Override
+    public Runnable poll()
+    {
+        List<Runnable> dropped = null;
+        Runnable task = null;
+        lock.lock();
+        try {
+            final long now = ticker.read();
+            recordSojourn(now);
+            dropped = dropStale(now, dropped);
+            if (!deque.isEmpty()) {
+                task = dequeue(now);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        reject(dropped);
+        return task;
+    }
+
+    private Runnable awaitTask(boolean timed, long nanos) throws InterruptedException
+    {
+        final long deadline = timed ? System.nanoTime() + nanos : 0;
+        while (true) {
+            List<Runnable> dropped = null;
+            Runnable task = null;
+            boolean timedOut = false;
+
+            lock.lockInterruptibly();
+            try {
+                while (true) {
+                    final long now = ticker.read();
+                    recordSojourn(now);
+                    dropped = dropStale(now, dropped);
+                    if (!deque.isEmpty()) {
+                        task = dequeue(now);
+                        break;
+                    }
+                    // Hand dropped tasks over before waiting, not after.
+                    if (dropped != null) {
+                        break;
+                    }
+                    // An empty queue is as short as it gets.
+                    minSojournNanos = 0;
+                    if (timed) {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            timedOut = true;
+                            break;
+                        }
+                        notEmpty.awaitNanos(remaining);
+                    } else {
+                        notEmpty.await();
+                    }
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+
+            reject(dropped);
+            if (task != null || timedOut) {
+                return task;
+            }
+        }
+    }
+
+    @Override
+    public Runnable peek()
+    {
+        lock.lock();
+        try {
+            final Entry entry = overloaded ? deque.peekLast() : deque.peekFirst();
+            return entry == null ? null : entry.task;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (Iterator<Entry> it = deque.iterator(); it.hasNext(); ) {
+                if (o.equals(it.next().task)) {
+                    it.remove();
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        lock.lock();
+        try {
+            return deque.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        lock.lock();
+        try {
+            return capacity - deque.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements)
+    {
+        Preconditions.checkArgument(c != this, "can not drain to self");
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && !deque.isEmpty()) {
+                c.add(deque.pollFirst().task);
+                notFull.signal();
+                n++;
+            }
+            return n;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queue, oldest task first.  Removing through the
+     * iterator removes the task from the queue.
+     */
+    @Override
+    public Iterator<Runnable> iterator()
+    {
+        final List<Runnable> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<Runnable>(deque.size());
+            for (Entry entry : deque) {
+                snapshot.add(entry.task);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return new Iterator<Runnable>() {
+            private final Iterator<Runnable> it = snapshot.iterator();
+            private Runnable last = null;
+
+            @Override
+            public boolean hasNext()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public Runnable next()
+            {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove()
+            {
+                Preconditions.checkState(last != null, "next() has not been called");
+                AdaptiveLifoQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void enqueue(Runnable task)
+    {
+        deque.addLast(new Entry(task, ticker.read()));
+        notEmpty.signal();
+    }
+
+    /**
+     * Record the sojourn time of the oldest task.  This happens before stale tasks are dropped, so that
+     * dropping them does not make the queue look short.
+     */
+    private void recordSojourn(long now)
+    {
+        final Entry head = deque.peekFirst();
+        if (head != null && now - head.enqueueNanos < minSojournNanos) {
+            minSojournNanos = now - head.enqueueNanos;
+        }
+    }
+
+    /**
+     * Update the CoDel state at the end of an interval, then take the oldest task while the pool keeps up
+     * and the newest while it does not.
+     */
+    private Runnable dequeue(long now)
+    {
+        if (now - intervalEnd >= 0) {
+            overloaded = minSojournNanos > targetNanos;
+            minSojournNanos = Long.MAX_VALUE;
+            intervalEnd = now + intervalNanos;
+        }
+
+        final Entry entry = overloaded ? deque.pollLast() : deque.pollFirst();
+        notFull.signal();
+        return entry.task;
+    }
+
+    private List<Runnable> dropStale(long now, List<Runnable> dropped)
+    {
+        if (!overloaded) {
+            return dropped;
+        }
+        Entry head;
+        while ((head = deque.peekFirst()) != null && now - head.enqueueNanos > 2 * targetNanos) {
+            if (dropped == null) {
+                dropped = Lists.newArrayList();
+            }
+            dropped.add(deque.pollFirst().task);
+            droppedCount++;
+            notFull.signal();
+        }
+        return dropped;
+    }
+
+    private void reject(List<Runnable> dropped)
+    {
+        if (dropped == null) {
+            return;
+        }
+        final ThreadPoolExecutor myExecutor = executor;
+        final RejectedExecutionHandler myHandler = handler;
+        for (Runnable task : dropped) {
+            try {
+                if (myHandler != null) {
+                    myHandler.rejectedExecution(task, myExecutor);
+                }
+            } catch (RejectedExecutionException e) {
+                // Failed below.
+            } catch (RuntimeException e) {
+                LOG.warn(e, "While rejecting a stale task");
+            }
+            // Do not leave anyone waiting for a task that did not run.
+            RejectableTasks.reject(task, STALE);
+        }
+    }
+
+    /**
+     * Preallocated, without a stack trace, as an overloaded queue may drop a lot of tasks.
+     */
+    private static final class StaleTaskException extends RejectedExecutionException
+    {
+        private static final long serialVersionUID = 1L;
+
+        StaleTaskException()
+        {
+            super("Dropped after waiting too long in an overloaded queue");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
+
+    private static final class Entry
+    {
+        private final Runnable task;
+        private final long enqueueNanos;
+
+        private Entry(Runnable task, long enqueueNanos)
+        {
+            this.task = task;
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Grows and shrinks the core size of a {@link ThreadPoolExecutor} within fixed bounds, using an
+ * additive increase / multiplicative decrease policy.  Every interval it looks at the queue depth,
+ * the number of active threads and the 99th percentile of the time tasks waited in the queue since
+ * the last interval:
+ * <ul>
+ * <li>When tasks waited longer than the target, or tasks are queued while every core thread is busy,
+ * the pool is congested and one core thread is added.</li>
+ * <li>When nothing is queued, less than half of the core threads are busy and tasks waited less than
+ * half the target, the pool is idle and a quarter of the core threads are removed.</li>
+ * <li>Otherwise the size is held.</li>
+ * </ul>
+ * Growing by one and shrinking by a fraction keeps the pool from oscillating around a peak.  Surplus
+ * threads are not stopped at once, they leave once they have been idle for the keep alive time of the
+ * pool.  So that this happens within an interval rather than after the (long) thread timeout, a
+ * started sizer lowers the keep alive time to its interval.  Queue times come from the
+ * {@link TimerWrapper} of the pool; without it only queue depth and active threads are used.
+ * <p>
+ * All sizers share one scheduler thread, which runs while any sizer is started.
+ */
+class AdaptivePoolSizer implements Runnable
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final Object SCHEDULER_LOCK = new Object();
+    private static ScheduledExecutorService sharedScheduler;
+    private static int schedulerUsers;
+
+    enum Decision
+    {
+        GROW, SHRINK, HOLD;
+    }
+
+    private final String threadPoolName;
+    private final ThreadPoolExecutor executor;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long targetQueueNanos;
+    private final StripedHistogram queueTimes;
+
+    private StripedHistogram.Snapshot lastQueueTimes;
+    private ScheduledFuture<?> scheduled;
+
+    // Written only by the thread calling run(), read by the management bean.
+    private volatile boolean paused;
+    private volatile String lastDecision = "none";
+    private volatile long increases;
+    private volatile long decreases;
+    private volatile long lastQueueTimeNanos;
+
+    AdaptivePoolSizer(String threadPoolName, ThreadPoolExecutor executor, int minThreads, int maxThreads, long targetQueueNanos, StripedHistogram queueTimes /* may be null */)
+    {
+        Preconditions.checkArgument(minThreads > 0 && minThreads <= maxThreads, "need 0 < min threads <= max threads, was %s and %s", minThreads, maxThreads);
+        Preconditions.checkArgument(targetQueueNanos > 0, "target queue time must be positive");
+        this.threadPoolName = threadPoolName;
+        this.executor = executor;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.targetQueueNanos = targetQueueNanos;
+        this.queueTimes = queueTimes;
+        this.lastQueueTimes = queueTimes == null ? null : queueTimes.snapshot();
+    }
+
+    synchronized void start(long interval, TimeUnit unit)
+    {
+        Preconditions.checkState(scheduled == null, "already started");
+        if (executor.getKeepAliveTime(TimeUnit.NANOSECONDS) > unit.toNanos(interval)) {
+            executor.setKeepAliveTime(interval, unit);
+        }
+        scheduled = acquireScheduler().scheduleWithFixedDelay(this, interval, interval, unit);
+    }
+
+    synchronized void stop()
+    {
+        if (scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+            releaseScheduler();
+        }
+    }
+
+    private static ScheduledExecutorService acquireScheduler()
+    {
+        synchronized (SCHEDULER_LOCK) {
+            if (sharedScheduler == null) {
+                sharedScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ness-adaptive-pool-sizer").setDaemon(true).build());
+            }
+            schedulerUsers++;
+            return sharedScheduler;
+        }
+    }
+
+    private static void releaseScheduler()
+    {
+        synchronized (SCHEDULER_LOCK) {
+            if (--schedulerUsers == 0) {
+                sharedScheduler.shutdown();
+                sharedScheduler = null;
+            }
+        }
+    }
+
+    static boolean isSchedulerRunning()
+    {
+        synchronized (SCHEDULER_LOCK) {
+            return sharedScheduler != null;
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            adjust();
+        } catch (RuntimeException e) {
+            LOG.warn(e, "While resizing thread pool %s", threadPoolName);
+        }
+    }
+
+    Decision adjust()
+    {
+        final long queueNanos = sampleQueueTime();
+        if (paused || executor.isShutdown()) {
+            return Decision.HOLD;
+        }
+
+        final int queued = executor.getQueue().size();
+        final int active = executor.getActiveCount();
+        final int core = executor.getCorePoolSize();
+        final int upper = Math.min(maxThreads, executor.getMaximumPoolSize());
+
+        final Decision decision;
+        final int newCore;
+        if ((queueNanos > targetQueueNanos || (queued > 0 && active >= core)) && core < upper) {
+            decision = Decision.GROW;
+            newCore = core + 1;
+        } else if (queued == 0 && active < core / 2 && queueNanos <= targetQueueNanos / 2 && core > minThreads) {
+            decision = Decision.SHRINK;
+            newCore = Math.max(minThreads, core - Math.max(1, core / 4));
+        } else {
+            return Decision.HOLD;
+        }
+
+        if (decision == Decision.GROW) {
+            increases++;
+        } else {
+            decreases++;
+        }
+        lastDecision = String.format("%s %d -> %d (queued %d, active %d, queue time p99 %dus)", decision, core, newCore, queued, active, TimeUnit.NANOSECONDS.toMicros(queueNanos));
+        LOG.info("Thread pool %s: %s", threadPoolName, lastDecision);
+        executor.setCorePoolSize(newCore);
+        return decision;
+    }
+
+    /**
+     * @return the 99th percentile of the queue times recorded since the last call, 0 if there were none.
+     */
+    private long sampleQueueTime()
+    {
+        if (queueTimes == null) {
+            return 0;
+        }
+        final StripedHistogram.Snapshot current = queueTimes.snapshot();
+        final long result = current.since(lastQueueTimes).getValueAtPercentile(99);
+        lastQueueTimes = current;
+        lastQueueTimeNanos = result;
+        return result;
+    }
+
+    void setPaused(boolean paused)
+    {
+        this.paused = paused;
+    }
+
+    boolean isPaused()
+    {
+        return paused;
+    }
+
+    String getLastDecision()
+    {
+        return lastDecision;
+    }
+
+    long getIncreases()
+    {
+        return increases;
+    }
+
+    long getDecreases()
+    {
+        return decreases;
+    }
+
+    long getLastQueueTimeNanos()
+    {
+        return lastQueueTimeNanos;
+    }
+
+    long getTargetQueueNanos()
+    {
+        return targetQueueNanos;
+    }
+}
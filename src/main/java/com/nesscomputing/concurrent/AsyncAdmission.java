@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+
+/**
+ * Admits tasks to an executor in submission order without blocking the submitter or rejecting.  Tasks the
+ * executor has no room for wait here, and are admitted as soon as room frees up.
+ * <p>
+ * Room is looked for whenever a task is submitted and whenever a task admitted from here completes.  While
+ * tasks wait and none admitted from here are running, tasks from elsewhere fill the pool, so this listens to
+ * the {@link RoomListeners} of the pool until no task waits any more.  Cancelled tasks drop out of line;
+ * when the executor shuts down, waiting tasks fail with a {@link RejectedExecutionException}.
+ * <p>
+ * An executor that does not tell when it has room, or that has no queue and so has room only while one
+ * of its threads waits for work, gets every task right away, as with {@link ExecutorService#submit}.
+ * @see AsyncExecutorService
+ */
+final class AsyncAdmission
+{
+    private final ExecutorService executor;
+    private final RoomListeners roomListeners;
+    private final ConcurrentLinkedQueue<BatchTask<?>> waiting = new ConcurrentLinkedQueue<BatchTask<?>>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicBoolean admitting = new AtomicBoolean();
+
+    // Guarded by this.
+    private boolean listening;
+
+    private final Runnable admitNext = new Runnable() {
+        @Override
+        public void run()
+        {
+            running.decrementAndGet();
+            admit();
+        }
+    };
+
+    private final Runnable roomListener = new Runnable() {
+        @Override
+        public void run()
+        {
+            if (waiting.peek() != null) {
+                admit();
+            }
+        }
+    };
+
+    AsyncAdmission(ExecutorService executor)
+    {
+        this.executor = executor;
+        this.roomListeners = canWait(executor) ? RoomListeners.of(executor) : null;
+    }
+
+    private static boolean canWait(ExecutorService executor)
+    {
+        return executor instanceof ThreadPoolExecutor
+                && !(((ThreadPoolExecutor) executor).getQueue() instanceof SynchronousQueue)
+                && TryExecution.canTry(executor);
+    }
+
+    <T> BatchTask<T> submit(BatchTask<T> task)
+    {
+        if (roomListeners == null) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.reject(e);
+            }
+            return task;
+        }
+        waiting.add(task);
+        admit();
+        return task;
+    }
+
+    int getWaitingCount()
+    {
+        return waiting.size();
+    }
+
+    /**
+     * Admit waiting tasks, oldest first, until the executor has no more room.  Only one thread admits at
+     * a time, which keeps the order.
+     */
+    private void admit()
+    {
+        while (waiting.peek() != null && admitting.compareAndSet(false, true)) {
+            boolean full = false;
+            try {
+                BatchTask<?> task;
+                while (!full && (task = waiting.peek()) != null) {
+                    if (task.isDone()) {
+                        waiting.poll();
+                    } else if (executor.isShutdown()) {
+                        waiting.poll();
+                        task.reject(new RejectedExecutionException("Executor is shut down"));
+                    } else if (!TryExecution.isSaturated(executor, false) && TryExecution.tryExecute(executor, task, false)) {
+                        waiting.poll();
+                        running.incrementAndGet();
+                        task.addListener(admitNext, MoreExecutors.sameThreadExecutor());
+                    } else {
+                        full = true;
+                    }
+                }
+            }
+            finally {
+                admitting.set(false);
+            }
+
+            // A task admitted from here will look again when it is done.  Without one, the pool has to tell.
+            // Look once more after starting to listen, room may have freed up just before.
+            if (full && (running.get() > 0 || !startListening())) {
+                return;
+            }
+            // Otherwise look again, for tasks added while this thread was admitting.
+        }
+        stopListening();
+    }
+
+    /**
+     * @return true if this started listening, false if it already was.
+     */
+    private synchronized boolean startListening()
+    {
+        if (listening) {
+            return false;
+        }
+        listening = true;
+        roomListeners.add(roomListener);
+        return true;
+    }
+
+    /**
+     * Stop listening once no task waits.  A task added later starts listening again if it finds the pool full.
+     */
+    private synchronized void stopListening()
+    {
+        if (listening && waiting.peek() == null) {
+            listening = false;
+            roomListeners.remove(roomListener);
+        }
+    }
+}
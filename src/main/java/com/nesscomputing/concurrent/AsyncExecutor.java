@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScope.SCOPE;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedContext;
+
+/**
+ * Composes work on a pool without blocking a thread on {@link java.util.concurrent.Future#get()}.  Every
+ * stage runs on the pool, through its {@link CallableWrapper}s, once the stage before it is done.
+ * {@link NessThreadPoolModule} binds one per pool, under the annotation of the pool.
+ * <p>
+ * A stage runs in the {@link ThreadDelegatedContext} of the thread that added it, not of the thread that
+ * completed the stage before.  The wrappers of the pool apply when the stage is handed to the pool, so
+ * e.g. queue times do not include the wait for the stage before.  If the pool rejects a stage, its future
+ * fails with the {@link RejectedExecutionException}.  A failed or cancelled stage fails the stages after it.
+ */
+public final class AsyncExecutor
+{
+    private final ExecutorService service;
+
+    public AsyncExecutor(ExecutorService service)
+    {
+        this.service = Preconditions.checkNotNull(service, "null service");
+    }
+
+    /**
+     * Run the task on the pool.
+     */
+    public <T> ListenableFuture<T> supplyAsync(Callable<T> task)
+    {
+        final BatchTask<T> future = new BatchTask<T>(task, PrioritizedTasks.priorityOf(task));
+        service.execute(future);
+        return future;
+    }
+
+    /**
+     * Run the task on the pool.
+     */
+    public ListenableFuture<?> runAsync(Runnable task)
+    {
+        final BatchTask<Object> future = new BatchTask<Object>(Executors.callable(task), PrioritizedTasks.priorityOf(task));
+        service.execute(future);
+        return future;
+    }
+
+    /**
+     * Apply the function to the result of the input on the pool.
+     */
+    public <I, O> ListenableFuture<O> thenApplyAsync(final ListenableFuture<I> input, final Function<? super I, ? extends O> function)
+    {
+        return then(input, new Callable<O>() {
+            @Override
+            public O call() throws Exception
+            {
+                return function.apply(getDone(input));
+            }
+        });
+    }
+
+    /**
+     * Apply the function to the result of the input on the pool, and complete with the future it returns.
+     */
+    public <I, O> ListenableFuture<O> thenComposeAsync(final ListenableFuture<I> input, final AsyncFunction<? super I, ? extends O> function)
+    {
+        return Futures.dereference(then(input, new Callable<ListenableFuture<? extends O>>() {
+            @Override
+            public ListenableFuture<? extends O> call() throws Exception
+            {
+                return function.apply(getDone(input));
+            }
+        }));
+    }
+
+    /**
+     * Pass the outcome of the input to the callback on the pool.
+     * @return a future with the outcome of the input that completes once the callback ran.
+     */
+    public <T> ListenableFuture<T> whenCompleteAsync(final ListenableFuture<T> input, final FutureCallback<? super T> callback)
+    {
+        return then(input, new Callable<T>() {
+            @Override
+            public T call() throws Exception
+            {
+                final T result;
+                try {
+                    result = getDone(input);
+                } catch (Throwable t) {
+                    callback.onFailure(t);
+                    throw t;
+                }
+                callback.onSuccess(result);
+                return result;
+            }
+        });
+    }
+
+    private <T> ListenableFuture<T> then(final ListenableFuture<?> input, final Callable<T> stage)
+    {
+        final BatchTask<T> future = new BatchTask<T>(stage, PrioritizedTasks.DEFAULT_PRIORITY);
+        final ThreadDelegatedContext context = SCOPE.getContext();
+        input.addListener(new Runnable() {
+            @Override
+            public void run()
+            {
+                final ThreadDelegatedContext original = SCOPE.getContext();
+                final boolean switched = original != context;
+                if (switched) {
+                    SCOPE.changeScope(context);
+                }
+                try {
+                    service.execute(future);
+                } catch (RejectedExecutionException e) {
+                    future.reject(e);
+                }
+                finally {
+                    if (switched) {
+                        SCOPE.changeScope(original);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    /**
+     * @return the result of a done future, or throw what it failed with.
+     */
+    private static <T> T getDone(ListenableFuture<T> future) throws Exception
+    {
+        try {
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), Exception.class);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An {@link ExecutorService} that takes tasks without ever blocking the submitter, running the task on
+ * the submitting thread or rejecting it.  The executor services bound by {@link NessThreadPoolModule}
+ * implement it.
+ * <p>
+ * Tasks that find the pool saturated wait outside of it, and are admitted in the order they were submitted
+ * once the pool has room.  Callers that can not block, such as event loop threads, can submit as much
+ * work as they like and react to the returned future instead.
+ */
+public interface AsyncExecutorService extends ExecutorService
+{
+    /**
+     * Submit the task, to run once the pool has room for it.  Cancelling the future before that takes
+     * the task out of line.
+     * @return a future that completes when the task has run, or fails with a
+     * {@link java.util.concurrent.RejectedExecutionException} if the pool shuts down first.
+     */
+    <T> ListenableFuture<T> submitAsync(Callable<T> task);
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Hands a batch of tasks to an executor, straight onto the work queue of a {@link ThreadPoolExecutor}
+ * when it is safe to skip {@link ThreadPoolExecutor#execute(Runnable)}.
+ */
+final class BatchExecution
+{
+    private static final Log LOG = Log.findLog();
+
+    private BatchExecution() { }
+
+    static void executeAll(Executor executor, List<? extends Runnable> tasks)
+    {
+        int start = 0;
+        if (executor instanceof ThreadPoolExecutor) {
+            start = offerAll((ThreadPoolExecutor) executor, tasks);
+        }
+        for (int i = start; i < tasks.size(); i++) {
+            executor.execute(tasks.get(i));
+        }
+    }
+
+    /**
+     * Queue as many tasks as fit when the executor would queue them anyway: it is running and has at
+     * least its core number of threads.  Below that it would start a thread per task.
+     * @return the number of tasks queued.
+     */
+    @SuppressWarnings("unchecked")
+    private static int offerAll(ThreadPoolExecutor executor, List<? extends Runnable> tasks)
+    {
+        final BlockingQueue<Runnable> queue = executor.getQueue();
+        if (!(queue instanceof BatchingQueue) || executor.isShutdown() || executor.getCorePoolSize() == 0) {
+            return 0;
+        }
+        // Takes the executor's lock, but once per batch instead of once per task.
+        if (executor.getPoolSize() < executor.getCorePoolSize()) {
+            return 0;
+        }
+
+        final int count = ((BatchingQueue<Runnable>) queue).offerAll(tasks);
+
+        // The same checks execute() makes after queueing a task.
+        if (count > 0 && executor.isShutdown()) {
+            for (int i = 0; i < count; i++) {
+                final Runnable task = tasks.get(i);
+                if (queue.remove(task)) {
+                    executor.getRejectedExecutionHandler().rejectedExecution(task, executor);
+                }
+            }
+        } else if (count > 0 && executor.allowsCoreThreadTimeOut() && executor.getPoolSize() == 0) {
+            executor.prestartCoreThread();
+        }
+        return count;
+    }
+
+    /**
+     * A task of a batch.  Carries the priority of what it runs, and logs failures the way the pools do,
+     * as it does not pass through their execute or submit.
+     */
+    static class BatchTask<T> extends FutureTask<T> implements ListenableFuture<T>, Prioritized, Rejectable
+    {
+        private final ExecutionList executionList = new ExecutionList();
+        private final int priority;
+        private final boolean executed;
+
+        /**
+         * A submitted task; failures stay in the future and only errors are logged above debug.
+         */
+        BatchTask(Callable<T> callable, int priority)
+        {
+            super(callable);
+            this.priority = priority;
+            this.executed = false;
+        }
+
+        /**
+         * An executed task; nobody looks at the future, so every failure is logged as an error.
+         */
+        BatchTask(Runnable runnable, int priority)
+        {
+            super(runnable, null);
+            this.priority = priority;
+            this.executed = true;
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return priority;
+        }
+
+        /**
+         * Fail a task that will never run.
+         */
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            setException(e);
+        }
+
+        @Override
+        public void addListener(Runnable listener, Executor executor)
+        {
+            executionList.add(listener, executor);
+        }
+
+        @Override
+        protected void done()
+        {
+            if (!isCancelled()) {
+                logFailure();
+            }
+            executionList.execute();
+        }
+
+        private void logFailure()
+        {
+            try {
+                get();
+            } catch (CancellationException e) {
+                // Not a failure of the task.
+            } catch (ExecutionException e) {
+                if (executed || e.getCause() instanceof Error) {
+                    LOG.error(e.getCause(), "%s ended with an exception", Thread.currentThread());
+                } else {
+                    LOG.debug(e.getCause(), "%s ended with an exception", Thread.currentThread());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
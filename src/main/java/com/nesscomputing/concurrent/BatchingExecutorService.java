@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An {@link ExecutorService} that takes many tasks at once.  The executor services bound by
+ * {@link NessThreadPoolModule} implement it; {@link NessExecutors#submitAll(ExecutorService, Collection)}
+ * works with any executor service.
+ * <p>
+ * Tasks are wrapped in one pass.  When the pool is a thread pool that is already at its core size and
+ * its work queue supports it ({@link QueueType#RING_BUFFER} and {@link QueueType#PRIORITY}), they go onto
+ * the queue in one operation that wakes at most one worker per task.  Tasks that do not fit the queue,
+ * and all tasks for other pools, are executed one at a time, which may start threads or reject.
+ */
+public interface BatchingExecutorService extends ExecutorService
+{
+    /**
+     * Submit every task.
+     * @return a future per task, in the order of the collection.
+     */
+    <T> List<ListenableFuture<T>> submitAll(Collection<? extends Callable<T>> tasks);
+
+    /**
+     * Execute every task.  Failures are logged, like those of tasks passed to {@link #execute(Runnable)}.
+     */
+    void executeBatch(Collection<? extends Runnable> commands);
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link BlockingQueue} that can insert many elements for the cost of one.
+ */
+interface BatchingQueue<E> extends BlockingQueue<E>
+{
+    /**
+     * Insert as many of the elements as fit, in order, without waiting.  Waiting consumers are woken
+     * once the elements are in, at most one per element.
+     * @return the number of elements inserted, always a prefix of the list.
+     */
+    int offerAll(List<? extends E> elements);
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded priority {@link BlockingQueue}.  Unlike {@link java.util.concurrent.PriorityBlockingQueue} it
+ * has a capacity, so a thread pool using it still grows and rejects, and elements of equal priority come
+ * out in the order they went in.
+ */
+class BoundedPriorityBlockingQueue<E> extends AbstractQueue<E> implements BatchingQueue<E>
+{
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final PriorityQueue<Entry<E>> queue;
+    private final int capacity;
+    private long sequence = 0;
+
+    BoundedPriorityBlockingQueue(int capacity, final Comparator<? super E> comparator)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        Preconditions.checkNotNull(comparator, "null comparator");
+        this.capacity = capacity;
+        this.queue = new PriorityQueue<Entry<E>>(Math.min(capacity, 64), new Comparator<Entry<E>>() {
+            @Override
+            public int compare(Entry<E> a, Entry<E> b)
+            {
+                final int result = comparator.compare(a.element, b.element);
+                return result != 0 ? result : (a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1));
+            }
+        });
+    }
+
+    @Override
+    public boolean offer(E e)
+    {
+        Preconditions.checkNotNull(e, "null element");
+        lock.lock();
+        try {
+            if (queue.size() >= capacity) {
+                return false;
+            }
+            enqueue(e);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int offerAll(List<? extends E> elements)
+    {
+        for (E e : elements) {
+            Preconditions.checkNotNull(e, "null element");
+        }
+        lock.lock();
+        try {
+            final int count = Math.min(elements.size(), capacity - queue.size());
+            for (int i = 0; i < count; i++) {
+                queue.add(new Entry<E>(elements.get(i), sequence++));
+                notEmpty.signal();
+            }
+            return count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        Preconditions.checkNotNull(e, "null element");
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(e);
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException
+    {
+        Preconditions.checkNotNull(e, "null element");
+        lock.lockInterruptibly();
+        try {
+            while (queue.size() >= capacity) {
+                notFull.await();
+            }
+            enqueue(e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E poll()
+    {
+        lock.lock();
+        try {
+            return queue.isEmpty() ? null : dequeue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public E peek()
+    {
+        lock.lock();
+        try {
+            final Entry<E> entry = queue.peek();
+            return entry == null ? null : entry.element;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (o == null) {
+            return false;
+        }
+        lock.lock();
+        try {
+            for (Iterator<Entry<E>> it = queue.iterator(); it.hasNext(); ) {
+                if (o.equals(it.next().element)) {
+                    it.remove();
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size()
+    {
+        lock.lock();
+        try {
+            return queue.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        lock.lock();
+        try {
+            return capacity - queue.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements)
+    {
+        Preconditions.checkArgument(c != this, "can not drain to self");
+        lock.lock();
+        try {
+            int n = 0;
+            while (n < maxElements && !queue.isEmpty()) {
+                c.add(dequeue());
+                n++;
+            }
+            return n;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queue, in no particular order.  Removing through the
+     * iterator removes the element from the queue.
+     */
+    @Override
+    public Iterator<E> iterator()
+    {
+        final List<E> snapshot;
+        lock.lock();
+        try {
+            snapshot = new ArrayList<E>(queue.size());
+            for (Entry<E> entry : queue) {
+                snapshot.add(entry.element);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        return new Iterator<E>() {
+            private int index = 0;
+            private E last = null;
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < snapshot.size();
+            }
+
+            @Override
+            public E next()
+            {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                last = snapshot.get(index++);
+                return last;
+            }
+
+            @Override
+            public void remove()
+            {
+                Preconditions.checkState(last != null, "next() has not been called");
+                BoundedPriorityBlockingQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    private void enqueue(E e)
+    {
+        queue.add(new Entry<E>(e, sequence++));
+        notEmpty.signal();
+    }
+
+    private E dequeue()
+    {
+        final E element = queue.poll().element;
+        notFull.signal();
+        return element;
+    }
+
+    private static final class Entry<E>
+    {
+        private final E element;
+        private final long sequence;
+
+        private Entry(E element, long sequence)
+        {
+            this.element = element;
+            this.sequence = sequence;
+        }
+    }
+}
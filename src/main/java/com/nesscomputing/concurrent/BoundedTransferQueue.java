@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded {@link BlockingQueue} on top of a lock free {@link LinkedTransferQueue}.  Every element in the
+ * queue holds one unit of the capacity, which its consumer gives back; an offer that finds a waiting
+ * consumer takes a unit for the moment of the hand off.  A producer blocked on a full queue waits for a
+ * consumer to take its element directly, and holds a unit beyond the capacity while it waits.  Elements
+ * are stored as they are, so a queued task costs one node of the delegate and nothing more.
+ */
+class BoundedTransferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>
+{
+    /** How long {@link #put(Object)} and timed offers wait for a consumer per round while the queue is full. */
+    private static final long TRANSFER_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final LinkedTransferQueue<E> delegate = new LinkedTransferQueue<E>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final int capacity;
+
+    BoundedTransferQueue(int capacity)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(E e)
+    {
+        Preconditions.checkNotNull(e, "null element");
+        int current;
+        do {
+            current = count.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!count.compareAndSet(current, current + 1));
+
+        // Hands the element to a waiting consumer if there is one.
+        delegate.offer(e);
+        return true;
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (transfer(e, Math.min(remaining, TRANSFER_WAIT_NANOS))) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException
+    {
+        while (!offer(e)) {
+            if (transfer(e, TRANSFER_WAIT_NANOS)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wait for a consumer to take the element directly.  The element is in the delegate while it waits, so
+     * it holds a unit like a queued one, and gives it back itself if nobody took it.
+     */
+    private boolean transfer(E e, long nanos) throws InterruptedException
+    {
+        count.incrementAndGet();
+        boolean transferred = false;
+        try {
+            transferred = delegate.tryTransfer(e, nanos, TimeUnit.NANOSECONDS);
+            return transferred;
+        }
+        finally {
+            if (!transferred) {
+                count.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException
+    {
+        return removed(delegate.take());
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return removed(delegate.poll(timeout, unit));
+    }
+
+    @Override
+    public E poll()
+    {
+        return removed(delegate.poll());
+    }
+
+    @Override
+    public E peek()
+    {
+        return delegate.peek();
+    }
+
+    /**
+     * Removes an element, queued or waiting to be handed off by a blocked producer.  The capacity is given
+     * back only if the element was actually unlinked, not taken by a consumer in the meantime.
+     */
+    @Override
+    public boolean remove(Object o)
+    {
+        if (o != null && delegate.remove(o)) {
+            count.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size()
+    {
+        return Math.max(0, count.get());
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        return Math.max(0, capacity - count.get());
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements)
+    {
+        Preconditions.checkArgument(c != this, "can not drain to self");
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Removing through the iterator removes the first element equal to the last one returned.
+     */
+    @Override
+    public Iterator<E> iterator()
+    {
+        final Iterator<E> iterator = delegate.iterator();
+        return new Iterator<E>() {
+            private E last;
+
+            @Override
+            public boolean hasNext()
+            {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next()
+            {
+                last = iterator.next();
+                return last;
+            }
+
+            @Override
+            public void remove()
+            {
+                Preconditions.checkState(last != null, "next() has not been called");
+                BoundedTransferQueue.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    boolean hasWaitingConsumer()
+    {
+        return delegate.hasWaitingConsumer();
+    }
+
+    private E removed(E e)
+    {
+        if (e != null) {
+            count.decrementAndGet();
+        }
+        return e;
+    }
+}
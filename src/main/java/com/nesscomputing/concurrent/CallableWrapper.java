@@ -16,6 +16,7 @@
 package com.nesscomputing.concurrent;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.google.common.base.Throwables;
 
@@ -30,16 +31,18 @@ public abstract class CallableWrapper
         if (wrapped == unwrapped) {
             return runnable;
         }
-        return new RunnableCallable(wrapped);
+        return new RunnableCallable(wrapped, runnable);
     }
 
-    private static class RunnableCallable implements Runnable
+    private static class RunnableCallable implements Runnable, Rejectable
     {
         private final Callable<?> callable;
+        private final Runnable runnable;
 
-        public RunnableCallable(Callable<?> callable)
+        public RunnableCallable(Callable<?> callable, Runnable runnable)
         {
             this.callable = callable;
+            this.runnable = runnable;
         }
 
         @Override
@@ -51,6 +54,12 @@ public abstract class CallableWrapper
                 throw Throwables.propagate(e);
             }
         }
+
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            RejectableTasks.reject(runnable, e);
+        }
     }
 
     private static class CallableRunnable implements Callable<Void>
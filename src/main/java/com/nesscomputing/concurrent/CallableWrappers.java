@@ -15,28 +15,67 @@
  */
 package com.nesscomputing.concurrent;
 
-import java.util.Set;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 
 public class CallableWrappers
 {
 
     private CallableWrappers() {}
 
+    /**
+     * Combine wrappers into a single wrapper.  Wrappers are applied in iteration order, so the first one
+     * ends up innermost.  Consecutive {@link FusibleCallableWrapper}s are fused into a single task object.
+     */
     public static CallableWrapper combine(Iterable<CallableWrapper> wrappers)
     {
-        return new CombinedCallableWrapper(wrappers);
+        final List<CallableWrapper> stages = Lists.newArrayList();
+        final List<FusibleCallableWrapper> fusible = Lists.newArrayList();
+
+        for (CallableWrapper wrapper : ImmutableSet.copyOf(wrappers)) {
+            if (wrapper instanceof FusibleCallableWrapper) {
+                fusible.add((FusibleCallableWrapper) wrapper);
+            } else {
+                addFused(stages, fusible);
+                stages.add(wrapper);
+            }
+        }
+        addFused(stages, fusible);
+
+        if (stages.size() == 1) {
+            return stages.get(0);
+        }
+        return new CombinedCallableWrapper(stages);
+    }
+
+    static CallableWrapper fuse(List<FusibleCallableWrapper> wrappers)
+    {
+        return new FusedCallableWrapper(wrappers);
+    }
+
+    private static void addFused(List<CallableWrapper> stages, List<FusibleCallableWrapper> fusible)
+    {
+        if (fusible.size() == 1) {
+            stages.add(fusible.get(0));
+        } else if (!fusible.isEmpty()) {
+            stages.add(fuse(fusible));
+        }
+        fusible.clear();
     }
 
     private static class CombinedCallableWrapper extends CallableWrapper
     {
-        private final Set<CallableWrapper> wrappers;
+        private final List<CallableWrapper> wrappers;
 
         public CombinedCallableWrapper(Iterable<CallableWrapper> wrappers)
         {
-            this.wrappers = ImmutableSet.copyOf(wrappers);
+            this.wrappers = ImmutableList.copyOf(wrappers);
         }
 
         @Override
@@ -57,4 +96,170 @@ public class CallableWrappers
             return runnable;
         }
     }
+
+    private static class FusedCallableWrapper extends CallableWrapper
+    {
+        private final FusibleCallableWrapper[] wrappers;
+        private final boolean needsSubmitNanos;
+
+        FusedCallableWrapper(List<FusibleCallableWrapper> wrappers)
+        {
+            this.wrappers = wrappers.toArray(new FusibleCallableWrapper[wrappers.size()]);
+
+            boolean needsSubmitNanos = false;
+            for (FusibleCallableWrapper wrapper : wrappers) {
+                needsSubmitNanos |= wrapper.needsSubmitNanos();
+            }
+            this.needsSubmitNanos = needsSubmitNanos;
+        }
+
+        @Override
+        public <T> Callable<T> wrap(Callable<T> callable)
+        {
+            return new FusedTask<T>(wrappers, needsSubmitNanos ? System.nanoTime() : 0, callable, null);
+        }
+
+        @Override
+        public Runnable wrap(Runnable runnable)
+        {
+            return new FusedTask<Void>(wrappers, needsSubmitNanos ? System.nanoTime() : 0, null, runnable);
+        }
+    }
+
+    /**
+     * The single task object handed to the executor for a fused wrapper chain.  The captured states are
+     * taken once on submission and kept in fields; the before states live on the stack of each run, one
+     * level of {@link #invoke(int)} per wrapper, so a task may be run more than once, even concurrently,
+     * and a run allocates nothing.
+     */
+    private static class FusedTask<T> implements Callable<T>, Runnable, Prioritized, Rejectable
+    {
+        /** Captured states kept in fields, the default chain fuses three wrappers. */
+        private static final int CAPTURED_FIELDS = 3;
+
+        private final FusibleCallableWrapper[] wrappers;
+        private final long submitNanos;
+        private final Callable<T> callable;
+        private final Runnable runnable;
+        private final Object captured0;
+        private final Object captured1;
+        private final Object captured2;
+        private final Object[] capturedRest;
+
+        FusedTask(FusibleCallableWrapper[] wrappers, long submitNanos, Callable<T> callable, Runnable runnable)
+        {
+            this.wrappers = wrappers;
+            this.submitNanos = submitNanos;
+            this.callable = callable;
+            this.runnable = runnable;
+
+            final int n = wrappers.length;
+            this.captured0 = n > 0 ? wrappers[0].capture() : null;
+            this.captured1 = n > 1 ? wrappers[1].capture() : null;
+            this.captured2 = n > 2 ? wrappers[2].capture() : null;
+            if (n > CAPTURED_FIELDS) {
+                this.capturedRest = new Object[n - CAPTURED_FIELDS];
+                for (int i = CAPTURED_FIELDS; i < n; i++) {
+                    capturedRest[i - CAPTURED_FIELDS] = wrappers[i].capture();
+                }
+            } else {
+                this.capturedRest = null;
+            }
+        }
+
+        private Object captured(int i)
+        {
+            switch (i) {
+            case 0:
+                return captured0;
+            case 1:
+                return captured1;
+            case 2:
+                return captured2;
+            default:
+                return capturedRest[i - CAPTURED_FIELDS];
+            }
+        }
+
+        @Override
+        public T call() throws Exception
+        {
+            return invoke(wrappers.length - 1);
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                invoke(wrappers.length - 1);
+            } catch (Refusal e) {
+                // Handed to the runnable already.
+            } catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        /**
+         * Runs the hooks of wrapper {@code i} around the wrappers inside it, and the task inside the first one.
+         */
+        private T invoke(int i) throws Exception
+        {
+            if (i < 0) {
+                if (callable == null) {
+                    runnable.run();
+                    return null;
+                }
+                return callable.call();
+            }
+
+            final FusibleCallableWrapper wrapper = wrappers[i];
+            final Object captured = captured(i);
+            final Object beforeState;
+            try {
+                beforeState = wrapper.before(captured, submitNanos);
+            } catch (RejectedExecutionException e) {
+                if (callable != null) {
+                    throw e;
+                }
+                // Refused; fail the future behind the runnable rather than the worker.
+                RejectableTasks.reject(runnable, e);
+                throw new Refusal(e);
+            }
+
+            Throwable failure = null;
+            try {
+                return invoke(i - 1);
+            } catch (Throwable t) {
+                failure = t instanceof Refusal ? t.getCause() : t;
+                throw t;
+            } finally {
+                wrapper.after(captured, beforeState, submitNanos, failure);
+            }
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return PrioritizedTasks.priorityOf(callable == null ? runnable : callable);
+        }
+
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            RejectableTasks.reject(callable == null ? runnable : callable, e);
+        }
+    }
+
+    /**
+     * Carries the refusal of a runnable out to the wrappers that already ran their before hook.
+     */
+    private static class Refusal extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        Refusal(RejectedExecutionException cause)
+        {
+            super(null, cause, false, false);
+        }
+    }
 }
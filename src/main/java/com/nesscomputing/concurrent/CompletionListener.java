@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Future;
+
+/**
+ * Receives the futures of a streaming invocation in the order the tasks complete.
+ * @see NessExecutors#invokeAllExplosively(java.util.concurrent.ExecutorService, java.util.Iterator, int, CompletionListener)
+ */
+public interface CompletionListener<T>
+{
+    /**
+     * Called on the invoking thread with a future that is {@link Future#isDone() done}.
+     */
+    void onCompletion(Future<T> future);
+}
@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+import com.nesscomputing.logging.Log;
+
+/**
+ * A view of a shared executor that runs at most a fixed number of its tasks at a time.  Tasks beyond
+ * the limit wait in a queue of the view, not in the shared pool's queue, so one caller that fans out
+ * hundreds of tasks does not crowd out everyone else.  When one of its tasks completes, the view hands
+ * the next one to the shared pool, behind whatever other callers queued in the meantime.  The view has
+ * no threads of its own.
+ * <p>
+ * When the shared executor is a decorated one, tasks are wrapped when they are handed to the view, on
+ * the caller's thread, and run on the undecorated pool.  Queue times then include the time waiting in
+ * the view.  The view never runs a task itself.  If the shared pool rejects a task, the task stays first
+ * in the view's queue and is handed over again when another task of the view completes; while none of
+ * them runs, the rejection goes to the caller instead.  Once the shared pool is shut down, the futures of
+ * the waiting tasks fail.  A pool that runs rejected tasks on the caller is fine, tasks run inline do not
+ * nest.
+ * <p>
+ * Shutting the view down does not shut the shared executor down.  {@link #shutdownNow()} returns the
+ * tasks waiting in the view but does not interrupt the running ones, as their threads are shared.
+ */
+class ConcurrencyLimitingExecutorService extends AbstractExecutorService
+{
+    private static final Log LOG = Log.findLog();
+
+    private final ExecutorService executor;
+    private final CallableWrapper wrapper;
+    private final int maxConcurrency;
+
+    private final BlockingDeque<Pending> pending = new LinkedBlockingDeque<Pending>();
+    private final AtomicInteger running = new AtomicInteger();
+    private final ThreadLocal<Boolean> draining = new ThreadLocal<Boolean>();
+    private final Object terminationLock = new Object();
+    private volatile boolean shutdown;
+
+    ConcurrencyLimitingExecutorService(ExecutorService executor, CallableWrapper wrapper, int maxConcurrency)
+    {
+        Preconditions.checkArgument(maxConcurrency > 0, "max concurrency must be positive");
+        this.executor = executor;
+        this.wrapper = wrapper;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        Preconditions.checkNotNull(command, "null command");
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor view is shut down");
+        }
+        final Pending entry = new Pending(command, wrapper == null ? command : PrioritizedTasks.carryPriority(command, wrapper.wrap(command)));
+        pending.add(entry);
+        final RejectedExecutionException rejection = drain();
+        if (rejection != null) {
+            final boolean sharedShutdown = executor.isShutdown();
+            final boolean mine = (sharedShutdown || running.get() == 0) && pending.remove(entry);
+            if (sharedShutdown) {
+                abandonPending(rejection);
+            }
+            if (mine) {
+                signalIfTerminated();
+                throw rejection;
+            }
+        }
+    }
+
+    /**
+     * Start pending tasks while there are permits.  Checks for pending tasks again after every permit
+     * it gives back, so that a task added concurrently is never stranded.  A task that the shared pool
+     * runs on this thread frees its permit without draining, this loop picks the next task up instead.
+     *
+     * @return the rejection of the shared pool if it refused a task, which is back in the queue.  What a
+     * task that the pool runs on this thread throws goes to the caller.
+     */
+    private RejectedExecutionException drain()
+    {
+        if (draining.get() != null) {
+            return null;
+        }
+        draining.set(Boolean.TRUE);
+        try {
+            while (!pending.isEmpty()) {
+                final int current = running.get();
+                if (current >= maxConcurrency) {
+                    return null;
+                }
+                if (!running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                final Pending next = pending.poll();
+                if (next == null) {
+                    release();
+                    continue;
+                }
+                final Worker worker = new Worker(next.task);
+                try {
+                    executor.execute(worker);
+                } catch (RejectedExecutionException e) {
+                    if (worker.started.compareAndSet(false, true)) {
+                        pending.addFirst(next);
+                        release();
+                        return e;
+                    }
+                    // The pool ran the task on this thread, and the task threw.
+                    throw e;
+                }
+            }
+            return null;
+        }
+        finally {
+            draining.remove();
+        }
+    }
+
+    /**
+     * The shared pool is shut down and will not take any of the waiting tasks.
+     */
+    private void abandonPending(RejectedExecutionException e)
+    {
+        Pending entry;
+        while ((entry = pending.poll()) != null) {
+            if (!RejectableTasks.reject(entry.command, e)) {
+                LOG.warn("Shared executor is shut down, dropping %s", entry.command);
+            }
+        }
+        signalIfTerminated();
+    }
+
+    private void release()
+    {
+        running.decrementAndGet();
+        signalIfTerminated();
+    }
+    private void signalIfTerminated()
+    {
+        if (isTerminated()) {
+            synchronized (terminationLock) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
+    {
+        return new BatchTask<T>(callable, PrioritizedTasks.priorityOf(callable));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
+    {
+        return new BatchTask<T>(Executors.callable(runnable, value), PrioritizedTasks.priorityOf(runnable));
+    }
+
+    @Override
+    public void shutdown()
+    {
+        shutdown = true;
+        signalIfTerminated();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        shutdown();
+        final List<Runnable> result = Lists.newArrayList();
+        Pending entry;
+        while ((entry = pending.poll()) != null) {
+            result.add(entry.command);
+        }
+        signalIfTerminated();
+        return result;
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return shutdown && running.get() == 0 && pending.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationLock) {
+            while (!isTerminated()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+            }
+            return true;
+        }
+    }
+
+    private static class Pending
+    {
+        private final Runnable command;
+        private final Runnable task;
+
+        Pending(Runnable command, Runnable task)
+        {
+            this.command = command;
+            this.task = task;
+        }
+    }
+
+    /**
+     * Runs a task of the view on the shared pool and hands the permit on.  A worker that the shared pool
+     * drops from its queue fails its task instead, and hands the permit on all the same.
+     */
+    private class Worker implements Runnable, Rejectable
+    {
+        private final Runnable task;
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        Worker(Runnable task)
+        {
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                task.run();
+            }
+            finally {
+                finish();
+            }
+        }
+
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            if (started.compareAndSet(false, true)) {
+                RejectableTasks.reject(task, e);
+                finish();
+            }
+        }
+
+        private void finish()
+        {
+            release();
+            final RejectedExecutionException rejection = drain();
+            if (rejection != null && executor.isShutdown()) {
+                abandonPending(rejection);
+            }
+        }
+    }
+}
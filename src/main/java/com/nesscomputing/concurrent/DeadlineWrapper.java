@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Captures the {@link TaskDeadline} of the submitting thread and drops the task instead of running it
+ * once the deadline has passed.  The future of a dropped task fails with a shared
+ * {@link DeadlineExceededException} without a stack trace, as drops come in bulk when a pool falls behind,
+ * and drops are counted by the {@code <pool>.expired} meter.  Must be the
+ * first wrapper of a pool, so that the check happens last, right before the task would run, and the
+ * other wrappers see the drop as a failed task.
+ */
+class DeadlineWrapper extends FusibleCallableWrapper
+{
+    private static final DeadlineExceededException EXPIRED = new ExpiredException();
+
+    private final String threadPoolName;
+    private volatile Meter expiredMeter;
+
+    DeadlineWrapper(String threadPoolName)
+    {
+        this.threadPoolName = threadPoolName;
+    }
+
+    DeadlineWrapper setMetricsRegistry(MetricsRegistry registry)
+    {
+        this.expiredMeter = registry.newMeter(TimedExecutors.class, threadPoolName + ".expired", "expired", TimeUnit.MINUTES);
+        return this;
+    }
+
+    @Override
+    protected Object capture()
+    {
+        return TaskDeadline.current();
+    }
+
+    @Override
+    protected Object before(Object captured, long submitNanos)
+    {
+        if (captured == null) {
+            return null;
+        }
+
+        final TaskDeadline deadline = (TaskDeadline) captured;
+        if (System.nanoTime() - deadline.getDeadlineNanos() >= 0) {
+            final Meter myMeter = expiredMeter;
+            if (myMeter != null) {
+                myMeter.mark();
+            }
+            throw EXPIRED;
+        }
+
+        final TaskDeadline original = TaskDeadline.current();
+        TaskDeadline.restore(deadline);
+        return original;
+    }
+
+    @Override
+    protected void after(Object captured, Object beforeState, long submitNanos, Throwable failure)
+    {
+        if (captured != null) {
+            TaskDeadline.restore((TaskDeadline) beforeState);
+        }
+    }
+
+    private static final class ExpiredException extends DeadlineExceededException
+    {
+        private static final long serialVersionUID = 1L;
+
+        ExpiredException()
+        {
+            super("Deadline passed before the task could run");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
+}
+
+class DeadlineWrapperProvider implements Provider<DeadlineWrapper>
+{
+    private final String threadPoolName;
+    private MetricsRegistry registry;
+
+    DeadlineWrapperProvider(String threadPoolName)
+    {
+        this.threadPoolName = threadPoolName;
+    }
+
+    @Inject(optional=true)
+    void setMetricsRegistry(MetricsRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    @Override
+    public DeadlineWrapper get()
+    {
+        DeadlineWrapper wrapper = new DeadlineWrapper(threadPoolName);
+        if (registry != null) {
+            wrapper = wrapper.setMetricsRegistry(registry);
+        }
+        return wrapper;
+    }
+}
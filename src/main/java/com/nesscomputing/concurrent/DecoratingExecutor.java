@@ -31,6 +31,6 @@ class DecoratingExecutor implements Executor
     @Override
     public void execute(final Runnable runnable)
     {
-        wrappedExecutor.execute(wrapper.wrap(runnable));
+        wrappedExecutor.execute(PrioritizedTasks.carryPriority(runnable, wrapper.wrap(runnable)));
     }
 }
@@ -16,10 +16,13 @@
 package com.nesscomputing.concurrent;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -27,49 +30,128 @@ import java.util.concurrent.TimeoutException;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
-class DecoratingExecutorService extends DelegatingExecutorService implements ExecutorService
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+
+class DecoratingExecutorService extends DelegatingExecutorService implements ListeningExecutorService, BatchingExecutorService, TryExecutorService, AsyncExecutorService
 {
     private final ExecutorService wrappedExcutorService;
     private final CallableWrapper wrapper;
+    private final AsyncAdmission admission;
 
     DecoratingExecutorService(final ExecutorService wrappedExecutorService, final CallableWrapper wrapper)
     {
         super(wrappedExecutorService);
         this.wrappedExcutorService = wrappedExecutorService;
         this.wrapper = wrapper;
+        this.admission = new AsyncAdmission(wrappedExecutorService);
+    }
+
+    CallableWrapper getWrapper()
+    {
+        return wrapper;
     }
 
     @Override
     public void execute(final Runnable command)
     {
-        wrappedExcutorService.execute(wrapper.wrap(command));
+        wrappedExcutorService.execute(PrioritizedTasks.carryPriority(command, wrapper.wrap(command)));
     }
 
     @Override
-    public <T> Future<T> submit(final Callable<T> task)
+    public <T> ListenableFuture<T> submit(final Callable<T> task)
     {
-        return wrappedExcutorService.submit(wrapper.wrap(task));
+        return submitTask(new BatchTask<T>(wrapper.wrap(task), PrioritizedTasks.priorityOf(task)));
     }
 
     @Override
-    public <T> Future<T> submit(final Runnable task, final T result)
+    public <T> ListenableFuture<T> submit(final Runnable task, final T result)
     {
-        return wrappedExcutorService.submit(wrapper.wrap(task),result);
+        // Wrapped as a callable, so that a wrapper that refuses to run it fails the future.
+        return submitTask(new BatchTask<T>(wrapper.wrap(Executors.callable(task, result)), PrioritizedTasks.priorityOf(task)));
     }
 
     @Override
-    public Future<?> submit(final Runnable task)
+    public ListenableFuture<?> submit(final Runnable task)
     {
-        return wrappedExcutorService.submit(wrapper.wrap(task));
+        return submit(task, null);
     }
 
     @Override
-    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException
+    public boolean tryExecute(final Runnable command)
+    {
+        if (TryExecution.isSaturated(wrappedExcutorService)) {
+            return false;
+        }
+        return TryExecution.tryExecute(wrappedExcutorService, PrioritizedTasks.carryPriority(command, wrapper.wrap(command)));
+    }
+
+    @Override
+    public <T> ListenableFuture<T> trySubmit(final Callable<T> task)
+    {
+        if (TryExecution.isSaturated(wrappedExcutorService)) {
+            return null;
+        }
+        final BatchTask<T> future = new BatchTask<T>(wrapper.wrap(task), PrioritizedTasks.priorityOf(task));
+        return TryExecution.tryExecute(wrappedExcutorService, future) ? future : null;
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submitAsync(final Callable<T> task)
+    {
+        return admission.submit(new BatchTask<T>(wrapper.wrap(task), PrioritizedTasks.priorityOf(task)));
+    }
+
+    @Override
+    public <T> List<ListenableFuture<T>> submitAll(final Collection<? extends Callable<T>> tasks)
     {
         Preconditions.checkArgument(tasks != null, "collection of tasks can not be null!");
-        return wrappedExcutorService.invokeAll(meatify(tasks));
+        final List<BatchTask<T>> batch = wrapAll(tasks);
+        BatchExecution.executeAll(wrappedExcutorService, batch);
+        return Collections.<ListenableFuture<T>>unmodifiableList(batch);
+    }
 
+    @Override
+    public void executeBatch(final Collection<? extends Runnable> commands)
+    {
+        Preconditions.checkArgument(commands != null, "collection of tasks can not be null!");
+        final List<BatchTask<Void>> batch = Lists.newArrayListWithCapacity(commands.size());
+        for (Runnable command : commands) {
+            batch.add(new BatchTask<Void>(wrapper.wrap(command), PrioritizedTasks.priorityOf(command)));
+        }
+        BatchExecution.executeAll(wrappedExcutorService, batch);
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException
+    {
+        Preconditions.checkArgument(tasks != null, "collection of tasks can not be null!");
+        final List<BatchTask<T>> batch = wrapAll(tasks);
+        boolean done = false;
+        try {
+            BatchExecution.executeAll(wrappedExcutorService, batch);
+            for (Future<T> future : batch) {
+                if (!future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (CancellationException | ExecutionException e) {
+                        // Left in the future for the caller.
+                    }
+                }
+            }
+            done = true;
+            return Collections.<Future<T>>unmodifiableList(batch);
+        }
+        finally {
+            if (!done) {
+                for (Future<T> future : batch) {
+                    future.cancel(true);
+                }
+            }
+        }
     }
 
     @Override
@@ -91,12 +173,31 @@ class DecoratingExecutorService extends DelegatingExecutorService implements Exe
         return wrappedExcutorService.invokeAny(meatify(tasks), timeout, unit);
     }
 
+    /**
+     * Execute a task that carries its own future, so that the future is a listenable one whatever the
+     * executor service underneath.
+     */
+    <T> BatchTask<T> submitTask(final BatchTask<T> task)
+    {
+        wrappedExcutorService.execute(task);
+        return task;
+    }
+
+    private <T> List<BatchTask<T>> wrapAll(final Collection<? extends Callable<T>> tasks)
+    {
+        final List<BatchTask<T>> batch = Lists.newArrayListWithCapacity(tasks.size());
+        for (Callable<T> task : tasks) {
+            batch.add(new BatchTask<T>(wrapper.wrap(task), PrioritizedTasks.priorityOf(task)));
+        }
+        return batch;
+    }
+
     private <T> Collection<Callable<T>> meatify(final Collection<? extends Callable<T>> callables)
     {
         return Collections2.transform(callables, new Function<Callable<T>, Callable<T>>() {
             @Override
             public Callable<T> apply(final Callable<T> input) {
-                return wrapper.wrap(input);
+                return PrioritizedTasks.carryPriority(input, wrapper.wrap(input));
             }
         });
     }
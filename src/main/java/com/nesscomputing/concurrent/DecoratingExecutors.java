@@ -17,6 +17,7 @@ package com.nesscomputing.concurrent;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 public final class DecoratingExecutors
 {
@@ -31,4 +32,9 @@ public final class DecoratingExecutors
     {
         return new DecoratingExecutorService(executor, wrapper);
     }
+
+    public static ScheduledExecutorService decorate(ScheduledExecutorService executor, CallableWrapper wrapper)
+    {
+        return new DecoratingScheduledExecutorService(executor, wrapper, null);
+    }
 }
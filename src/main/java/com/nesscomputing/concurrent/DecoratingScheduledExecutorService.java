@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+
+/**
+ * Applies a {@link CallableWrapper} to scheduled tasks as well.  A periodic task is wrapped once, so
+ * all of its runs share what the wrapper captured when it was scheduled.  With a
+ * {@link ScheduledTaskTimer}, every task is also timed against the time it was meant to run at.
+ */
+class DecoratingScheduledExecutorService extends DecoratingExecutorService implements ScheduledExecutorService
+{
+    private final ScheduledExecutorService wrappedExecutorService;
+    private final CallableWrapper wrapper;
+    private final ScheduledTaskTimer timer;
+
+    DecoratingScheduledExecutorService(final ScheduledExecutorService wrappedExecutorService, final CallableWrapper wrapper, final ScheduledTaskTimer timer)
+    {
+        super(wrappedExecutorService, wrapper);
+        this.wrappedExecutorService = wrappedExecutorService;
+        this.wrapper = wrapper;
+        this.timer = timer;
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        if (timer == null) {
+            super.execute(command);
+        } else {
+            wrappedExecutorService.execute(time(wrap(command), 0, 0));
+        }
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(final Callable<T> task)
+    {
+        if (timer == null) {
+            return super.submit(task);
+        }
+        return submitTask(new BatchTask<T>(time(wrap(task), 0), PrioritizedTasks.priorityOf(task)));
+    }
+
+    @Override
+    public <T> ListenableFuture<T> submit(final Runnable task, final T result)
+    {
+        if (timer == null) {
+            return super.submit(task, result);
+        }
+        return submitTask(new BatchTask<T>(Executors.callable(time(wrap(task), 0, 0), result), PrioritizedTasks.priorityOf(task)));
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit)
+    {
+        return wrappedExecutorService.schedule(time(wrap(command), unit.toNanos(delay), 0), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable, final long delay, final TimeUnit unit)
+    {
+        return wrappedExecutorService.schedule(time(wrap(callable), unit.toNanos(delay)), delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(final Runnable command, final long initialDelay, final long period, final TimeUnit unit)
+    {
+        return wrappedExecutorService.scheduleAtFixedRate(time(wrap(command), unit.toNanos(initialDelay), unit.toNanos(period)), initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(final Runnable command, final long initialDelay, final long delay, final TimeUnit unit)
+    {
+        return wrappedExecutorService.scheduleWithFixedDelay(time(wrap(command), unit.toNanos(initialDelay), -unit.toNanos(delay)), initialDelay, delay, unit);
+    }
+
+    private Runnable wrap(final Runnable command)
+    {
+        return PrioritizedTasks.carryPriority(command, wrapper.wrap(command));
+    }
+
+    private <V> Callable<V> wrap(final Callable<V> callable)
+    {
+        return PrioritizedTasks.carryPriority(callable, wrapper.wrap(callable));
+    }
+
+    private Runnable time(final Runnable command, final long delayNanos, final long periodNanos)
+    {
+        return timer == null ? command : timer.time(command, delayNanos, periodNanos);
+    }
+
+    private <V> Callable<V> time(final Callable<V> callable, final long delayNanos)
+    {
+        return timer == null ? callable : timer.time(callable, delayNanos);
+    }
+}
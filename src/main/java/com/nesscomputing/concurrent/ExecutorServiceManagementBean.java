@@ -37,4 +37,10 @@ public interface ExecutorServiceManagementBean
     @Managed int getLargestPoolSize();
     @Managed long getEnqueuedTaskCount();
     @Managed long getCompletedTaskCount();
+    /** Tasks passed to the rejected execution handler. */
+    @Managed long getRejectedTaskCount();
+    /** Rejected tasks that the handler did not run, queue or hand off. */
+    @Managed long getAbortedTaskCount();
+    /** Total time spent in the rejected execution handler, e.g. blocked or running tasks on callers. */
+    @Managed long getRejectionTimeMs();
 }
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.weakref.jmx.Managed;
+
+/**
+ * Management bean for a {@link ForkJoinPool}.  A fork join pool can not be resized and does not count
+ * its tasks, so those attributes are fixed; the work stealing statistics are exported in addition.
+ */
+public class ForkJoinPoolManagementBean implements ExecutorServiceManagementBean
+{
+    private final ForkJoinPool service;
+    private final WorkerCounter workers;
+
+    ForkJoinPoolManagementBean(ForkJoinPool service, WorkerCounter workers)
+    {
+        this.service = service;
+        this.workers = workers;
+    }
+
+    /**
+     * Counts the live worker threads of a pool, for its largest pool size.  The pool does not keep that
+     * number, so its thread factory has to report the workers that start and terminate.
+     */
+    static final class WorkerCounter
+    {
+        private final AtomicInteger live = new AtomicInteger();
+        private final AtomicInteger largest = new AtomicInteger();
+
+        void started()
+        {
+            final int now = live.incrementAndGet();
+            int max = largest.get();
+            while (now > max && !largest.compareAndSet(max, now)) {
+                max = largest.get();
+            }
+        }
+
+        void terminated()
+        {
+            live.decrementAndGet();
+        }
+
+        int getLargest()
+        {
+            return largest.get();
+        }
+    }
+
+    @Override
+    @Managed
+    public boolean isShutdown()
+    {
+        return service.isShutdown();
+    }
+
+    @Override
+    @Managed
+    public boolean isTerminated()
+    {
+        return service.isTerminated();
+    }
+
+    @Override
+    @Managed
+    public boolean isTerminating()
+    {
+        return service.isTerminating();
+    }
+
+    @Override
+    @Managed
+    public String getRejectedExecutionHandler()
+    {
+        return "null";
+    }
+
+    @Override
+    @Managed
+    public int getCorePoolSize()
+    {
+        return service.getParallelism();
+    }
+
+    @Override
+    @Managed
+    public void setCorePoolSize(int corePoolSize)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Managed
+    public int getMaximumPoolSize()
+    {
+        return service.getParallelism();
+    }
+
+    @Override
+    @Managed
+    public void setMaximumPoolSize(int maximumPoolSize)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Managed
+    public long getKeepAliveTime()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public void setKeepAliveTime(String keepAliveTime)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Managed
+    public void setKeepAliveTime(long keepAliveTimeMs)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Managed
+    public int getQueueCurrentSize()
+    {
+        return (int) Math.min(Integer.MAX_VALUE, service.getQueuedSubmissionCount() + service.getQueuedTaskCount());
+    }
+
+    @Override
+    @Managed
+    public int getQueueRemainingSize()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    @Managed
+    public int getCurrentPoolSize()
+    {
+        return service.getPoolSize();
+    }
+
+    @Override
+    @Managed
+    public int getCurrentlyActiveThreads()
+    {
+        return service.getActiveThreadCount();
+    }
+
+    @Override
+    @Managed
+    public int getLargestPoolSize()
+    {
+        return workers.getLargest();
+    }
+
+    @Override
+    @Managed
+    public long getEnqueuedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public long getCompletedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public long getRejectedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public long getAbortedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public long getRejectionTimeMs()
+    {
+        return 0;
+    }
+
+    @Managed
+    public int getParallelism()
+    {
+        return service.getParallelism();
+    }
+
+    @Managed
+    public boolean isAsyncMode()
+    {
+        return service.getAsyncMode();
+    }
+
+    @Managed
+    public long getStealCount()
+    {
+        return service.getStealCount();
+    }
+
+    @Managed
+    public int getQueuedSubmissionCount()
+    {
+        return service.getQueuedSubmissionCount();
+    }
+
+    @Managed
+    public long getQueuedTaskCount()
+    {
+        return service.getQueuedTaskCount();
+    }
+
+    @Managed
+    public int getRunningThreadCount()
+    {
+        return service.getRunningThreadCount();
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Callable;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A {@link CallableWrapper} that decorates tasks through hooks instead of through a wrapping task.
+ * {@link CallableWrappers#combine(Iterable)} fuses consecutive fusible wrappers, so that a submission
+ * creates a single task object which holds the captured state of every participating wrapper.
+ * <p>
+ * For a task wrapped by wrappers {@code w1 ... wn} (in that order), {@link #capture()} is called
+ * in order on the submitting thread, {@link #before(Object, long)} is called in reverse order on the
+ * executing thread and {@link #after(Object, Object, long, Throwable)} in order again, which is the same
+ * nesting the wrappers would have if they wrapped each other.  Hooks should not throw, unless
+ * {@code before} refuses to run the task; if {@code before} throws, the task fails with that exception
+ * and only the wrappers whose {@code before} has already completed see {@code after}.  A wrapper refuses
+ * best with a preallocated {@link java.util.concurrent.RejectedExecutionException}: a wrapped callable
+ * throws it, but a wrapped runnable hands it to the {@link Rejectable} it runs, if any, instead of
+ * throwing it through the worker.
+ */
+public abstract class FusibleCallableWrapper extends CallableWrapper
+{
+    // Created lazily, the subclass may not be fully constructed yet at construction time.
+    private CallableWrapper fused;
+
+    /**
+     * @return true if the hooks need the submission timestamp.  If no fused wrapper needs it,
+     * {@link System#nanoTime()} is not called on submission and hooks see {@code 0}.
+     */
+    protected boolean needsSubmitNanos()
+    {
+        return false;
+    }
+
+    /**
+     * Capture state on the submitting thread.
+     * @return state to hand to {@link #before(Object, long)} and {@link #after(Object, Object, long, Throwable)}, may be null.
+     */
+    protected abstract Object capture();
+
+    /**
+     * Called on the executing thread before the task runs.
+     * @return state to hand to {@link #after(Object, Object, long, Throwable)}, may be null.
+     */
+    protected abstract Object before(Object captured, long submitNanos);
+
+    /**
+     * Called on the executing thread after the task ran.
+     * @param failure the exception thrown by the task, or null if it completed normally.
+     */
+    protected abstract void after(Object captured, Object beforeState, long submitNanos, Throwable failure);
+
+    @Override
+    public <T> Callable<T> wrap(Callable<T> callable)
+    {
+        return getFused().wrap(callable);
+    }
+
+    @Override
+    public Runnable wrap(Runnable runnable)
+    {
+        return getFused().wrap(runnable);
+    }
+
+    private CallableWrapper getFused()
+    {
+        CallableWrapper myFused = fused;
+        if (myFused == null) {
+            // Racy but benign, the fused wrapper is immutable.
+            myFused = CallableWrappers.fuse(ImmutableList.of(this));
+            fused = myFused;
+        }
+        return myFused;
+    }
+}
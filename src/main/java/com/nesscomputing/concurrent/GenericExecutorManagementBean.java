@@ -136,4 +136,22 @@ public class GenericExecutorManagementBean implements ExecutorServiceManagementB
     {
         return 0;
     }
+
+    @Override
+    public long getRejectedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    public long getAbortedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    public long getRejectionTimeMs()
+    {
+        return 0;
+    }
 }
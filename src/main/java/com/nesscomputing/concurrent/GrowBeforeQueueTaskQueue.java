@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ForwardingIterator;
+import com.google.common.util.concurrent.ForwardingBlockingQueue;
+
+/**
+ * A work queue that makes a {@link ThreadPoolExecutor} start threads up to its maximum before it
+ * queues tasks, then queue, then reject.  A plain executor only grows past its core size once the
+ * queue is full.
+ * <p>
+ * {@link #offer(Runnable)} refuses a task while the pool is below its maximum size and more tasks are
+ * in flight, queued or running, than it has threads, so the executor starts a new thread for it.  This
+ * is the check Tomcat's task queue makes, and like it, the executor counts the tasks handed to it and
+ * the ones that complete, so that the check takes none of the executor's locks.  Counting the queued
+ * tasks matters for bursts: an idle worker takes only one of them.  The queue counts the threads itself,
+ * through the thread factory.  If another submitter started the last thread first, the executor rejects
+ * the task, and the handler from {@link #wrap(RejectedExecutionHandler)} puts it on the queue after all.
+ * Only tasks that do not fit the queue reach the real handler.
+ */
+final class GrowBeforeQueueTaskQueue extends ForwardingBlockingQueue<Runnable>
+{
+    private final BlockingQueue<Runnable> delegate;
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger threads = new AtomicInteger();
+    private volatile ThreadPoolExecutor executor;
+
+    GrowBeforeQueueTaskQueue(BlockingQueue<Runnable> delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return the queue if it is one, or null.
+     */
+    static GrowBeforeQueueTaskQueue of(BlockingQueue<Runnable> queue)
+    {
+        return queue instanceof GrowBeforeQueueTaskQueue ? (GrowBeforeQueueTaskQueue) queue : null;
+    }
+
+    @Override
+    protected BlockingQueue<Runnable> delegate()
+    {
+        return delegate;
+    }
+
+    /**
+     * Must be called with the executor that uses this queue before it starts any thread.  The executor
+     * must count its tasks, as {@link NotifyingLoggingExecutor} and {@link PriorityThreadPoolExecutor} do.
+     */
+    void setExecutor(ThreadPoolExecutor executor)
+    {
+        Preconditions.checkState(this.executor == null, "executor already set");
+        Preconditions.checkArgument(executor.getQueue() == this, "executor does not use this queue");
+        Preconditions.checkArgument(executor instanceof NotifyingLoggingExecutor || executor instanceof PriorityThreadPoolExecutor, "executor does not count its tasks");
+        Preconditions.checkArgument(executor.getPoolSize() == 0, "executor already started threads");
+        executor.setThreadFactory(new CountingThreadFactory(executor.getThreadFactory()));
+        this.executor = executor;
+    }
+
+    /**
+     * Called by the executor for every task handed to it, before it starts a thread for it or queues it.
+     */
+    void taskSubmitted()
+    {
+        submitted.incrementAndGet();
+    }
+
+    /**
+     * Called by the executor after it ran a task.
+     */
+    void taskCompleted()
+    {
+        submitted.decrementAndGet();
+    }
+
+    /**
+     * @return the tasks in flight, queued or running.
+     */
+    int getSubmittedCount()
+    {
+        return submitted.get();
+    }
+
+    /**
+     * @return a handler that queues tasks refused only to grow the pool, and passes the others on.
+     */
+    RejectedExecutionHandler wrap(RejectedExecutionHandler handler)
+    {
+        return new QueueingHandler(handler);
+    }
+
+    /**
+     * @return a handler for tasks that leave the queue without running, e.g. that an adaptive queue drops.
+     */
+    RejectedExecutionHandler wrapDropped(final RejectedExecutionHandler handler)
+    {
+        return new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable task, ThreadPoolExecutor rejectingExecutor)
+            {
+                taskCompleted();
+                handler.rejectedExecution(task, rejectingExecutor);
+            }
+        };
+    }
+
+    final class QueueingHandler implements RejectedExecutionHandler
+    {
+        private final RejectedExecutionHandler handler;
+
+        QueueingHandler(RejectedExecutionHandler handler)
+        {
+            this.handler = handler;
+        }
+
+        RejectedExecutionHandler getHandler()
+        {
+            return handler;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor rejectingExecutor)
+        {
+            if (rejectingExecutor.isShutdown() || !delegate.offer(task)) {
+                // The pool will not run it, whatever the handler does.
+                taskCompleted();
+                handler.rejectedExecution(task, rejectingExecutor);
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return handler.toString();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task)
+    {
+        final ThreadPoolExecutor myExecutor = executor;
+        if (myExecutor != null) {
+            final int poolSize = threads.get();
+            if (poolSize < myExecutor.getMaximumPoolSize() && submitted.get() > poolSize) {
+                return false;
+            }
+        }
+        return delegate.offer(task);
+    }
+
+    /**
+     * Once the pool shuts down, the executor takes back a task it just queued to reject it, and the handler
+     * gives back the task instead.
+     */
+    @Override
+    public boolean remove(Object o)
+    {
+        if (delegate.remove(o)) {
+            final ThreadPoolExecutor myExecutor = executor;
+            if (myExecutor == null || !myExecutor.isShutdown()) {
+                taskCompleted();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c)
+    {
+        return drained(delegate.drainTo(c));
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements)
+    {
+        return drained(delegate.drainTo(c, maxElements));
+    }
+
+    /**
+     * Removing through the iterator, as {@link ThreadPoolExecutor#purge()} does, gives back the task too.
+     */
+    @Override
+    public Iterator<Runnable> iterator()
+    {
+        final Iterator<Runnable> iterator = delegate.iterator();
+        return new ForwardingIterator<Runnable>() {
+            @Override
+            protected Iterator<Runnable> delegate()
+            {
+                return iterator;
+            }
+
+            @Override
+            public void remove()
+            {
+                super.remove();
+                taskCompleted();
+            }
+        };
+    }
+
+    private int drained(int count)
+    {
+        submitted.addAndGet(-count);
+        return count;
+    }
+
+    /**
+     * Counts the threads of the pool without its lock.  A thread counts from its creation, so that a new
+     * thread counts before it took its first task.
+     */
+    private final class CountingThreadFactory implements ThreadFactory
+    {
+        private final ThreadFactory factory;
+
+        CountingThreadFactory(ThreadFactory factory)
+        {
+            this.factory = factory;
+        }
+
+        @Override
+        public Thread newThread(final Runnable worker)
+        {
+            final Thread thread = factory.newThread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    try {
+                        worker.run();
+                    }
+                    finally {
+                        threads.decrementAndGet();
+                    }
+                }
+            });
+            if (thread != null) {
+                threads.incrementAndGet();
+            }
+            return thread;
+        }
+    }
+}
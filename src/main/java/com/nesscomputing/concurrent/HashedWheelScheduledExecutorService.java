@@ -0,0 +1,515 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * A {@link ScheduledExecutorService} backed by a hierarchical hashed timing wheel, for large numbers of
+ * short timeouts that are mostly cancelled before they fire.  Scheduling and cancelling are constant
+ * time and lock free, and a cancelled task is unlinked from the wheel within one tick instead of
+ * staying around until its delay is up.  The price is precision: tasks fire on the first tick at or
+ * after their deadline, never earlier.
+ * <p>
+ * A single wheel thread owns the wheel.  It advances one tick at a time through four levels of 64
+ * slots each, moving tasks down a level as their deadline comes closer.  Due tasks run on the wheel
+ * thread, which suits short callbacks, or are handed to a task executor.
+ * <p>
+ * Unlike {@link java.util.concurrent.ScheduledThreadPoolExecutor}, {@link #shutdown()} cancels all
+ * tasks that are not due yet.  A task executor passed in is not shut down with the wheel.
+ */
+public class HashedWheelScheduledExecutorService extends AbstractExecutorService implements ScheduledExecutorService
+{
+    private static final Log LOG = Log.findLog();
+
+    private static final long MAX_DELAY_NANOS = Long.MAX_VALUE >> 1;
+
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+
+    /** Tasks further out than this many ticks go to the top level and are placed again when it comes round. */
+    private static final long MAX_TICKS = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickNanos;
+    private final Executor taskExecutor;
+    private final Thread wheelThread;
+    private final long startNanos;
+
+    private final Queue<Timeout<?>> added = new ConcurrentLinkedQueue<Timeout<?>>();
+    private final Queue<Timeout<?>> cancelled = new ConcurrentLinkedQueue<Timeout<?>>();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean shutdown;
+    private volatile long pendingCount;
+
+    // Only used by the wheel thread.
+    private final Bucket[][] wheel = new Bucket[LEVELS][WHEEL_SIZE];
+    private long currentTick = 0;
+    private long wheelCount = 0;
+    private List<Runnable> unfired = Collections.emptyList();
+
+    /**
+     * @param taskExecutor runs the due tasks, or null to run them on the wheel thread.
+     */
+    HashedWheelScheduledExecutorService(String name, long tickDuration, TimeUnit unit, Executor taskExecutor)
+    {
+        Preconditions.checkArgument(tickDuration > 0, "tick duration must be positive");
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.taskExecutor = taskExecutor;
+
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                wheel[level][slot] = new Bucket();
+            }
+        }
+
+        this.startNanos = System.nanoTime();
+        this.wheelThread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                runWheel();
+            }
+        }, name + "-wheel");
+        wheelThread.setDaemon(true);
+        wheelThread.start();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit)
+    {
+        Preconditions.checkNotNull(command, "null runnable");
+        return enqueue(new Timeout<Void>(command, triggerNanos(delay, unit), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit)
+    {
+        Preconditions.checkNotNull(callable, "null callable");
+        return enqueue(new Timeout<V>(callable, triggerNanos(delay, unit)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit)
+    {
+        Preconditions.checkNotNull(command, "null runnable");
+        Preconditions.checkArgument(period > 0, "period must be positive");
+        return enqueue(new Timeout<Void>(command, triggerNanos(initialDelay, unit), clampedNanos(period, unit)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit)
+    {
+        Preconditions.checkNotNull(command, "null runnable");
+        Preconditions.checkArgument(delay > 0, "delay must be positive");
+        return enqueue(new Timeout<Void>(command, triggerNanos(initialDelay, unit), -clampedNanos(delay, unit)));
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        schedule(command, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task)
+    {
+        return schedule(task, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result)
+    {
+        Preconditions.checkNotNull(task, "null runnable");
+        return enqueue(new Timeout<T>(task, result, triggerNanos(0, TimeUnit.NANOSECONDS)));
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task)
+    {
+        return schedule(task, 0, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void shutdown()
+    {
+        shutdown = true;
+        LockSupport.unpark(wheelThread);
+    }
+
+    /**
+     * Shuts down and returns the tasks that were cancelled because they were not due yet.  Tasks that
+     * are running keep running.
+     */
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        shutdown();
+        if (Thread.currentThread() == wheelThread) {
+            return Collections.emptyList();
+        }
+        Uninterruptibles.awaitUninterruptibly(terminated);
+        return unfired;
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return terminated.getCount() == 0;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return terminated.await(timeout, unit);
+    }
+
+    /**
+     * @return the number of tasks on the wheel waiting for their deadline, as of the last tick.
+     */
+    public long getPendingCount()
+    {
+        return pendingCount;
+    }
+
+    private long triggerNanos(long delay, TimeUnit unit)
+    {
+        return System.nanoTime() + clampedNanos(delay, unit);
+    }
+
+    /**
+     * Deadlines are compared by subtraction, so like {@link java.util.concurrent.ScheduledThreadPoolExecutor}
+     * keep delays and periods small enough that the difference between two of them can not overflow.
+     * That still leaves about 146 years.
+     */
+    private static long clampedNanos(long delay, TimeUnit unit)
+    {
+        return Math.min(unit.toNanos(Math.max(delay, 0)), MAX_DELAY_NANOS);
+    }
+
+    private <V> Timeout<V> enqueue(Timeout<V> timeout)
+    {
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor service has been shut down");
+        }
+        added.add(timeout);
+        // If the wheel thread shut down in between and has not seen the task, take it back.
+        if (shutdown && added.remove(timeout)) {
+            throw new RejectedExecutionException("Executor service has been shut down");
+        }
+        return timeout;
+    }
+
+    private void runWheel()
+    {
+        try {
+            while (awaitNextTick()) {
+                currentTick++;
+                try {
+                    processTick();
+                } catch (Throwable t) {
+                    LOG.error(t, "While advancing timer wheel %s", wheelThread.getName());
+                }
+            }
+        }
+        finally {
+            cancelAll();
+            terminated.countDown();
+        }
+    }
+
+    private boolean awaitNextTick()
+    {
+        final long deadline = startNanos + (currentTick + 1) * tickNanos;
+        while (!shutdown) {
+            final long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos <= 0) {
+                return true;
+            }
+            LockSupport.parkNanos(this, sleepNanos);
+        }
+        return false;
+    }
+
+    private void processTick()
+    {
+        Timeout<?> timeout;
+        while ((timeout = added.poll()) != null) {
+            if (!timeout.isCancelled()) {
+                wheelCount++;
+                place(timeout);
+            }
+        }
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                wheelCount--;
+            }
+        }
+
+        // Move tasks down from the levels that come round on this tick, highest level first.
+        for (int level = LEVELS - 1; level > 0; level--) {
+            final int shift = WHEEL_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) == 0) {
+                final Bucket bucket = wheel[level][(int) ((currentTick >>> shift) & WHEEL_MASK)];
+                while ((timeout = bucket.poll()) != null) {
+                    place(timeout);
+                }
+            }
+        }
+
+        final Bucket bucket = wheel[0][(int) (currentTick & WHEEL_MASK)];
+        while ((timeout = bucket.poll()) != null) {
+            place(timeout);
+        }
+
+        pendingCount = wheelCount;
+    }
+
+    /**
+     * Put a task into the slot of the level that matches how far away its deadline is, or fire it if it
+     * is due.
+     */
+    private void place(Timeout<?> timeout)
+    {
+        final long deadlineTick = ticksSinceStart(timeout.triggerNanos);
+        long delta = deadlineTick - currentTick;
+        if (delta <= 0) {
+            wheelCount--;
+            fire(timeout);
+            return;
+        }
+
+        long placeTick = deadlineTick;
+        if (delta >= MAX_TICKS) {
+            delta = MAX_TICKS - 1;
+            placeTick = currentTick + delta;
+        }
+
+        int level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        wheel[level][(int) ((placeTick >>> (WHEEL_BITS * level)) & WHEEL_MASK)].add(timeout);
+    }
+
+    private long ticksSinceStart(long nanos)
+    {
+        final long elapsed = nanos - startNanos;
+        return elapsed <= 0 ? 0 : (elapsed + tickNanos - 1) / tickNanos;
+    }
+
+    private void fire(Timeout<?> timeout)
+    {
+        if (taskExecutor == null) {
+            timeout.run();
+            return;
+        }
+        try {
+            taskExecutor.execute(timeout);
+        } catch (RejectedExecutionException e) {
+            LOG.warn(e, "Task executor of %s rejected a task, cancelling it", wheelThread.getName());
+            timeout.cancel(false);
+        }
+    }
+
+    private void cancelAll()
+    {
+        final List<Runnable> tasks = Lists.newArrayList();
+        Timeout<?> timeout;
+        while ((timeout = added.poll()) != null) {
+            tasks.add(timeout);
+        }
+        for (Bucket[] level : wheel) {
+            for (Bucket bucket : level) {
+                while ((timeout = bucket.poll()) != null) {
+                    tasks.add(timeout);
+                }
+            }
+        }
+        for (Runnable task : tasks) {
+            ((Timeout<?>) task).cancel(false);
+        }
+        cancelled.clear();
+        wheelCount = 0;
+        pendingCount = 0;
+        unfired = tasks;
+    }
+
+    /**
+     * A task on the wheel.  The links are only used by the wheel thread.
+     */
+    private class Timeout<V> extends FutureTask<V> implements RunnableScheduledFuture<V>
+    {
+        /** Positive for a fixed rate, negative for a fixed delay, 0 for a task that runs once. */
+        private final long periodNanos;
+        private volatile long triggerNanos;
+
+        private Bucket bucket;
+        private Timeout<?> previous;
+        private Timeout<?> next;
+
+        Timeout(Callable<V> callable, long triggerNanos)
+        {
+            super(callable);
+            this.triggerNanos = triggerNanos;
+            this.periodNanos = 0;
+        }
+
+        Timeout(Runnable runnable, long triggerNanos, long periodNanos)
+        {
+            super(runnable, null);
+            this.triggerNanos = triggerNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        Timeout(Runnable runnable, V result, long triggerNanos)
+        {
+            super(runnable, result);
+            this.triggerNanos = triggerNanos;
+            this.periodNanos = 0;
+        }
+
+        @Override
+        public boolean isPeriodic()
+        {
+            return periodNanos != 0;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(triggerNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other)
+        {
+            if (other == this) {
+                return 0;
+            }
+            return Longs.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public void run()
+        {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset()) {
+                triggerNanos = periodNanos > 0 ? triggerNanos + periodNanos : System.nanoTime() - periodNanos;
+                if (!shutdown) {
+                    try {
+                        enqueue(this);
+                    } catch (RejectedExecutionException e) {
+                        cancel(false);
+                    }
+                } else {
+                    cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            final boolean result = super.cancel(mayInterruptIfRunning);
+            if (result && !shutdown) {
+                // Unlinked by the wheel thread on its next tick.
+                cancelled.add(this);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A doubly linked list of tasks, so that a cancelled task can be unlinked in constant time.
+     */
+    private static final class Bucket
+    {
+        private Timeout<?> head;
+        private Timeout<?> tail;
+
+        void add(Timeout<?> timeout)
+        {
+            timeout.bucket = this;
+            timeout.previous = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout<?> timeout)
+        {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        Timeout<?> poll()
+        {
+            final Timeout<?> timeout = head;
+            if (timeout != null) {
+                remove(timeout);
+            }
+            return timeout;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+
+/**
+ * Counts and times every rejection of a pool before passing it on to the real handler.  A rejection
+ * that the handler turns into a {@link RejectedExecutionException} is counted as aborted as well, the
+ * task did not run.  With a metrics registry the same goes to the {@code <pool>.rejected} timer and
+ * the {@code <pool>.rejected-aborted} meter.
+ */
+class MeteredRejectedExecutionHandler implements RejectedExecutionHandler
+{
+    private final RejectedExecutionHandler delegate;
+    private final StripedCounter rejected = new StripedCounter();
+    private final StripedCounter aborted = new StripedCounter();
+    private final StripedCounter rejectionNanos = new StripedCounter();
+
+    private final Timer rejectedTimer;
+    private final Meter abortedMeter;
+
+    MeteredRejectedExecutionHandler(String threadPoolName, RejectedExecutionHandler delegate, MetricsRegistry registry /* may be null */)
+    {
+        this.delegate = delegate;
+        if (registry != null) {
+            rejectedTimer = registry.newTimer(TimedExecutors.class, threadPoolName + ".rejected");
+            abortedMeter = registry.newMeter(TimedExecutors.class, threadPoolName + ".rejected-aborted", "rejected", TimeUnit.MINUTES);
+        } else {
+            rejectedTimer = null;
+            abortedMeter = null;
+        }
+    }
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+    {
+        if (TryExecution.isTrying()) {
+            if (TryExecution.isCountingRejections()) {
+                recordAborted();
+            }
+            throw TryExecution.noCapacity();
+        }
+
+        final long startNanos = System.nanoTime();
+        boolean handled = false;
+        try {
+            delegate.rejectedExecution(task, executor);
+            handled = true;
+        }
+        finally {
+            record(System.nanoTime() - startNanos, handled);
+        }
+    }
+
+    /**
+     * Record a rejection that did not go through the handler.
+     * @see TryExecution
+     */
+    void recordAborted()
+    {
+        record(0, false);
+    }
+
+    private void record(long nanos, boolean handled)
+    {
+        rejected.increment();
+        rejectionNanos.add(nanos);
+        if (rejectedTimer != null) {
+            rejectedTimer.update(nanos, TimeUnit.NANOSECONDS);
+        }
+        if (!handled) {
+            aborted.increment();
+            if (abortedMeter != null) {
+                abortedMeter.mark();
+            }
+        }
+    }
+
+    long getRejectedCount()
+    {
+        return rejected.sum();
+    }
+
+    long getAbortedCount()
+    {
+        return aborted.sum();
+    }
+
+    long getRejectionTimeMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(rejectionNanos.sum());
+    }
+
+    @Override
+    public String toString()
+    {
+        return delegate.toString();
+    }
+}
@@ -16,18 +16,28 @@
 package com.nesscomputing.concurrent;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
 
 /**
  * Helper methods for ExecutorServices.
@@ -77,6 +87,91 @@ public final class NessExecutors
         return new TerminatingScheduledExecutorService(service, timeout, units);
     }
 
+    /**
+     * Create a {@link ScheduledExecutorService} backed by a hashed timing wheel that runs due tasks on its own
+     * thread.  Meant for many short timeouts that are mostly cancelled; tasks fire up to one tick late.
+     * @see HashedWheelScheduledExecutorService
+     */
+    public static HashedWheelScheduledExecutorService hashedWheelScheduler(String name, long tickDuration, TimeUnit unit)
+    {
+        return new HashedWheelScheduledExecutorService(name, tickDuration, unit, null);
+    }
+
+    /**
+     * Create a {@link ScheduledExecutorService} backed by a hashed timing wheel that hands due tasks to the
+     * given executor.
+     * @see HashedWheelScheduledExecutorService
+     */
+    public static HashedWheelScheduledExecutorService hashedWheelScheduler(String name, long tickDuration, TimeUnit unit, Executor taskExecutor)
+    {
+        Preconditions.checkNotNull(taskExecutor, "null task executor");
+        return new HashedWheelScheduledExecutorService(name, tickDuration, unit, taskExecutor);
+    }
+
+    /**
+     * Create a view of a shared executor service that runs at most {@code maxConcurrency} of the tasks
+     * handed to it at a time.  The others wait in the view, so that one caller fanning out many tasks
+     * can not starve the other users of the pool.  Create one view per request or caller; the view has
+     * no threads and shutting it down leaves the shared service running.
+     * @see ConcurrencyLimitingExecutorService
+     */
+    public static ExecutorService limitConcurrency(ExecutorService service, int maxConcurrency)
+    {
+        if (service instanceof DecoratingExecutorService) {
+            final DecoratingExecutorService decorated = (DecoratingExecutorService) service;
+            return new ConcurrencyLimitingExecutorService(decorated.getDelegate(), decorated.getWrapper(), maxConcurrency);
+        }
+        return new ConcurrencyLimitingExecutorService(service, null, maxConcurrency);
+    }
+
+    /**
+     * Submit all of the given callables at once.  Uses {@link BatchingExecutorService#submitAll(Collection)}
+     * when the service supports it, otherwise queues them the same way.
+     * @return a future per task, in the order of the collection.
+     */
+    public static <T> List<ListenableFuture<T>> submitAll(ExecutorService service, Collection<? extends Callable<T>> tasks)
+    {
+        if (service instanceof BatchingExecutorService) {
+            return ((BatchingExecutorService) service).submitAll(tasks);
+        }
+        final List<BatchTask<T>> batch = Lists.newArrayListWithCapacity(tasks.size());
+        for (Callable<T> task : tasks) {
+            batch.add(new BatchTask<T>(task, PrioritizedTasks.priorityOf(task)));
+        }
+        BatchExecution.executeAll(service, batch);
+        return Collections.<ListenableFuture<T>>unmodifiableList(batch);
+    }
+
+    /**
+     * Execute the task if the service has room for it, without throwing.
+     * @return false if the task was turned away.
+     * @see TryExecutorService
+     */
+    public static boolean tryExecute(ExecutorService service, Runnable command)
+    {
+        if (service instanceof TryExecutorService) {
+            return ((TryExecutorService) service).tryExecute(command);
+        }
+        return !TryExecution.isSaturated(service) && TryExecution.tryExecute(service, command);
+    }
+
+    /**
+     * Submit the task if the service has room for it, without throwing.
+     * @return the future of the task, or null if it was turned away.
+     * @see TryExecutorService
+     */
+    public static <T> ListenableFuture<T> trySubmit(ExecutorService service, Callable<T> task)
+    {
+        if (service instanceof TryExecutorService) {
+            return ((TryExecutorService) service).trySubmit(task);
+        }
+        if (TryExecution.isSaturated(service)) {
+            return null;
+        }
+        final BatchTask<T> future = new BatchTask<T>(task, PrioritizedTasks.priorityOf(task));
+        return TryExecution.tryExecute(service, future) ? future : null;
+    }
+
     /**
      * Invoke all of the given callables.  If they all succeed, returns a list of the futures.  All will be
      * {@link Future#isDone()}.  If any fails, returns the list of Futures that succeeded before the failure, and
@@ -86,46 +181,81 @@ public final class NessExecutors
     public static <T> List<Future<T>> invokeAllExplosively(ExecutorService service, Collection<? extends Callable<T>> tasks)
     throws InterruptedException
     {
-        final ExecutorCompletionService<T> completionService = new ExecutorCompletionService<>(service);
         final ImmutableList.Builder<Future<T>> results = ImmutableList.builder();
-        final Set<Future<T>> inFlight = Sets.newHashSetWithExpectedSize(tasks.size());
+        invokeAllExplosively(service, tasks.iterator(), Math.max(tasks.size(), 1), new CompletionListener<T>() {
+            @Override
+            public void onCompletion(Future<T> future)
+            {
+                results.add(future);
+            }
+        });
+        return results.build();
+    }
 
-        boolean interrupted = false;
+    /**
+     * Invoke the callables of the iterator, with at most {@code maxInFlight} of them submitted but not
+     * completed at any time.  Each future is passed to the listener as soon as its task completes, so
+     * neither the tasks nor the results have to be held in memory at once.  If a task fails, its future
+     * is the last one passed to the listener, the tasks in flight are cancelled and no more tasks are
+     * taken from the iterator.  The same happens if the listener throws, or if the calling thread is
+     * interrupted, in which case an {@link InterruptedException} is thrown.
+     * @return true if every task succeeded, false if one failed.
+     */
+    public static <T> boolean invokeAllExplosively(ExecutorService service, Iterator<? extends Callable<T>> tasks, int maxInFlight, CompletionListener<T> listener)
+    throws InterruptedException
+    {
+        Preconditions.checkArgument(maxInFlight > 0, "max in flight must be positive");
 
-        for (Callable<T> task : tasks) {
-            inFlight.add(completionService.submit(task));
-        }
+        final BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+        final Set<Future<T>> inFlight = Sets.newHashSetWithExpectedSize(Math.min(maxInFlight, 1024));
 
-        while (!inFlight.isEmpty()) {
-            final Future<T> future;
-            try {
-                future = completionService.take();
-            } catch (InterruptedException e) {
-                interrupted = true;
-                break;
-            }
+        try {
+            while (true) {
+                if (inFlight.size() < maxInFlight && tasks.hasNext()) {
+                    submitInto(service, nextBatch(tasks, maxInFlight - inFlight.size()), inFlight, completed);
+                }
+                if (inFlight.isEmpty()) {
+                    return true;
+                }
 
-            inFlight.remove(future);
-            results.add(future);
+                final Future<T> future = completed.take();
+                inFlight.remove(future);
+                listener.onCompletion(future);
 
-            try {
-                future.get();
-            } catch (InterruptedException e) {
-                interrupted = true;
-                break;
-            } catch (ExecutionException e) {
-                break;
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    return false;
+                }
             }
         }
-
-        for (final Future<T> future : inFlight) {
-            future.cancel(true);
+        finally {
+            for (final Future<T> future : inFlight) {
+                future.cancel(true);
+            }
         }
+    }
 
-        if (interrupted) {
-            throw new InterruptedException();
+    private static <T> List<Callable<T>> nextBatch(Iterator<? extends Callable<T>> tasks, int limit)
+    {
+        final List<Callable<T>> batch = Lists.newArrayListWithCapacity(Math.min(limit, 1024));
+        while (batch.size() < limit && tasks.hasNext()) {
+            batch.add(tasks.next());
         }
+        return batch;
+    }
 
-        return results.build();
+    private static <T> void submitInto(ExecutorService service, List<Callable<T>> batch, Set<Future<T>> inFlight, final BlockingQueue<Future<T>> completed)
+    {
+        for (final ListenableFuture<T> future : submitAll(service, batch)) {
+            inFlight.add(future);
+            future.addListener(new Runnable() {
+                @Override
+                public void run()
+                {
+                    completed.add(future);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
     }
 }
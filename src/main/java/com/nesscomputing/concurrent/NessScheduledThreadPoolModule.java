@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.lang.annotation.Annotation;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.AbstractModule;
+import com.google.inject.Binder;
+import com.google.inject.Key;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import com.google.inject.binder.LinkedBindingBuilder;
+import com.google.inject.multibindings.Multibinder;
+import com.google.inject.name.Names;
+
+import org.weakref.jmx.guice.MBeanModule;
+
+import com.nesscomputing.lifecycle.LifecycleStage;
+
+/**
+ * Guice bindings for a configurable, lifecycled {@link ScheduledExecutorService}.
+ * The executor service is bound as {@code @Named(threadPoolName) ScheduledExecutorService myService}.
+ * The service will be shut down during {@link LifecycleStage#STOP_STAGE}; delayed tasks that have not
+ * started by then are dropped.  Configuration has the prefix {@code ness.thread-pool.[pool-name]}, of
+ * which {@code max-threads} sets the number of threads and {@code rejected-handler}, with its
+ * {@code rejected-*} options, what happens to tasks scheduled after shutdown.  The pool fails to start
+ * if any other option is set.
+ * <p>
+ * Scheduled and periodic tasks are decorated with the pool's {@link CallableWrapper}s.  Instead of the
+ * timing wrapper, every task is timed against the time it was meant to run at, and the difference is
+ * reported as the {@code [pool-name].schedule-lag} metric.
+ * @see ThreadPoolConfiguration Thread pool configuration options
+ */
+public class NessScheduledThreadPoolModule extends AbstractModule
+{
+    private final String threadPoolName;
+    private final Annotation annotation;
+
+    private int defaultThreads = 1;
+    private RejectedExecutionHandler defaultRejectedHandler = ThreadPoolConfiguration.DEFAULT_REJECTED_HANDLER.getHandler();
+
+    private boolean threadDelegatingWrapperEnabled = true;
+    private boolean timingEnabled = true;
+
+    NessScheduledThreadPoolModule(String threadPoolName)
+    {
+        this.threadPoolName = threadPoolName;
+        this.annotation = Names.named(threadPoolName);
+    }
+
+    /**
+     * Create a scheduled pool with the given number of threads.
+     */
+    public static NessScheduledThreadPoolModule scheduledPool(String threadPoolName, int threads)
+    {
+        return new NessScheduledThreadPoolModule(threadPoolName).withDefaultThreads(threads);
+    }
+
+    @Override
+    protected void configure()
+    {
+        Multibinder.newSetBinder(binder(), CallableWrapper.class, annotation);
+
+        PoolProvider poolProvider = new PoolProvider();
+
+        bind (ScheduledExecutorService.class).annotatedWith(annotation).toProvider(poolProvider).in(Scopes.SINGLETON);
+        bind (ExecutorServiceManagementBean.class).annotatedWith(annotation).toProvider(poolProvider.getManagementProvider());
+        MBeanModule.newExporter(binder()).export(ExecutorServiceManagementBean.class).annotatedWith(annotation).as(createMBeanName());
+
+        if (threadDelegatingWrapperEnabled) {
+            bindWrapper(binder()).toInstance(ThreadDelegatingDecorator.THREAD_DELEGATING_WRAPPER);
+        }
+    }
+
+    /**
+     * Set the default number of threads.
+     */
+    public NessScheduledThreadPoolModule withDefaultThreads(int defaultThreads)
+    {
+        Preconditions.checkArgument(defaultThreads > 0, "a scheduled pool needs at least one thread");
+        this.defaultThreads = defaultThreads;
+        return this;
+    }
+
+    /**
+     * Set the default rejected execution handler.
+     */
+    public NessScheduledThreadPoolModule withDefaultRejectedHandler(RejectedExecutionHandler defaultRejectedHandler)
+    {
+        this.defaultRejectedHandler = defaultRejectedHandler;
+        return this;
+    }
+
+    /**
+     * Add a CallableWrapper that may decorate this executor service.
+     */
+    public LinkedBindingBuilder<CallableWrapper> bindWrapper(Binder binder)
+    {
+        return Multibinder.newSetBinder(binder, CallableWrapper.class, annotation).permitDuplicates().addBinding();
+    }
+
+    /**
+     * Remove thread delegated wrapper.
+     */
+    public NessScheduledThreadPoolModule disableThreadDelegation()
+    {
+        this.threadDelegatingWrapperEnabled = false;
+        return this;
+    }
+
+    /**
+     * Remove task timing and schedule lag metrics.
+     */
+    public NessScheduledThreadPoolModule disableTiming()
+    {
+        this.timingEnabled = false;
+        return this;
+    }
+
+    private String createMBeanName()
+    {
+        return "com.nesscomputing.concurrent:type=ScheduledThreadPool,name=" + threadPoolName;
+    }
+
+    @Singleton
+    class PoolProvider extends AbstractPoolProvider<ScheduledExecutorService>
+    {
+        PoolProvider()
+        {
+            super(NessScheduledThreadPoolModule.this.threadPoolName, Key.get(ScheduledExecutorService.class, NessScheduledThreadPoolModule.this.annotation));
+        }
+
+        @Override
+        ScheduledExecutorService create() {
+            Preconditions.checkArgument(config != null, "no config injected");
+            checkUnsupported();
+
+            Integer threads = Objects.firstNonNull(config.getMaxThreads(), defaultThreads);
+            RejectedExecutionHandler rejectedHandler = createRejectedHandler(defaultRejectedHandler);
+
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                    Math.max(threads, 1),
+                    new ThreadFactoryBuilder().setNameFormat(threadPoolName + "-%d").build(),
+                    rejectedHandler);
+            // Do not hold up lifecycle stop for delayed tasks, and do not keep cancelled ones around until their delay is up.
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            executor.setRemoveOnCancelPolicy(true);
+            management = new ThreadPoolExecutorManagementBean(executor);
+
+            ScheduledTaskTimer timer = timingEnabled && registry != null ? new ScheduledTaskTimer(threadPoolName, registry) : null;
+            return new DecoratingScheduledExecutorService(executor, CallableWrappers.combine(wrappers), timer);
+        }
+
+        /**
+         * A scheduled pool has a fixed number of threads and an unbounded delay queue, so the sizing,
+         * queue and timing options of a thread pool do not apply.  Fail rather than ignore them.
+         */
+        private void checkUnsupported()
+        {
+            checkUnsupported("pool-type", config.getPoolType() == null || config.getPoolType() == PoolType.THREAD_POOL);
+            checkUnsupported("min-threads", config.getMinThreads() == null);
+            checkUnsupported("timeout", config.getThreadTimeout() == null);
+            checkUnsupported("queue-size", config.getQueueSize() == null);
+            checkUnsupported("queue-type", config.getQueueType() == null);
+            checkUnsupported("grow-before-queue", config.getGrowBeforeQueue() == null);
+            checkUnsupported("codel-target", config.getCoDelTarget() == null);
+            checkUnsupported("codel-interval", config.getCoDelInterval() == null);
+            checkUnsupported("timer-metrics-mode", config.getTimerMetricsMode() == null);
+            checkUnsupported("timing-sample-rate", config.getTimingSampleRate() == null);
+            checkUnsupported("fork-join-async-mode", config.getForkJoinAsyncMode() == null);
+            checkUnsupported("adaptive-sizing", config.getAdaptiveSizing() == null);
+            checkUnsupported("adaptive-sizing-interval", config.getAdaptiveSizingInterval() == null);
+            checkUnsupported("adaptive-target-queue-time", config.getAdaptiveTargetQueueTime() == null);
+        }
+
+        private void checkUnsupported(String option, boolean unset)
+        {
+            Preconditions.checkArgument(unset, "Scheduled thread pool %s does not support %s", threadPoolName, option);
+        }
+    }
+}
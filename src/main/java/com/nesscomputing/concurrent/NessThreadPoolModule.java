@@ -15,49 +15,48 @@
  */
 package com.nesscomputing.concurrent;
 
+import java.lang.Thread.UncaughtExceptionHandler;
 import java.lang.annotation.Annotation;
-import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
-import com.google.inject.Inject;
-import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Provider;
 import com.google.inject.Scopes;
 import com.google.inject.Singleton;
-import com.google.inject.TypeLiteral;
 import com.google.inject.binder.LinkedBindingBuilder;
 import com.google.inject.multibindings.Multibinder;
 import com.google.inject.name.Names;
-import com.mogwee.executors.LoggingExecutor;
 
-import org.apache.commons.lang3.time.StopWatch;
 import org.skife.config.TimeSpan;
 import org.weakref.jmx.guice.MBeanModule;
 
-import com.nesscomputing.concurrent.ThreadPoolConfiguration.RejectedHandler;
-import com.nesscomputing.config.Config;
-import com.nesscomputing.lifecycle.Lifecycle;
-import com.nesscomputing.lifecycle.LifecycleListener;
 import com.nesscomputing.lifecycle.LifecycleStage;
 import com.nesscomputing.logging.Log;
 
 /**
  * Guice bindings for a configurable, lifecycled {@link ExecutorService}.
- * The executor service is bound as {@code @Named(threadPoolName) ExecutorService myService}.
+ * The executor service is bound as {@code @Named(threadPoolName) ExecutorService myService}, and
+ * under the same name as a {@link ListeningExecutorService} and an {@link AsyncExecutor}.
  * The service will be shut down during {@link LifecycleStage#STOP_STAGE}.  Configuration
  * has the prefix {@code ness.thread-pool.[pool-name]}.
  * @see ThreadPoolConfiguration Thread pool configuration options
@@ -72,10 +71,22 @@ public class NessThreadPoolModule extends AbstractModule
     private int defaultMaxThreads = ThreadPoolConfiguration.DEFAULT_MAX_THREADS;
     private TimeSpan defaultTimeout = ThreadPoolConfiguration.DEFAULT_TIMEOUT;
     private int defaultQueueSize = ThreadPoolConfiguration.DEFAULT_QUEUE_SIZE;
+    private QueueType defaultQueueType = ThreadPoolConfiguration.DEFAULT_QUEUE_TYPE;
     private RejectedExecutionHandler defaultRejectedHandler = ThreadPoolConfiguration.DEFAULT_REJECTED_HANDLER.getHandler();
+    private TimerMetricsMode defaultTimerMetricsMode = ThreadPoolConfiguration.DEFAULT_TIMER_METRICS_MODE;
+    private int defaultTimingSampleRate = ThreadPoolConfiguration.DEFAULT_TIMING_SAMPLE_RATE;
+    private PoolType defaultPoolType = ThreadPoolConfiguration.DEFAULT_POOL_TYPE;
+    private boolean defaultForkJoinAsyncMode = ThreadPoolConfiguration.DEFAULT_FORK_JOIN_ASYNC_MODE;
+    private boolean defaultGrowBeforeQueue = ThreadPoolConfiguration.DEFAULT_GROW_BEFORE_QUEUE;
+    private TimeSpan defaultCoDelTarget = ThreadPoolConfiguration.DEFAULT_CODEL_TARGET;
+    private TimeSpan defaultCoDelInterval = ThreadPoolConfiguration.DEFAULT_CODEL_INTERVAL;
+    private boolean defaultAdaptiveSizing = ThreadPoolConfiguration.DEFAULT_ADAPTIVE_SIZING;
+    private TimeSpan defaultAdaptiveSizingInterval = ThreadPoolConfiguration.DEFAULT_ADAPTIVE_SIZING_INTERVAL;
+    private TimeSpan defaultAdaptiveTargetQueueTime = ThreadPoolConfiguration.DEFAULT_ADAPTIVE_TARGET_QUEUE_TIME;
 
     private boolean threadDelegatingWrapperEnabled = true;
     private boolean timingWrapperEnabled = true;
+    private boolean deadlineWrapperEnabled = true;
 
     NessThreadPoolModule(String threadPoolName)
     {
@@ -109,6 +120,35 @@ public class NessThreadPoolModule extends AbstractModule
         return new NessThreadPoolModule(threadPoolName).withDefaultMaxThreads(Runtime.getRuntime().availableProcessors() + 2).withDefaultQueueSize(queueSize);
     }
 
+    /**
+     * Create a pool that runs every task on its own virtual thread, with at most {@code maxConcurrency}
+     * tasks running at the same time.  A limit of 0 means no limit.
+     * @see PoolType#VIRTUAL_THREADS
+     */
+    public static NessThreadPoolModule virtualThreadPool(String threadPoolName, int maxConcurrency)
+    {
+        return new NessThreadPoolModule(threadPoolName).withDefaultPoolType(PoolType.VIRTUAL_THREADS).withDefaultMaxThreads(maxConcurrency);
+    }
+
+    /**
+     * Create a pool of fixed size that runs queued tasks with a higher {@link Prioritized priority} first.
+     * @see QueueType#PRIORITY
+     */
+    public static NessThreadPoolModule priorityPool(String threadPoolName, int poolSize, int queueSize)
+    {
+        return new NessThreadPoolModule(threadPoolName).withDefaultQueueType(QueueType.PRIORITY).withDefaultMinThreads(poolSize).withDefaultMaxThreads(poolSize).withDefaultQueueSize(queueSize);
+    }
+
+    /**
+     * Create a work stealing pool for CPU bound tasks, backed by a {@link ForkJoinPool}.  A parallelism
+     * of 0 means one thread per core.
+     * @see PoolType#WORK_STEALING
+     */
+    public static NessThreadPoolModule workStealingPool(String threadPoolName, int parallelism)
+    {
+        return new NessThreadPoolModule(threadPoolName).withDefaultPoolType(PoolType.WORK_STEALING).withDefaultMaxThreads(parallelism);
+    }
+
     @Override
     protected void configure()
     {
@@ -117,17 +157,42 @@ public class NessThreadPoolModule extends AbstractModule
         PoolProvider poolProvider = new PoolProvider();
 
         bind (ExecutorService.class).annotatedWith(annotation).toProvider(poolProvider).in(Scopes.SINGLETON);
+        bind (ListeningExecutorService.class).annotatedWith(annotation).toProvider(poolProvider.getListeningProvider());
+        bind (AsyncExecutor.class).annotatedWith(annotation).toProvider(poolProvider.getAsyncProvider());
         bind (ExecutorServiceManagementBean.class).annotatedWith(annotation).toProvider(poolProvider.getManagementProvider());
         MBeanModule.newExporter(binder()).export(ExecutorServiceManagementBean.class).annotatedWith(annotation).as(createMBeanName());
 
+        // First, so that deadlines are checked right before a task would run.
+        if (deadlineWrapperEnabled) {
+            bindWrapper(binder()).toProvider(new DeadlineWrapperProvider(threadPoolName));
+        }
         if (timingWrapperEnabled) {
-            bindWrapper(binder()).toProvider(new TimerWrapperProvider(threadPoolName));
+            bindWrapper(binder()).toProvider(new TimerWrapperProvider(threadPoolName, defaultTimerMetricsMode, defaultTimingSampleRate));
         }
         if (threadDelegatingWrapperEnabled) {
             bindWrapper(binder()).toInstance(ThreadDelegatingDecorator.THREAD_DELEGATING_WRAPPER);
         }
     }
 
+    /**
+     * Set the default kind of executor.
+     * @see PoolType
+     */
+    public NessThreadPoolModule withDefaultPoolType(PoolType defaultPoolType)
+    {
+        this.defaultPoolType = defaultPoolType;
+        return this;
+    }
+
+    /**
+     * Set whether a work stealing pool schedules local tasks in FIFO order by default.
+     */
+    public NessThreadPoolModule withDefaultForkJoinAsyncMode(boolean defaultForkJoinAsyncMode)
+    {
+        this.defaultForkJoinAsyncMode = defaultForkJoinAsyncMode;
+        return this;
+    }
+
     /**
      * Set the default pool core thread count.
      */
@@ -166,6 +231,46 @@ public class NessThreadPoolModule extends AbstractModule
         return this;
     }
 
+    /**
+     * Set the default kind of work queue.
+     * @see QueueType
+     */
+    public NessThreadPoolModule withDefaultQueueType(QueueType defaultQueueType)
+    {
+        this.defaultQueueType = defaultQueueType;
+        return this;
+    }
+
+    /**
+     * Set whether the pool starts threads up to the max thread count before it queues tasks by default.
+     * @see GrowBeforeQueueTaskQueue
+     */
+    public NessThreadPoolModule withDefaultGrowBeforeQueue(boolean defaultGrowBeforeQueue)
+    {
+        this.defaultGrowBeforeQueue = defaultGrowBeforeQueue;
+        return this;
+    }
+
+    /**
+     * Set the default queue time an {@link QueueType#ADAPTIVE_LIFO} queue aims for.
+     * @see AdaptiveLifoQueue
+     */
+    public NessThreadPoolModule withDefaultCoDelTarget(long duration, TimeUnit units)
+    {
+        this.defaultCoDelTarget = new TimeSpan(duration, units);
+        return this;
+    }
+
+    /**
+     * Set the default interval over which an {@link QueueType#ADAPTIVE_LIFO} queue detects overload.
+     * @see AdaptiveLifoQueue
+     */
+    public NessThreadPoolModule withDefaultCoDelInterval(long duration, TimeUnit units)
+    {
+        this.defaultCoDelInterval = new TimeSpan(duration, units);
+        return this;
+    }
+
     /**
      * Set the default rejected execution handler.
      */
@@ -175,6 +280,53 @@ public class NessThreadPoolModule extends AbstractModule
         return this;
     }
 
+    /**
+     * Set the default way the timing wrapper records its metrics.
+     * @see TimerMetricsMode
+     */
+    public NessThreadPoolModule withDefaultTimerMetricsMode(TimerMetricsMode defaultTimerMetricsMode)
+    {
+        this.defaultTimerMetricsMode = defaultTimerMetricsMode;
+        return this;
+    }
+
+    /**
+     * Set the default timing sample rate.  Only one in this many tasks is timed, counts stay exact.
+     */
+    public NessThreadPoolModule withDefaultTimingSampleRate(int defaultTimingSampleRate)
+    {
+        this.defaultTimingSampleRate = defaultTimingSampleRate;
+        return this;
+    }
+
+    /**
+     * Set whether the core pool size follows the load by default.
+     * @see AdaptivePoolSizer
+     */
+    public NessThreadPoolModule withDefaultAdaptiveSizing(boolean defaultAdaptiveSizing)
+    {
+        this.defaultAdaptiveSizing = defaultAdaptiveSizing;
+        return this;
+    }
+
+    /**
+     * Set the default interval between adaptive resizes.
+     */
+    public NessThreadPoolModule withDefaultAdaptiveSizingInterval(long duration, TimeUnit units)
+    {
+        this.defaultAdaptiveSizingInterval = new TimeSpan(duration, units);
+        return this;
+    }
+
+    /**
+     * Set the default 99th percentile queue time above which an adaptively sized pool grows.
+     */
+    public NessThreadPoolModule withDefaultAdaptiveTargetQueueTime(long duration, TimeUnit units)
+    {
+        this.defaultAdaptiveTargetQueueTime = new TimeSpan(duration, units);
+        return this;
+    }
+
     /**
      * Add a CallableWrapper that may decorate this executor service.
      */
@@ -201,128 +353,233 @@ public class NessThreadPoolModule extends AbstractModule
         return this;
     }
 
+    /**
+     * Remove deadline wrapper, so that tasks run even after their {@link TaskDeadline} passed.
+     */
+    public NessThreadPoolModule disableDeadlines()
+    {
+        this.deadlineWrapperEnabled = false;
+        return this;
+    }
+
     private String createMBeanName()
     {
         return "com.nesscomputing.concurrent:type=ThreadPool,name=" + threadPoolName;
     }
 
     @Singleton
-    class PoolProvider implements Provider<ExecutorService>
+    class PoolProvider extends AbstractPoolProvider<ExecutorService>
     {
-        private ThreadPoolConfiguration config;
-        private volatile ExecutorService service;
-        private volatile ExecutorServiceManagementBean management;
-        private Set<CallableWrapper> wrappers;
+        private volatile AdaptivePoolSizer sizer;
 
-        @Inject
-        public void inject(Config config, Lifecycle lifecycle, Injector injector)
+        PoolProvider()
         {
-            wrappers = injector.getInstance(Key.get(new TypeLiteral<Set<CallableWrapper>>() {}, annotation));
-
-            this.config = config.getBean("ness.thread-pool." + threadPoolName, ThreadPoolConfiguration.class);
-
-            service = create();
-
-            lifecycle.addListener(LifecycleStage.STOP_STAGE, new LifecycleListener() {
-                @Override
-                public void onStage(LifecycleStage lifecycleStage)
-                {
-                    stopExecutor();
-                }
-            });
+            super(NessThreadPoolModule.this.threadPoolName, Key.get(ExecutorService.class, NessThreadPoolModule.this.annotation));
         }
 
         @Override
-        public ExecutorService get()
+        void beforeShutdown()
         {
-            ExecutorService myService = service;
-            Preconditions.checkState(myService != null, "Thread pool %s was injected before lifecycle start or after lifecycle stop.  " +
-            		"You might consider injecting a Provider instead, or maybe you forgot a Lifecycle entirely.", threadPoolName);
-            return myService;
-        }
-
-        void stopExecutor()
-        {
-            StopWatch stopWatch = new StopWatch();
-            stopWatch.start();
-
-            ExecutorService myService = service;
-            Preconditions.checkState(myService != null, "no service was ever started?");
-
-            myService.shutdown();
-            try {
-                if (!myService.awaitTermination(20, TimeUnit.SECONDS))
-                {
-                    LOG.error("Executor service %s did not shut down after 20 seconds of waiting!", threadPoolName);
-                    myService.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                LOG.warn(e, "While awaiting executor %s termination", threadPoolName);
-                Thread.currentThread().interrupt();
+            AdaptivePoolSizer mySizer = sizer;
+            if (mySizer != null) {
+                mySizer.stop();
             }
-
-            LOG.info("Executor service %s shutdown after %s", threadPoolName, stopWatch);
         }
 
-        private ExecutorService create() {
+        @Override
+        ExecutorService create() {
             Preconditions.checkArgument(config != null, "no config injected");
 
+            PoolType poolType = Objects.firstNonNull(config.getPoolType(), defaultPoolType);
             Integer queueSize = Objects.firstNonNull(config.getQueueSize(), defaultQueueSize);
+            QueueType queueType = Objects.firstNonNull(config.getQueueType(), defaultQueueType);
             Integer minThreads = Objects.firstNonNull(config.getMinThreads(), defaultMinThreads);
             Integer maxThreads = Objects.firstNonNull(config.getMaxThreads(), defaultMaxThreads);
             TimeSpan threadTimeout = Objects.firstNonNull(config.getThreadTimeout(), defaultTimeout);
-            RejectedHandler rejectedHandlerEnum = config.getRejectedHandler();
-            RejectedExecutionHandler rejectedHandler = rejectedHandlerEnum != null ? rejectedHandlerEnum.getHandler() : defaultRejectedHandler;
+            RejectedExecutionHandler rejectedHandler = createRejectedHandler(defaultRejectedHandler);
 
-            final BlockingQueue<Runnable> queue;
+            BlockingQueue<Runnable> queue;
             final ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(threadPoolName + "-%d").build();
 
+            AdaptiveLifoQueue adaptiveQueue = null;
             if (queueSize == 0) {
                 queue = new SynchronousQueue<Runnable>();
+            } else if (queueType == QueueType.ADAPTIVE_LIFO) {
+                TimeSpan target = Objects.firstNonNull(config.getCoDelTarget(), defaultCoDelTarget);
+                TimeSpan interval = Objects.firstNonNull(config.getCoDelInterval(), defaultCoDelInterval);
+                adaptiveQueue = new AdaptiveLifoQueue(queueSize, target.getMillis(), interval.getMillis(), TimeUnit.MILLISECONDS);
+                queue = adaptiveQueue;
             } else {
-                queue = new LinkedBlockingQueue<Runnable>(queueSize);
+                queue = queueType.createQueue(queueSize);
             }
 
             final ExecutorService result;
+            boolean sameThread = false;
 
-            if (maxThreads <= 0) {
-                result = MoreExecutors.sameThreadExecutor();
-                management = new GenericExecutorManagementBean(result, new SynchronousQueue<>());
-            } else {
-                ThreadPoolExecutor executor = new LoggingExecutor(
-                        minThreads,
+            if (poolType == PoolType.VIRTUAL_THREADS && VirtualThreadExecutorService.isSupported()) {
+                LOG.info("Thread pool %s uses virtual threads, at most %d at a time (0 is no limit)", threadPoolName, Math.max(maxThreads, 0));
+                VirtualThreadExecutorService executor = new VirtualThreadExecutorService(threadPoolName, Math.max(maxThreads, 0));
+                management = new VirtualThreadExecutorManagementBean(executor);
+                result = executor;
+            } else if (poolType == PoolType.VIRTUAL_THREADS) {
+                Preconditions.checkState(maxThreads > 0, "Virtual threads are not available, thread pool %s needs a max-threads limit to fall back to platform threads", threadPoolName);
+                LOG.warn("Virtual threads are not available, thread pool %s falls back to %d platform threads", threadPoolName, maxThreads);
+                // Same semantics as the virtual threads, a limit on running tasks and a queue that never fills.
+                final NotifyingLoggingExecutor executor = new NotifyingLoggingExecutor(
+                        maxThreads,
                         maxThreads,
                         threadTimeout.getMillis(),
                         TimeUnit.MILLISECONDS,
-                        queue,
+                        new LinkedBlockingQueue<Runnable>(),
                         threadFactory,
                         rejectedHandler);
+                executor.allowCoreThreadTimeOut(true);
                 management = new ThreadPoolExecutorManagementBean(executor);
                 result = executor;
+            } else if (poolType == PoolType.WORK_STEALING) {
+                boolean asyncMode = Objects.firstNonNull(config.getForkJoinAsyncMode(), defaultForkJoinAsyncMode);
+                final ForkJoinPoolManagementBean.WorkerCounter workers = new ForkJoinPoolManagementBean.WorkerCounter();
+                ForkJoinPool executor = createForkJoinPool(maxThreads > 0 ? maxThreads : Runtime.getRuntime().availableProcessors(), asyncMode, workers);
+                management = new ForkJoinPoolManagementBean(executor, workers);
+                result = executor;
+            } else if (maxThreads <= 0) {
+                result = MoreExecutors.sameThreadExecutor();
+                sameThread = true;
+                management = new GenericExecutorManagementBean(result, new SynchronousQueue<>());
+            } else {
+                final MeteredRejectedExecutionHandler rejections = new MeteredRejectedExecutionHandler(threadPoolName, rejectedHandler, registry);
+                rejectedHandler = rejections;
+
+                // Dropped tasks must not go through the grow before queue handler, which would queue them again.
+                final RejectedExecutionHandler droppedHandler = rejectedHandler;
+                GrowBeforeQueueTaskQueue growingQueue = null;
+                if (queueSize != 0 && Objects.firstNonNull(config.getGrowBeforeQueue(), defaultGrowBeforeQueue)) {
+                    growingQueue = new GrowBeforeQueueTaskQueue(queue);
+                    queue = growingQueue;
+                    rejectedHandler = growingQueue.wrap(rejectedHandler);
+                }
+
+                final ThreadPoolExecutor executor;
+                if (queueType == QueueType.PRIORITY || adaptiveQueue != null) {
+                    // The adaptive queue must see the futures to fail the tasks it drops.
+                    executor = new PriorityThreadPoolExecutor(
+                            minThreads,
+                            maxThreads,
+                            threadTimeout.getMillis(),
+                            TimeUnit.MILLISECONDS,
+                            queue,
+                            threadFactory,
+                            rejectedHandler);
+                } else {
+                    executor = new NotifyingLoggingExecutor(
+                            minThreads,
+                            maxThreads,
+                            threadTimeout.getMillis(),
+                            TimeUnit.MILLISECONDS,
+                            queue,
+                            threadFactory,
+                            rejectedHandler);
+                }
+                if (growingQueue != null) {
+                    growingQueue.setExecutor(executor);
+                }
+                if (adaptiveQueue != null) {
+                    adaptiveQueue.setRejectionHandler(executor, growingQueue == null ? droppedHandler : growingQueue.wrapDropped(droppedHandler));
+                }
+                if (Objects.firstNonNull(config.getAdaptiveSizing(), defaultAdaptiveSizing)) {
+                    sizer = createSizer(executor, minThreads, maxThreads);
+                }
+                management = new ThreadPoolExecutorManagementBean(executor, sizer, rejections);
+                result = executor;
             }
 
-            return DecoratingExecutors.decorate(result, CallableWrappers.combine(wrappers));
+            Iterable<CallableWrapper> poolWrappers = wrappers;
+            if (sameThread) {
+                // Tasks run on the submitting thread, which already is in the caller context.
+                poolWrappers = Iterables.filter(wrappers, Predicates.not(Predicates.<CallableWrapper>equalTo(ThreadDelegatingDecorator.THREAD_DELEGATING_WRAPPER)));
+            }
+            return DecoratingExecutors.decorate(result, CallableWrappers.combine(poolWrappers));
         }
 
-        Provider<ExecutorServiceManagementBean> getManagementProvider()
+        private AdaptivePoolSizer createSizer(ThreadPoolExecutor executor, int minThreads, int maxThreads)
         {
-            return new ManagementProvider();
+            TimeSpan interval = Objects.firstNonNull(config.getAdaptiveSizingInterval(), defaultAdaptiveSizingInterval);
+            TimeSpan targetQueueTime = Objects.firstNonNull(config.getAdaptiveTargetQueueTime(), defaultAdaptiveTargetQueueTime);
+
+            StripedHistogram queueTimes = null;
+            for (CallableWrapper wrapper : wrappers) {
+                if (wrapper instanceof TimerWrapper) {
+                    queueTimes = new StripedHistogram();
+                    ((TimerWrapper) wrapper).recordQueueTimesTo(queueTimes);
+                    break;
+                }
+            }
+            if (queueTimes == null) {
+                LOG.info("Thread pool %s is not timed, adaptive sizing only uses the queue depth", threadPoolName);
+            }
+
+            AdaptivePoolSizer result = new AdaptivePoolSizer(threadPoolName, executor, Math.max(minThreads, 1), maxThreads, TimeUnit.MILLISECONDS.toNanos(targetQueueTime.getMillis()), queueTimes);
+            result.start(interval.getMillis(), TimeUnit.MILLISECONDS);
+            return result;
         }
 
-        class ManagementProvider implements Provider<ExecutorServiceManagementBean>
+        private ForkJoinPool createForkJoinPool(int parallelism, boolean asyncMode, final ForkJoinPoolManagementBean.WorkerCounter workers)
         {
-            @Inject
-            void setInjector(Injector injector)
-            {
-                // Ensure that create() has been called so that management is set.
-                injector.getInstance(Key.get(ExecutorService.class, annotation));
-            }
+            final AtomicInteger threadCount = new AtomicInteger();
+            final ForkJoinWorkerThreadFactory threadFactory = new ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                {
+                    ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                        @Override
+                        protected void onStart()
+                        {
+                            super.onStart();
+                            workers.started();
+                        }
+
+                        @Override
+                        protected void onTermination(Throwable exception)
+                        {
+                            workers.terminated();
+                            super.onTermination(exception);
+                        }
+                    };
+                    thread.setName(threadPoolName + "-" + threadCount.getAndIncrement());
+                    return thread;
+                }
+            };
+            final UncaughtExceptionHandler exceptionHandler = new UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread thread, Throwable e)
+                {
+                    LOG.error(e, "Uncaught exception in thread pool %s", threadPoolName);
+                }
+            };
+            return new ForkJoinPool(parallelism, threadFactory, exceptionHandler, asyncMode);
+        }
 
-            @Override
-            public ExecutorServiceManagementBean get()
-            {
-                return management;
-            }
+        Provider<ListeningExecutorService> getListeningProvider()
+        {
+            return new Provider<ListeningExecutorService>() {
+                @Override
+                public ListeningExecutorService get()
+                {
+                    // Every pool is decorated, and decorated pools are listening ones.
+                    return (ListeningExecutorService) PoolProvider.this.get();
+                }
+            };
+        }
+
+        Provider<AsyncExecutor> getAsyncProvider()
+        {
+            return new Provider<AsyncExecutor>() {
+                @Override
+                public AsyncExecutor get()
+                {
+                    return new AsyncExecutor(PoolProvider.this.get());
+                }
+            };
         }
     }
 }
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.mogwee.executors.LoggingExecutor;
+
+/**
+ * The regular pool's executor, which also tells its {@link RoomListeners} when it may have room, and
+ * counts the tasks in flight for a {@link GrowBeforeQueueTaskQueue}.
+ */
+class NotifyingLoggingExecutor extends LoggingExecutor implements RoomListeners.Source
+{
+    private final RoomListeners roomListeners = new RoomListeners();
+    private final GrowBeforeQueueTaskQueue growingQueue;
+
+    NotifyingLoggingExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                             BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler)
+    {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        this.growingQueue = GrowBeforeQueueTaskQueue.of(workQueue);
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        if (growingQueue != null) {
+            growingQueue.taskSubmitted();
+        }
+        super.execute(command);
+    }
+
+    @Override
+    public RoomListeners getRoomListeners()
+    {
+        return roomListeners;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        super.shutdown();
+        roomListeners.fire();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        final List<Runnable> result = super.shutdownNow();
+        roomListeners.fire();
+        return result;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r)
+    {
+        super.beforeExecute(t, r);
+        roomListeners.fire();
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t)
+    {
+        super.afterExecute(r, t);
+        if (growingQueue != null) {
+            growingQueue.taskCompleted();
+        }
+        roomListeners.fire();
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Selects the kind of executor that {@link NessThreadPoolModule} builds for a pool.
+ */
+public enum PoolType
+{
+    /**
+     * A {@link ThreadPoolExecutor} sized by {@code min-threads}, {@code max-threads} and {@code queue-size}.
+     */
+    THREAD_POOL,
+
+    /**
+     * Runs every task on its own virtual thread.  {@code max-threads} caps the number of tasks that
+     * run at the same time, 0 means no cap.  Virtual threads need Java 21; on older JVMs the pool
+     * falls back to a {@link ThreadPoolExecutor} of {@code max-threads} threads and an unbounded
+     * queue, and fails to start if there is no cap.
+     * @see VirtualThreadExecutorService
+     */
+    VIRTUAL_THREADS,
+
+    /**
+     * A work stealing {@link java.util.concurrent.ForkJoinPool} with {@code max-threads} parallelism
+     * (0 means one per core) and {@code fork-join-async-mode}.  Each worker has its own deque, so
+     * submitters and workers do not contend on one shared queue.  Subtasks forked from inside a task
+     * go straight to the pool and are not decorated by the pool's wrappers.
+     */
+    WORK_STEALING;
+}
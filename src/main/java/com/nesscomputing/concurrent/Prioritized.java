@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+/**
+ * A task with a priority.  Pools with a {@link QueueType#PRIORITY} work queue run queued tasks with a
+ * higher priority first, and tasks of the same priority in submission order.  Tasks that do not
+ * implement this interface have {@link PrioritizedTasks#DEFAULT_PRIORITY}.
+ * <p>
+ * The priority stays with the task when the pool's {@link CallableWrapper}s wrap it.
+ * @see PrioritizedTasks#withPriority(java.util.concurrent.Callable, int)
+ */
+public interface Prioritized
+{
+    int getPriority();
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * Gives tasks a {@link Prioritized priority} and reads it back.
+ */
+public final class PrioritizedTasks
+{
+    /** The priority of tasks that do not implement {@link Prioritized}. */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    /** Orders tasks with a higher priority first. */
+    static final Comparator<Runnable> HIGHEST_PRIORITY_FIRST = new Comparator<Runnable>() {
+        @Override
+        public int compare(Runnable a, Runnable b)
+        {
+            return Ints.compare(priorityOf(b), priorityOf(a));
+        }
+    };
+
+    private PrioritizedTasks() {}
+
+    /**
+     * Returns a callable that runs the given callable with the given priority.
+     */
+    public static <T> Callable<T> withPriority(Callable<T> callable, int priority)
+    {
+        return new PrioritizedCallable<T>(callable, priority);
+    }
+
+    /**
+     * Returns a runnable that runs the given runnable with the given priority.
+     */
+    public static Runnable withPriority(Runnable runnable, int priority)
+    {
+        return new PrioritizedRunnable(runnable, priority);
+    }
+
+    /**
+     * Returns the priority of a task, {@link #DEFAULT_PRIORITY} if it has none.
+     */
+    public static int priorityOf(Object task)
+    {
+        return task instanceof Prioritized ? ((Prioritized) task).getPriority() : DEFAULT_PRIORITY;
+    }
+
+    /**
+     * Gives a wrapped task the priority of the task it wraps, unless the wrapper already passes it on.
+     */
+    static <T> Callable<T> carryPriority(Callable<T> task, Callable<T> wrapped)
+    {
+        if (wrapped == task || wrapped instanceof Prioritized || !(task instanceof Prioritized)) {
+            return wrapped;
+        }
+        return withPriority(wrapped, ((Prioritized) task).getPriority());
+    }
+
+    /**
+     * Gives a wrapped task the priority of the task it wraps, unless the wrapper already passes it on.
+     */
+    static Runnable carryPriority(Runnable task, Runnable wrapped)
+    {
+        if (wrapped == task || wrapped instanceof Prioritized || !(task instanceof Prioritized)) {
+            return wrapped;
+        }
+        return withPriority(wrapped, ((Prioritized) task).getPriority());
+    }
+
+    private static class PrioritizedCallable<T> implements Callable<T>, Prioritized
+    {
+        private final Callable<T> callable;
+        private final int priority;
+
+        PrioritizedCallable(Callable<T> callable, int priority)
+        {
+            this.callable = callable;
+            this.priority = priority;
+        }
+
+        @Override
+        public T call() throws Exception
+        {
+            return callable.call();
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return priority;
+        }
+    }
+
+    private static class PrioritizedRunnable implements Runnable, Prioritized, Rejectable
+    {
+        private final Runnable runnable;
+        private final int priority;
+
+        PrioritizedRunnable(Runnable runnable, int priority)
+        {
+            this.runnable = runnable;
+            this.priority = priority;
+        }
+
+        @Override
+        public void run()
+        {
+            runnable.run();
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return priority;
+        }
+
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            RejectableTasks.reject(runnable, e);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+import com.nesscomputing.logging.Log;
+
+/**
+ * A {@link ThreadPoolExecutor} whose submitted tasks keep their {@link Prioritized priority}, so that a
+ * {@link QueueType#PRIORITY} work queue can order them.  Its queue holds the submitted tasks themselves,
+ * so a {@link QueueType#ADAPTIVE_LIFO} queue uses it too, to fail the futures of the tasks it drops.
+ * <p>
+ * Submitted tasks are the same {@link BatchTask}s that the decorated executor services hand to the pool,
+ * so a task logs its failure the same way whether it was submitted here or through the decoration.  Like
+ * the regular pool's executor it catches and logs what executed tasks throw, so that a failing task does
+ * not take its worker down with it, it tells its {@link RoomListeners} when it may have room, and it
+ * counts the tasks in flight for a {@link GrowBeforeQueueTaskQueue}.  It can
+ * not extend that executor because it hides every task behind a wrapper of its own; this one only wraps
+ * executed tasks that are not futures, and the wrapper keeps their priority.
+ */
+class PriorityThreadPoolExecutor extends ThreadPoolExecutor implements RoomListeners.Source
+{
+    private static final Log LOG = Log.findLog();
+
+    private final RoomListeners roomListeners = new RoomListeners();
+    private final GrowBeforeQueueTaskQueue growingQueue;
+
+    PriorityThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                               BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory, RejectedExecutionHandler handler)
+    {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        this.growingQueue = GrowBeforeQueueTaskQueue.of(workQueue);
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        // A future keeps what its task throws, anything else is caught by the wrapper.
+        final Runnable task = command instanceof Future ? command : new ExecutedTask(Preconditions.checkNotNull(command, "null command"));
+        if (growingQueue != null) {
+            growingQueue.taskSubmitted();
+        }
+        super.execute(task);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable)
+    {
+        return new BatchTask<T>(callable, PrioritizedTasks.priorityOf(callable));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value)
+    {
+        return new BatchTask<T>(Executors.callable(runnable, value), PrioritizedTasks.priorityOf(runnable));
+    }
+
+    @Override
+    public RoomListeners getRoomListeners()
+    {
+        return roomListeners;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        super.shutdown();
+        roomListeners.fire();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        final List<Runnable> result = super.shutdownNow();
+        roomListeners.fire();
+        return result;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r)
+    {
+        super.beforeExecute(t, r);
+        roomListeners.fire();
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t)
+    {
+        super.afterExecute(r, t);
+        if (growingQueue != null) {
+            growingQueue.taskCompleted();
+        }
+        roomListeners.fire();
+    }
+
+    private static final class ExecutedTask implements Runnable, Prioritized, Rejectable
+    {
+        private final Runnable task;
+
+        ExecutedTask(Runnable task)
+        {
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.error(t, "%s ended with an exception", Thread.currentThread());
+            }
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return PrioritizedTasks.priorityOf(task);
+        }
+
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            RejectableTasks.reject(task, e);
+        }
+    }
+}
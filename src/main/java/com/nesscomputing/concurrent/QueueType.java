@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects the work queue of a {@link PoolType#THREAD_POOL} pool.  Every queue is bounded by
+ * {@code queue-size}, so the pool still grows to {@code max-threads} and rejects when it is full.
+ * A {@code queue-size} of 0 always uses a {@link java.util.concurrent.SynchronousQueue}.
+ * <p>
+ * {@link #LINKED} is a safe choice for most pools.  Use {@link #ARRAY} for busy pools with a large
+ * queue that should not allocate per task, {@link #LINKED_TRANSFER} when workers are usually idle
+ * and waiting, {@link #RING_BUFFER} for pools with many concurrent submitters and {@link #PRIORITY}
+ * only when tasks carry a priority.  {@link #ADAPTIVE_LIFO} suits latency sensitive pools that would
+ * rather drop work than run it late.  The benchmarks module has queue benchmarks to check this for a
+ * given machine.
+ */
+public enum QueueType
+{
+    /**
+     * An {@link ArrayBlockingQueue}.  Preallocated and allocation free, but producers and
+     * consumers share one lock.
+     */
+    ARRAY {
+        @Override
+        BlockingQueue<Runnable> createQueue(int capacity)
+        {
+            return new ArrayBlockingQueue<Runnable>(capacity);
+        }
+    },
+
+    /**
+     * A {@link LinkedBlockingQueue}.  Producers and consumers use separate locks, but every task
+     * allocates a node.
+     */
+    LINKED {
+        @Override
+        BlockingQueue<Runnable> createQueue(int capacity)
+        {
+            return new LinkedBlockingQueue<Runnable>(capacity);
+        }
+    },
+
+    /**
+     * A lock free {@link java.util.concurrent.LinkedTransferQueue} with a capacity guard.  A task is
+     * handed straight to an idle worker when there is one, which is cheapest when the pool mostly
+     * waits for work.  Like {@link #LINKED}, every queued task allocates a node; the capacity guard is
+     * a counter and allocates nothing.  With a busy pool, {@code PoolQueueBenchmark} (4 pool threads,
+     * queue size 1024, one CPU) measured 19.7M tasks/s at 31 bytes per task, against 28.7M tasks/s at
+     * 26 bytes per task for {@link #LINKED}.
+     */
+    LINKED_TRANSFER {
+        @Override
+        BlockingQueue<Runnable> createQueue(int capacity)
+        {
+            return new BoundedTransferQueue<Runnable>(capacity);
+        }
+    },
+
+    /**
+     * A bounded priority queue.  Tasks with a higher {@link Prioritized priority} run first, tasks of
+     * the same priority in submission order.  The pool keeps the priority of tasks submitted to it.
+     */
+    PRIORITY {
+        @Override
+        BlockingQueue<Runnable> createQueue(int capacity)
+        {
+            return new BoundedPriorityBlockingQueue<Runnable>(capacity, PrioritizedTasks.HIGHEST_PRIORITY_FIRST);
+        }
+    },
+
+    /**
+     * A lock free ring buffer.  Preallocated and allocation free, and producers and consumers do not
+     * block each other, which makes it the fastest queue for pools with many submitters.  Idle workers
+     * spin briefly before they park.  {@link java.util.concurrent.ThreadPoolExecutor#remove(Runnable)}
+     * and {@code purge()} work, but scan the whole queue.
+     */
+    RING_BUFFER {
+        @Override
+        BlockingQueue<Runnable> createQueue(int capacity)
+        {
+            return new RingBufferBlockingQueue<Runnable>(capacity);
+        }
+    },
+
+    /**
+     * A queue that is FIFO while the pool keeps up and switches to LIFO once it falls behind, dropping
+     * tasks that have waited too long.  Dropped tasks go to the rejected execution handler of the pool.
+     * Tuned with {@code codel-target} and {@code codel-interval}.
+     * @see AdaptiveLifoQueue
+     */
+    ADAPTIVE_LIFO {
+        @Override
+        BlockingQueue<Runnable> createQueue(int capacity)
+        {
+            return new AdaptiveLifoQueue(capacity,
+                    ThreadPoolConfiguration.DEFAULT_CODEL_TARGET.getMillis(),
+                    ThreadPoolConfiguration.DEFAULT_CODEL_INTERVAL.getMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+    };
+
+    abstract BlockingQueue<Runnable> createQueue(int capacity);
+}
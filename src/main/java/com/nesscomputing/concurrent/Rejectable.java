@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A task that someone may be waiting for, and that can be failed when it is dropped without running.
+ * Tasks that wrap another one pass the rejection on, so a queue that drops a wrapped task still fails
+ * the future behind it.
+ * @see RejectableTasks#reject(Object, RejectedExecutionException)
+ */
+interface Rejectable
+{
+    /**
+     * Fail the task with the exception, unless it already completed.
+     */
+    void reject(RejectedExecutionException e);
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fails tasks that will never run.
+ */
+final class RejectableTasks
+{
+    private RejectableTasks() {}
+
+    /**
+     * Fail a task that will never run: a {@link Rejectable} with the exception, any other future by
+     * cancelling it.  Does nothing to a task that already completed.
+     * @return false if the task is neither, so nobody can be waiting for it.
+     */
+    static boolean reject(Object task, RejectedExecutionException e)
+    {
+        if (task instanceof Rejectable) {
+            ((Rejectable) task).reject(e);
+            return true;
+        }
+        if (task instanceof Future) {
+            ((Future<?>) task).cancel(false);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.Provider;
+
+/**
+ * Rejected execution handlers beyond the four of the JDK.  Each pushes back on the submitter in a
+ * bounded way instead of running any amount of work on its thread.  Configured with
+ * {@code rejected-handler}, or passed to {@link NessThreadPoolModule#withDefaultRejectedHandler}.
+ */
+public final class RejectionPolicies
+{
+    private RejectionPolicies()
+    {
+    }
+
+    /**
+     * Wait up to the timeout for room in the work queue of the pool, then reject.
+     */
+    public static RejectedExecutionHandler blockWithTimeout(long timeout, TimeUnit unit)
+    {
+        Preconditions.checkArgument(timeout >= 0, "timeout must not be negative");
+        return new BlockWithTimeoutPolicy(unit.toNanos(timeout));
+    }
+
+    /**
+     * Run the task on the submitting thread, but only while fewer than {@code limit} rejected tasks
+     * run on submitting threads at the same time.  Past that, reject.
+     */
+    public static RejectedExecutionHandler callerRunsWithLimit(int limit)
+    {
+        Preconditions.checkArgument(limit > 0, "limit must be positive");
+        return new CallerRunsWithLimitPolicy(limit);
+    }
+
+    /**
+     * Hand the task to another executor, looked up on the first rejection.  The task was decorated by the
+     * rejecting pool already, so a pool decorated by this package gets it undecorated: timed, counted and
+     * wrapped once.
+     */
+    public static RejectedExecutionHandler fallbackTo(String name, Provider<? extends Executor> fallback)
+    {
+        return new FallbackPolicy(name, fallback);
+    }
+
+    private static final class BlockWithTimeoutPolicy implements RejectedExecutionHandler
+    {
+        private final long timeoutNanos;
+
+        BlockWithTimeoutPolicy(long timeoutNanos)
+        {
+            this.timeoutNanos = timeoutNanos;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            try {
+                if (!executor.getQueue().offer(task, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                    throw new RejectedExecutionException("Queue still full after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for the queue", e);
+            }
+            // Same recheck as ThreadPoolExecutor.execute, the pool may have shut down while we waited.
+            if (executor.isShutdown() && executor.remove(task)) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "BlockWithTimeout(" + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms)";
+        }
+    }
+
+    private static final class CallerRunsWithLimitPolicy implements RejectedExecutionHandler
+    {
+        private final int limit;
+        private final AtomicInteger running = new AtomicInteger();
+
+        CallerRunsWithLimitPolicy(int limit)
+        {
+            this.limit = limit;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            if (running.incrementAndGet() > limit) {
+                running.decrementAndGet();
+                throw new RejectedExecutionException("Already running " + limit + " rejected tasks on callers");
+            }
+            try {
+                task.run();
+            }
+            finally {
+                running.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "CallerRunsWithLimit(" + running.get() + "/" + limit + ")";
+        }
+    }
+
+    private static final class FallbackPolicy implements RejectedExecutionHandler
+    {
+        private final String name;
+        private final Provider<? extends Executor> fallback;
+
+        FallbackPolicy(String name, Provider<? extends Executor> fallback)
+        {
+            this.name = name;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            Executor fallbackExecutor = fallback.get();
+            if (fallbackExecutor instanceof DecoratingExecutorService) {
+                fallbackExecutor = ((DecoratingExecutorService) fallbackExecutor).getDelegate();
+            }
+            fallbackExecutor.execute(task);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Fallback(" + name + ")";
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A lock free, bounded multi producer / multi consumer {@link BlockingQueue} on a preallocated ring.
+ * Every slot carries a sequence number that tells producers and consumers whether it is free for the
+ * current lap, so offer and poll are a single compare and set on the tail or head counter and never
+ * allocate.  A slot is free for position {@code p} at sequence {@code 2p} and holds its element at
+ * {@code 2p + 1}; with plain {@code p} and {@code p + 1} the two would coincide on a single slot ring.  The head and tail counters are padded onto cache lines of their own.
+ * <p>
+ * Waiting consumers spin briefly, then park until a producer signals them.  Waiting producers, which
+ * a thread pool never has, back off with increasing parks.  {@link #remove(Object)} and the iterator
+ * replace an element in the middle of the queue with a tombstone, which consumers skip; its slot is
+ * only freed once the head reaches it.
+ */
+class RingBufferBlockingQueue<E> extends AbstractQueue<E> implements BatchingQueue<E>
+{
+    /** Spacing between the counters, in longs, so that each one has a cache line to itself. */
+    private static final int PADDING = 8;
+    private static final int HEAD = PADDING;
+    private static final int TAIL = 2 * PADDING;
+
+    /** Polls before a consumer parks.  Spinning only helps when another core can fill the queue meanwhile. */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    /** Longest park of a producer waiting for space. */
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int capacity;
+    private final int mask;
+    /** Marks a slot whose element was removed before it reached the head. */
+    private static final Object TOMBSTONE = new Object();
+
+    private final AtomicReferenceArray<Object> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray counters = new AtomicLongArray(3 * PADDING);
+    private final AtomicInteger tombstones = new AtomicInteger();
+    private final Queue<Thread> waitingConsumers = new ConcurrentLinkedQueue<Thread>();
+
+    RingBufferBlockingQueue(int capacity)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+        this.mask = Integer.bitCount(capacity) == 1 ? capacity - 1 : -1;
+        this.buffer = new AtomicReferenceArray<Object>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, free(i));
+        }
+    }
+
+    @Override
+    public boolean offer(E e)
+    {
+        Preconditions.checkNotNull(e, "null element");
+
+        long position = counters.get(TAIL);
+        int index;
+        while (true) {
+            index = index(position);
+            final long difference = sequences.get(index) - free(position);
+            if (difference == 0) {
+                if (counters.compareAndSet(TAIL, position, position + 1)) {
+                    break;
+                }
+                position = counters.get(TAIL);
+            } else if (difference < 0) {
+                // The slot still holds the element from the previous lap.
+                return false;
+            } else {
+                position = counters.get(TAIL);
+            }
+        }
+
+        buffer.lazySet(index, e);
+        // A volatile write, so that the check for waiting consumers below can not be reordered before it.
+        sequences.set(index, published(position));
+
+        if (!waitingConsumers.isEmpty()) {
+            signalConsumer();
+        }
+        return true;
+    }
+
+    /**
+     * Claims every free slot the batch needs with a single compare and set on the tail.  Slots only
+     * ever go from taken to free for the current position, so a run of free slots stays free.
+     */
+    @Override
+    public int offerAll(List<? extends E> elements)
+    {
+        for (E e : elements) {
+            Preconditions.checkNotNull(e, "null element");
+        }
+        if (elements.isEmpty()) {
+            return 0;
+        }
+
+        int count;
+        long position;
+        while (true) {
+            position = counters.get(TAIL);
+            final long difference = sequences.get(index(position)) - free(position);
+            if (difference < 0) {
+                return 0;
+            }
+            if (difference == 0) {
+                count = 1;
+                while (count < elements.size() && count < capacity && sequences.get(index(position + count)) == free(position + count)) {
+                    count++;
+                }
+                if (counters.compareAndSet(TAIL, position, position + count)) {
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int index = index(position + i);
+            buffer.lazySet(index, elements.get(i));
+            sequences.set(index, published(position + i));
+        }
+
+        for (int i = 0; i < count && !waitingConsumers.isEmpty(); i++) {
+            signalConsumer();
+        }
+        return count;
+    }
+
+    @Override
+    public E poll()
+    {
+        while (true) {
+            long position = counters.get(HEAD);
+            int index;
+            while (true) {
+                index = index(position);
+                final long difference = sequences.get(index) - published(position);
+                if (difference == 0) {
+                    if (counters.compareAndSet(HEAD, position, position + 1)) {
+                        break;
+                    }
+                    position = counters.get(HEAD);
+                } else if (difference < 0) {
+                    // Nothing has been published to the slot for this lap yet.
+                    return null;
+                } else {
+                    position = counters.get(HEAD);
+                }
+            }
+
+            // Swapped out, so that a concurrent remove either wins and leaves a tombstone or fails.
+            final Object e = buffer.getAndSet(index, null);
+            sequences.lazySet(index, free(position + capacity));
+            if (e != TOMBSTONE) {
+                @SuppressWarnings("unchecked")
+                final E element = (E) e;
+                return element;
+            }
+            tombstones.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException
+    {
+        long backoff = 1;
+        while (!offer(e)) {
+            backoff = backoff(backoff, MAX_BACKOFF_NANOS);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = 1;
+        while (!offer(e)) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            backoff = backoff(backoff, Math.min(remaining, MAX_BACKOFF_NANOS));
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException
+    {
+        return awaitElement(false, 0);
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return awaitElement(true, unit.toNanos(timeout));
+    }
+
+    private E awaitElement(boolean timed, long nanos) throws InterruptedException
+    {
+        E e;
+        for (int i = 0; i < SPINS; i++) {
+            if ((e = poll()) != null) {
+                return e;
+            }
+        }
+
+        final long deadline = timed ? System.nanoTime() + nanos : 0;
+        final Thread current = Thread.currentThread();
+        while (true) {
+            // Register before looking at the queue again, so that a producer publishing in between sees us.
+            waitingConsumers.add(current);
+            e = poll();
+            if (e == null) {
+                if (timed) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining > 0) {
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+
+            // If we are not registered any more, a producer chose us to wake up.  Pass that on if we
+            // do not take an element because of it.
+            final boolean signalled = !waitingConsumers.remove(current);
+            if (e == null) {
+                e = poll();
+            }
+
+            final boolean interrupted = Thread.interrupted();
+            final boolean timedOut = timed && deadline - System.nanoTime() <= 0;
+            if (e != null || interrupted || timedOut) {
+                if (signalled && !isEmpty()) {
+                    signalConsumer();
+                }
+                if (e != null) {
+                    if (interrupted) {
+                        current.interrupt();
+                    }
+                    return e;
+                }
+                if (interrupted) {
+                    throw new InterruptedException();
+                }
+                return null;
+            }
+        }
+    }
+
+    private void signalConsumer()
+    {
+        final Thread consumer = waitingConsumers.poll();
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private long backoff(long backoff, long maxNanos) throws InterruptedException
+    {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        LockSupport.parkNanos(this, Math.min(backoff, maxNanos));
+        return Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+    }
+
+    @Override
+    public E peek()
+    {
+        final long tail = counters.get(TAIL);
+        for (long position = counters.get(HEAD); position < tail; position++) {
+            final int index = index(position);
+            if (sequences.get(index) != published(position)) {
+                // Not published yet, or already taken and the head moved on.
+                continue;
+            }
+            final Object e = buffer.get(index);
+            if (e != null && e != TOMBSTONE) {
+                @SuppressWarnings("unchecked")
+                final E element = (E) e;
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the first element that equals {@code o} with a tombstone.  Scans the queue, so this is
+     * only meant for the rare removals of a thread pool, such as {@code remove(Runnable)} and {@code purge()}.
+     */
+    @Override
+    public boolean remove(Object o)
+    {
+        if (o == null) {
+            return false;
+        }
+        final long tail = counters.get(TAIL);
+        for (long position = counters.get(HEAD); position < tail; position++) {
+            final Object e = buffer.get(index(position));
+            if (e != null && e != TOMBSTONE && o.equals(e) && removeAt(position, e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean removeAt(long position, Object e)
+    {
+        final int index = index(position);
+        if (sequences.get(index) == published(position) && buffer.compareAndSet(index, e, TOMBSTONE)) {
+            tombstones.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size()
+    {
+        while (true) {
+            final long head = counters.get(HEAD);
+            final long tail = counters.get(TAIL);
+            final int removed = tombstones.get();
+            if (counters.get(HEAD) == head) {
+                return (int) Math.max(0, Math.min(capacity, tail - head - removed));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        // Tombstones do not count, so a pool that shuts down does not wait for removed tasks.
+        return counters.get(TAIL) - counters.get(HEAD) <= tombstones.get();
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        // Removed tasks keep their slot until a consumer passes it, so count slots, not tasks.
+        while (true) {
+            final long head = counters.get(HEAD);
+            final long tail = counters.get(TAIL);
+            if (counters.get(HEAD) == head) {
+                return (int) Math.max(0, capacity - Math.max(0, tail - head));
+            }
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements)
+    {
+        Preconditions.checkArgument(c != this, "can not drain to self");
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the elements between the head and the tail.  Removal
+     * through the iterator leaves a tombstone in the slot of the element, if it is still queued.
+     */
+    @Override
+    public Iterator<E> iterator()
+    {
+        return new Iterator<E>() {
+            private final long tail = counters.get(TAIL);
+            private long position = counters.get(HEAD);
+            private long lastPosition = -1;
+            private Object last;
+            private Object next = advance();
+
+            private Object advance()
+            {
+                for (; position < tail; position++) {
+                    final int index = index(position);
+                    final Object e = buffer.get(index);
+                    if (e != null && e != TOMBSTONE && sequences.get(index) == published(position)) {
+                        return e;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+            @Override
+            public E next()
+            {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                lastPosition = position++;
+                next = advance();
+                @SuppressWarnings("unchecked")
+                final E element = (E) last;
+                return element;
+            }
+
+            @Override
+            public void remove()
+            {
+                Preconditions.checkState(last != null, "next() has not been called");
+                removeAt(lastPosition, last);
+                last = null;
+            }
+        };
+    }
+
+    private int index(long position)
+    {
+        return mask >= 0 ? (int) (position & mask) : (int) (position % capacity);
+    }
+
+    private static long free(long position)
+    {
+        return position << 1;
+    }
+
+    private static long published(long position)
+    {
+        return (position << 1) + 1;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.nesscomputing.logging.Log;
+
+/**
+ * Listeners that a thread pool calls whenever it may have gained room for another task: when a worker
+ * takes a task off the queue and when it completes one.  It also calls them when it shuts down, so that
+ * nobody keeps waiting for room that will never come.  They run on the worker thread, so they must be
+ * quick.  A pool without listeners pays one volatile read per call.
+ * @see AsyncAdmission
+ */
+final class RoomListeners
+{
+    private static final Log LOG = Log.findLog();
+
+    private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+    /**
+     * Implemented by the thread pools of this package that call their listeners.
+     */
+    interface Source
+    {
+        RoomListeners getRoomListeners();
+    }
+
+    /**
+     * @return the listeners of the executor, or null if it does not tell when it has room.
+     */
+    static RoomListeners of(Object executor)
+    {
+        return executor instanceof Source ? ((Source) executor).getRoomListeners() : null;
+    }
+
+    void add(Runnable listener)
+    {
+        listeners.add(listener);
+    }
+
+    void remove(Runnable listener)
+    {
+        listeners.remove(listener);
+    }
+
+    int size()
+    {
+        return listeners.size();
+    }
+
+    /**
+     * Call from {@link ThreadPoolExecutor#beforeExecute(Thread, Runnable)} and
+     * {@link ThreadPoolExecutor#afterExecute(Runnable, Throwable)}.
+     */
+    void fire()
+    {
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException e) {
+                LOG.warn(e, "While telling %s about room in the pool", listener);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+
+/**
+ * Times the tasks of a scheduled pool.  Instead of the time since submission, which for a delayed or
+ * periodic task mostly measures the delay, it records the schedule lag: how much later than intended
+ * a run started.  A pool that can not keep up with its periodic tasks shows a growing lag.
+ */
+class ScheduledTaskTimer
+{
+    private final Timer lagTimer;
+    private final Timer runTimer;
+    private final Meter exceptionMeter;
+
+    ScheduledTaskTimer(String threadPoolName, MetricsRegistry registry)
+    {
+        final String baseName = threadPoolName + ".";
+        lagTimer = registry.newTimer(TimedExecutors.class, baseName + "schedule-lag");
+        runTimer = registry.newTimer(TimedExecutors.class, baseName + "total-duration");
+        exceptionMeter = registry.newMeter(TimedExecutors.class, baseName + "exception", "exception", TimeUnit.MINUTES);
+    }
+
+    /**
+     * Time a task that runs once, {@code delayNanos} from now.
+     */
+    <V> Callable<V> time(Callable<V> callable, long delayNanos)
+    {
+        return new TimedScheduledTask<V>(this, callable, null, System.nanoTime() + Math.max(0, delayNanos), 0);
+    }
+
+    /**
+     * Time a task that runs {@code delayNanos} from now.  A positive period repeats it at a fixed rate,
+     * a negative one with a fixed delay between runs, 0 runs it once.
+     */
+    Runnable time(Runnable runnable, long delayNanos, long periodNanos)
+    {
+        return new TimedScheduledTask<Void>(this, null, runnable, System.nanoTime() + Math.max(0, delayNanos), periodNanos);
+    }
+
+    private void record(long lagNanos, long runNanos, Throwable failure)
+    {
+        lagTimer.update(Math.max(0, lagNanos), TimeUnit.NANOSECONDS);
+        runTimer.update(runNanos, TimeUnit.NANOSECONDS);
+        if (failure != null) {
+            exceptionMeter.mark();
+        }
+    }
+
+    private static class TimedScheduledTask<V> implements Callable<V>, Runnable, Prioritized
+    {
+        private final ScheduledTaskTimer timer;
+        private final Callable<V> callable;
+        private final Runnable runnable;
+        private final long periodNanos;
+
+        /** Runs of a periodic task never overlap and are ordered by the pool, so this needs no synchronization. */
+        private long fireNanos;
+
+        TimedScheduledTask(ScheduledTaskTimer timer, Callable<V> callable, Runnable runnable, long fireNanos, long periodNanos)
+        {
+            Preconditions.checkArgument(callable != null || runnable != null, "no task");
+            this.timer = timer;
+            this.callable = callable;
+            this.runnable = runnable;
+            this.fireNanos = fireNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public V call() throws Exception
+        {
+            final long startNanos = System.nanoTime();
+            Throwable failure = null;
+            try {
+                if (callable == null) {
+                    runnable.run();
+                    return null;
+                }
+                return callable.call();
+            } catch (Throwable t) {
+                failure = t;
+                throw t;
+            } finally {
+                finished(startNanos, failure);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            final long startNanos = System.nanoTime();
+            Throwable failure = null;
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                failure = t;
+                throw t;
+            } finally {
+                finished(startNanos, failure);
+            }
+        }
+
+        private void finished(long startNanos, Throwable failure)
+        {
+            final long endNanos = System.nanoTime();
+            timer.record(startNanos - fireNanos, endNanos - startNanos, failure);
+            if (periodNanos > 0) {
+                fireNanos += periodNanos;
+            } else if (periodNanos < 0) {
+                fireNanos = endNanos - periodNanos;
+            }
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return PrioritizedTasks.priorityOf(callable == null ? runnable : callable);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads updates over padded cells, one per stripe, and sums them on read.  Threads
+ * pick their stripe by thread id, so pool worker threads (which get sequential ids) rarely share one.
+ */
+final class StripedCounter
+{
+    /** Longs per stripe, so that each stripe sits on its own cache line. */
+    private static final int PADDING = 8;
+
+    /** Default number of stripes: one per core, rounded up to a power of two, capped at 16. */
+    static final int DEFAULT_STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter()
+    {
+        this(DEFAULT_STRIPES);
+    }
+
+    StripedCounter(int stripes)
+    {
+        final int size = Integer.highestOneBit(stripes * 2 - 1);
+        this.cells = new AtomicLongArray(size * PADDING);
+        this.mask = size - 1;
+    }
+
+    void increment()
+    {
+        cells.incrementAndGet(currentStripe(mask) * PADDING);
+    }
+
+    void add(long delta)
+    {
+        cells.addAndGet(currentStripe(mask) * PADDING, delta);
+    }
+
+    long sum()
+    {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Reset the counter to zero.
+     * @return the sum before the reset.  Every update is returned by exactly one drain, even if it
+     * races with the drain.
+     */
+    long drain()
+    {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.getAndSet(i, 0);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the stripe of the calling thread, for a power of two number of stripes.
+     */
+    static int currentStripe(int mask)
+    {
+        return (int) Thread.currentThread().getId() & mask;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A lock free histogram of non-negative long values, in the spirit of HdrHistogram.  Values are counted
+ * in log-linear buckets (16 sub-buckets per power of two, so a bucket is at most 1/16th of its value
+ * wide) and every stripe has its own set of buckets.  Recording is one or two uncontended atomic adds;
+ * stripes are merged when a {@link Snapshot} is taken.  Values above {@link #MAX_VALUE} are clamped.
+ */
+final class StripedHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 43;
+
+    /** Largest recordable value, about 4.9 hours in nanoseconds. */
+    static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+    private static final int SUM = BUCKETS;
+    private static final int MAX = BUCKETS + 1;
+    /** Slots per stripe, padded so that neighbouring stripes do not share cache lines. */
+    private static final int STRIDE = ((MAX + 1 + 7) & ~7) + 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedHistogram()
+    {
+        this(StripedCounter.DEFAULT_STRIPES);
+    }
+
+    StripedHistogram(int stripes)
+    {
+        final int size = Integer.highestOneBit(stripes * 2 - 1);
+        this.cells = new AtomicLongArray(size * STRIDE);
+        this.mask = size - 1;
+    }
+
+    void update(long value)
+    {
+        final long clamped = Math.max(0, Math.min(value, MAX_VALUE));
+        final int base = StripedCounter.currentStripe(mask) * STRIDE;
+
+        cells.incrementAndGet(base + bucketIndex(clamped));
+        cells.addAndGet(base + SUM, clamped);
+
+        long max = cells.get(base + MAX);
+        while (clamped > max && !cells.compareAndSet(base + MAX, max, clamped)) {
+            max = cells.get(base + MAX);
+        }
+    }
+
+    Snapshot snapshot()
+    {
+        final long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        long max = 0;
+
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            for (int i = 0; i < BUCKETS; i++) {
+                final long bucket = cells.get(base + i);
+                buckets[i] += bucket;
+                count += bucket;
+            }
+            sum += cells.get(base + SUM);
+            max = Math.max(max, cells.get(base + MAX));
+        }
+        return new Snapshot(buckets, count, sum, max);
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value that falls into the given bucket.
+     */
+    static long highestValueInBucket(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * The values recorded recently, so that percentiles follow the current load rather than the whole
+     * lifetime of the histogram.  The window rotates on read; a snapshot covers the values recorded
+     * since the rotation before last, i.e. the last one to two windows if it is read at least once
+     * per window.
+     */
+    static final class RecentValues
+    {
+        private final StripedHistogram histogram;
+        private final long windowNanos;
+        private final Ticker ticker;
+
+        private Snapshot previous;
+        private Snapshot current;
+        private long rotatedNanos;
+
+        RecentValues(StripedHistogram histogram, long window, TimeUnit unit, Ticker ticker)
+        {
+            this.histogram = histogram;
+            this.windowNanos = unit.toNanos(window);
+            this.ticker = ticker;
+            this.current = histogram.snapshot();
+            this.previous = current;
+            this.rotatedNanos = ticker.read();
+        }
+
+        synchronized Snapshot snapshot()
+        {
+            final Snapshot now = histogram.snapshot();
+            final long nowNanos = ticker.read();
+            if (nowNanos - rotatedNanos >= windowNanos) {
+                previous = current;
+                current = now;
+                rotatedNanos = nowNanos;
+            }
+            return now.since(previous);
+        }
+    }
+
+    /**
+     * A merged, point in time view of a {@link StripedHistogram}.
+     */
+    static final class Snapshot
+    {
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] buckets, long count, long sum, long max)
+        {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        long getCount()
+        {
+            return count;
+        }
+
+        long getMax()
+        {
+            return max;
+        }
+
+        double getMean()
+        {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        /**
+         * @return a snapshot of only the values recorded since the earlier snapshot.  Its max is the
+         * upper bound of the highest bucket that changed, as the real max of the interval is not known.
+         */
+        Snapshot since(Snapshot earlier)
+        {
+            final long[] delta = new long[buckets.length];
+            int highest = -1;
+            for (int i = 0; i < buckets.length; i++) {
+                delta[i] = buckets[i] - earlier.buckets[i];
+                if (delta[i] > 0) {
+                    highest = i;
+                }
+            }
+            final long intervalMax = highest < 0 ? 0 : Math.min(highestValueInBucket(highest), max);
+            return new Snapshot(delta, count - earlier.count, sum - earlier.sum, intervalMax);
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         * @return the value at the percentile, accurate to the bucket width and never above the max.
+         */
+        long getValueAtPercentile(double percentile)
+        {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueInBucket(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
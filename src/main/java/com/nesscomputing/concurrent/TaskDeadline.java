@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A deadline for the tasks a thread submits.  Tasks that are still queued when their deadline has
+ * passed are not run: their future fails with a {@link DeadlineExceededException}.  Use it when the
+ * caller gives up on the result after some time anyway, so that an overloaded pool does not spend its
+ * threads on work nobody waits for.
+ * <pre>
+ * try (TaskDeadline deadline = TaskDeadline.set(2, TimeUnit.SECONDS)) {
+ *     future = pool.submit(task);
+ *     return future.get(deadline.remaining(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+ * }
+ * </pre>
+ * While a task with a deadline runs, the deadline is in effect on its thread as well, so that tasks it
+ * submits in turn have it too.  Only pools bound by {@link NessThreadPoolModule} check deadlines,
+ * unless {@link NessThreadPoolModule#disableDeadlines()} was called.
+ */
+public final class TaskDeadline implements AutoCloseable
+{
+    private static final ThreadLocal<TaskDeadline> CURRENT = new ThreadLocal<>();
+
+    private final long deadlineNanos;
+    private final TaskDeadline previous;
+
+    private TaskDeadline(long deadlineNanos, TaskDeadline previous)
+    {
+        this.deadlineNanos = deadlineNanos;
+        this.previous = previous;
+    }
+
+    /**
+     * Set the deadline for tasks submitted by the current thread until {@link #close()}.  A deadline that
+     * is already in effect and earlier is kept.
+     */
+    public static TaskDeadline set(long timeout, TimeUnit unit)
+    {
+        final TaskDeadline previous = CURRENT.get();
+        long deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        if (previous != null && previous.deadlineNanos - deadlineNanos < 0) {
+            deadlineNanos = previous.deadlineNanos;
+        }
+        final TaskDeadline result = new TaskDeadline(deadlineNanos, previous);
+        CURRENT.set(result);
+        return result;
+    }
+
+    /**
+     * @return the deadline in effect on the current thread, or null if there is none.
+     */
+    public static TaskDeadline current()
+    {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return the time left until the deadline, negative once it has passed.
+     */
+    public long remaining(TimeUnit unit)
+    {
+        return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired()
+    {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Restore the deadline that was in effect before this one was set.
+     */
+    @Override
+    public void close()
+    {
+        if (CURRENT.get() == this) {
+            restore(previous);
+        }
+    }
+
+    long getDeadlineNanos()
+    {
+        return deadlineNanos;
+    }
+
+    /**
+     * Make the given deadline, which may be null, the one in effect on the current thread.
+     */
+    static void restore(TaskDeadline deadline)
+    {
+        if (deadline == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TaskDeadline[" + remaining(TimeUnit.MILLISECONDS) + "ms remaining]";
+    }
+}
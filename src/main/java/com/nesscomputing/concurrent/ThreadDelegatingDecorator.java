@@ -20,6 +20,7 @@ import static com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScope.SCOPE
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedContext;
 
@@ -41,72 +42,135 @@ public final class ThreadDelegatingDecorator
         return DecoratingExecutors.decorate(wrappedExecutorService, THREAD_DELEGATING_WRAPPER);
     }
 
-    private static class ThreadDelegatingCallableWrapper extends CallableWrapper
+    /**
+     * Returns a view of the executor that runs every task in the context of the calling thread, as it is
+     * now.  Pass it as the executor of future callbacks and listeners, e.g. to
+     * {@link com.google.common.util.concurrent.Futures#addCallback} or
+     * {@link com.google.common.util.concurrent.ListenableFuture#addListener}, so that they run in the
+     * scope of the request that added them rather than of the thread that completed the future.  One
+     * view per request serves any number of stages; a stage that already runs in that context, such as
+     * a direct callback on a pool thread working for the same request, does not switch scope at all.
+     */
+    public static Executor captureContext(final Executor executor)
     {
-        @Override
-        public <T> Callable<T> wrap(Callable<T> callable) {
-            return new DelegatingCallable<T>(callable);
+        return new ContextCapturingExecutor(executor, SCOPE.getContext());
+    }
+
+    /**
+     * Returns a runnable that runs in the context of the calling thread, as it is now.
+     */
+    public static Runnable inCurrentContext(final Runnable runnable)
+    {
+        return PrioritizedTasks.carryPriority(runnable, new ContextRunnable(SCOPE.getContext(), runnable));
+    }
+
+    /**
+     * Returns a callable that runs in the context of the calling thread, as it is now.
+     */
+    public static <T> Callable<T> inCurrentContext(final Callable<T> callable)
+    {
+        final ThreadDelegatedContext context = SCOPE.getContext();
+        return PrioritizedTasks.carryPriority(callable, new Callable<T>() {
+            @Override
+            public T call() throws Exception
+            {
+                final ThreadDelegatedContext originalContext = SCOPE.getContext();
+                if (originalContext == context) {
+                    return callable.call();
+                }
+                SCOPE.changeScope(context);
+                try {
+                    return callable.call();
+                }
+                finally {
+                    SCOPE.changeScope(originalContext);
+                }
+            }
+        });
+    }
+
+    private static final class ContextCapturingExecutor implements Executor
+    {
+        private final Executor executor;
+        private final ThreadDelegatedContext context;
+
+        ContextCapturingExecutor(Executor executor, ThreadDelegatedContext context)
+        {
+            this.executor = executor;
+            this.context = context;
         }
 
         @Override
-        public Runnable wrap(Runnable runnable)
+        public void execute(Runnable command)
         {
-            return new DelegatingRunnable(runnable);
+            executor.execute(PrioritizedTasks.carryPriority(command, new ContextRunnable(context, command)));
         }
     }
 
-    private static class DelegatingRunnable implements Runnable
+    private static final class ContextRunnable implements Runnable, Rejectable
     {
-        private final Runnable wrappedRunnable;
-        private final ThreadDelegatedContext callerContext;
+        private final ThreadDelegatedContext context;
+        private final Runnable runnable;
 
-        DelegatingRunnable(final Runnable wrappedRunnable)
+        ContextRunnable(ThreadDelegatedContext context, Runnable runnable)
         {
-            this.wrappedRunnable = wrappedRunnable;
-            this.callerContext = SCOPE.getContext();
+            this.context = context;
+            this.runnable = runnable;
         }
 
         @Override
         public void run()
         {
             final ThreadDelegatedContext originalContext = SCOPE.getContext();
+            if (originalContext == context) {
+                runnable.run();
+                return;
+            }
+            SCOPE.changeScope(context);
             try {
-                // Assign the caller context.
-                SCOPE.changeScope(callerContext);
-
-                wrappedRunnable.run();
+                runnable.run();
             }
             finally {
-                // Reassign the original context.
                 SCOPE.changeScope(originalContext);
             }
         }
+
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            RejectableTasks.reject(runnable, e);
+        }
     }
 
-    private static class DelegatingCallable<C> implements Callable<C>
+    private static class ThreadDelegatingCallableWrapper extends FusibleCallableWrapper
     {
-        private final Callable<C> wrappedCallable;
-        private final ThreadDelegatedContext callerContext;
+        /** Before state of a task that already runs in the caller context, e.g. on the submitting thread. */
+        private static final Object UNCHANGED = new Object();
 
-        DelegatingCallable(final Callable<C> wrappedCallable)
+        @Override
+        protected Object capture()
         {
-            this.wrappedCallable = wrappedCallable;
-            this.callerContext = SCOPE.getContext();
+            return SCOPE.getContext();
         }
 
         @Override
-        public C call() throws Exception
+        protected Object before(Object captured, long submitNanos)
         {
             final ThreadDelegatedContext originalContext = SCOPE.getContext();
-            try {
-                // Assign the caller context.
-                SCOPE.changeScope(callerContext);
-
-                return wrappedCallable.call();
+            if (originalContext == captured) {
+                return UNCHANGED;
             }
-            finally {
-                // Tell the current context, that we are leaving.
-                SCOPE.changeScope(originalContext);
+            // Assign the caller context.
+            SCOPE.changeScope((ThreadDelegatedContext) captured);
+            return originalContext;
+        }
+
+        @Override
+        protected void after(Object captured, Object beforeState, long submitNanos, Throwable failure)
+        {
+            if (beforeState != UNCHANGED) {
+                // Reassign the original context.
+                SCOPE.changeScope((ThreadDelegatedContext) beforeState);
             }
         }
     }
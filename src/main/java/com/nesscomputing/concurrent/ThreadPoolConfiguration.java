@@ -15,7 +15,6 @@
  */
 package com.nesscomputing.concurrent;
 
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -23,13 +22,14 @@ import java.util.concurrent.ThreadPoolExecutor.AbortPolicy;
 import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
 import java.util.concurrent.ThreadPoolExecutor.DiscardOldestPolicy;
 import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy;
+import java.util.concurrent.TimeUnit;
 
 import org.skife.config.Config;
 import org.skife.config.DefaultNull;
 import org.skife.config.TimeSpan;
 
 /**
- * Configuration for {@link NessThreadPoolModule}.
+ * Configuration for {@link NessThreadPoolModule} and {@link NessScheduledThreadPoolModule}.
  */
 interface ThreadPoolConfiguration
 {
@@ -38,6 +38,19 @@ interface ThreadPoolConfiguration
     static final TimeSpan DEFAULT_TIMEOUT = new TimeSpan("30m");
     static final int DEFAULT_QUEUE_SIZE = 10;
     static final RejectedHandler DEFAULT_REJECTED_HANDLER = RejectedHandler.CALLER_RUNS;
+    static final TimerMetricsMode DEFAULT_TIMER_METRICS_MODE = TimerMetricsMode.YAMMER;
+    static final int DEFAULT_TIMING_SAMPLE_RATE = 1;
+    static final PoolType DEFAULT_POOL_TYPE = PoolType.THREAD_POOL;
+    static final boolean DEFAULT_FORK_JOIN_ASYNC_MODE = true;
+    static final QueueType DEFAULT_QUEUE_TYPE = QueueType.LINKED;
+    static final boolean DEFAULT_GROW_BEFORE_QUEUE = false;
+    static final TimeSpan DEFAULT_REJECTED_BLOCK_TIMEOUT = new TimeSpan("1s");
+    static final int DEFAULT_REJECTED_CALLER_RUNS_LIMIT = 1;
+    static final TimeSpan DEFAULT_CODEL_TARGET = new TimeSpan("5ms");
+    static final TimeSpan DEFAULT_CODEL_INTERVAL = new TimeSpan("100ms");
+    static final boolean DEFAULT_ADAPTIVE_SIZING = false;
+    static final TimeSpan DEFAULT_ADAPTIVE_SIZING_INTERVAL = new TimeSpan("5s");
+    static final TimeSpan DEFAULT_ADAPTIVE_TARGET_QUEUE_TIME = new TimeSpan("10ms");
 
     /**
      * Configuration options to select {@link RejectedExecutionHandler}s.
@@ -78,6 +91,37 @@ interface ThreadPoolConfiguration
             RejectedExecutionHandler getHandler() {
                 return new ThreadPoolExecutor.DiscardOldestPolicy();
             }
+        },
+        /**
+         * Wait up to {@code rejected-block-timeout} for room in the queue, then abort.
+         * @see RejectionPolicies#blockWithTimeout(long, TimeUnit)
+         */
+        BLOCK_WITH_TIMEOUT {
+            @Override
+            RejectedExecutionHandler getHandler() {
+                return RejectionPolicies.blockWithTimeout(DEFAULT_REJECTED_BLOCK_TIMEOUT.getMillis(), TimeUnit.MILLISECONDS);
+            }
+        },
+        /**
+         * Run on the caller while fewer than {@code rejected-caller-runs-limit} rejected tasks do, then abort.
+         * @see RejectionPolicies#callerRunsWithLimit(int)
+         */
+        CALLER_RUNS_WITH_LIMIT {
+            @Override
+            RejectedExecutionHandler getHandler() {
+                return RejectionPolicies.callerRunsWithLimit(DEFAULT_REJECTED_CALLER_RUNS_LIMIT);
+            }
+        },
+        /**
+         * Hand the task to the pool named by {@code rejected-fallback-pool}.  Only pools built by the
+         * modules support this, as it needs the injector to find the other pool.
+         * @see RejectionPolicies#fallbackTo(String, com.google.inject.Provider)
+         */
+        FALLBACK {
+            @Override
+            RejectedExecutionHandler getHandler() {
+                throw new IllegalStateException("FALLBACK needs the rejected-fallback-pool of a thread pool");
+            }
         };
 
         abstract RejectedExecutionHandler getHandler();
@@ -93,7 +137,9 @@ interface ThreadPoolConfiguration
     /**
      * The maximum thread pool size.  May be 0, in which case there is no thread pool.  All
      * requests would then execute directly in the calling thread, which is good for testing
-     * and debugging.
+     * and debugging.  For {@link PoolType#VIRTUAL_THREADS} pools this is the concurrency limit
+     * instead, and 0 means no limit.  For {@link PoolType#WORK_STEALING} pools this is the
+     * parallelism, and 0 means one thread per core.
      */
     @Config("max-threads")
     @DefaultNull // (DEFAULT_MAX_THREADS)
@@ -107,12 +153,45 @@ interface ThreadPoolConfiguration
     TimeSpan getThreadTimeout();
 
     /**
-     * The size of the {@link ArrayBlockingQueue}.  May be 0, in which case there is a {@link SynchronousQueue} instead.
+     * The size of the work queue.  May be 0, in which case there is a {@link SynchronousQueue} instead.
      */
     @Config("queue-size")
     @DefaultNull // (DEFAULT_QUEUE_SIZE)
     Integer getQueueSize();
 
+    /**
+     * The kind of work queue to use.
+     * @see QueueType
+     */
+    @Config("queue-type")
+    @DefaultNull // (DEFAULT_QUEUE_TYPE)
+    QueueType getQueueType();
+
+    /**
+     * Whether the pool starts threads up to max-threads before it queues tasks.  By default a pool
+     * only grows past min-threads once the queue is full.  Has no effect without a queue.
+     * @see GrowBeforeQueueTaskQueue
+     */
+    @Config("grow-before-queue")
+    @DefaultNull // (DEFAULT_GROW_BEFORE_QUEUE)
+    Boolean getGrowBeforeQueue();
+
+    /**
+     * The queue time a {@link QueueType#ADAPTIVE_LIFO} queue aims for.  Once no task got through the
+     * queue faster than this for a whole interval the queue switches to LIFO and drops tasks older than this.
+     */
+    @Config("codel-target")
+    @DefaultNull // (DEFAULT_CODEL_TARGET)
+    TimeSpan getCoDelTarget();
+
+    /**
+     * The interval over which a {@link QueueType#ADAPTIVE_LIFO} queue looks for a short queue time.  While
+     * not overloaded the queue drops tasks older than this.
+     */
+    @Config("codel-interval")
+    @DefaultNull // (DEFAULT_CODEL_INTERVAL)
+    TimeSpan getCoDelInterval();
+
     /**
      * The rejected execution handler to use for the thread pool.
      * @see RejectedHandler
@@ -120,4 +199,82 @@ interface ThreadPoolConfiguration
     @Config("rejected-handler")
     @DefaultNull // (DEFAULT_REJECTED_HANDLER)
     RejectedHandler getRejectedHandler();
+
+    /**
+     * How long the {@link RejectedHandler#BLOCK_WITH_TIMEOUT} handler waits for room in the queue.
+     */
+    @Config("rejected-block-timeout")
+    @DefaultNull // (DEFAULT_REJECTED_BLOCK_TIMEOUT)
+    TimeSpan getRejectedBlockTimeout();
+
+    /**
+     * How many rejected tasks the {@link RejectedHandler#CALLER_RUNS_WITH_LIMIT} handler runs on
+     * submitting threads at the same time.
+     */
+    @Config("rejected-caller-runs-limit")
+    @DefaultNull // (DEFAULT_REJECTED_CALLER_RUNS_LIMIT)
+    Integer getRejectedCallerRunsLimit();
+
+    /**
+     * The name of the thread pool that the {@link RejectedHandler#FALLBACK} handler hands tasks to.
+     * Pools may not fall back to one another in a cycle.
+     */
+    @Config("rejected-fallback-pool")
+    @DefaultNull
+    String getRejectedFallbackPool();
+
+    /**
+     * How the timing wrapper records queue and run times.
+     * @see TimerMetricsMode
+     */
+    @Config("timer-metrics-mode")
+    @DefaultNull // (DEFAULT_TIMER_METRICS_MODE)
+    TimerMetricsMode getTimerMetricsMode();
+
+    /**
+     * Time only one in this many tasks.  Counts stay exact but are batched per thread, so they may
+     * lag by up to this many tasks per thread.  1 times every task.
+     */
+    @Config("timing-sample-rate")
+    @DefaultNull // (DEFAULT_TIMING_SAMPLE_RATE)
+    Integer getTimingSampleRate();
+
+    /**
+     * The kind of executor to build.
+     * @see PoolType
+     */
+    @Config("pool-type")
+    @DefaultNull // (DEFAULT_POOL_TYPE)
+    PoolType getPoolType();
+
+    /**
+     * Whether a {@link PoolType#WORK_STEALING} pool schedules local tasks in FIFO order.  Best for
+     * event style tasks that are never joined; use false for recursive fork / join work.
+     */
+    @Config("fork-join-async-mode")
+    @DefaultNull // (DEFAULT_FORK_JOIN_ASYNC_MODE)
+    Boolean getForkJoinAsyncMode();
+
+    /**
+     * Whether the core size of the pool follows the load, between min-threads and max-threads.
+     * Only applies to {@link PoolType#THREAD_POOL} pools.
+     * @see AdaptivePoolSizer
+     */
+    @Config("adaptive-sizing")
+    @DefaultNull // (DEFAULT_ADAPTIVE_SIZING)
+    Boolean getAdaptiveSizing();
+
+    /**
+     * How often an adaptively sized pool is resized.
+     */
+    @Config("adaptive-sizing-interval")
+    @DefaultNull // (DEFAULT_ADAPTIVE_SIZING_INTERVAL)
+    TimeSpan getAdaptiveSizingInterval();
+
+    /**
+     * The 99th percentile queue time above which an adaptively sized pool grows.
+     */
+    @Config("adaptive-target-queue-time")
+    @DefaultNull // (DEFAULT_ADAPTIVE_TARGET_QUEUE_TIME)
+    TimeSpan getAdaptiveTargetQueueTime();
 }
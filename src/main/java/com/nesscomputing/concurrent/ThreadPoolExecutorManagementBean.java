@@ -24,10 +24,19 @@ import org.weakref.jmx.Managed;
 public class ThreadPoolExecutorManagementBean implements ExecutorServiceManagementBean
 {
     private final ThreadPoolExecutor service;
+    private final AdaptivePoolSizer sizer;
+    private final MeteredRejectedExecutionHandler rejections;
 
     ThreadPoolExecutorManagementBean(ThreadPoolExecutor service)
+    {
+        this(service, null, null);
+    }
+
+    ThreadPoolExecutorManagementBean(ThreadPoolExecutor service, AdaptivePoolSizer sizer, MeteredRejectedExecutionHandler rejections)
     {
         this.service = service;
+        this.sizer = sizer;
+        this.rejections = rejections;
     }
 
     @Override
@@ -155,4 +164,78 @@ public class ThreadPoolExecutorManagementBean implements ExecutorServiceManageme
     {
         return service.getCompletedTaskCount();
     }
+
+    @Override
+    @Managed
+    public long getRejectedTaskCount()
+    {
+        return rejections == null ? 0 : rejections.getRejectedCount();
+    }
+
+    @Override
+    @Managed
+    public long getAbortedTaskCount()
+    {
+        return rejections == null ? 0 : rejections.getAbortedCount();
+    }
+
+    @Override
+    @Managed
+    public long getRejectionTimeMs()
+    {
+        return rejections == null ? 0 : rejections.getRejectionTimeMillis();
+    }
+
+    @Managed
+    public boolean isAdaptiveSizingEnabled()
+    {
+        return sizer != null;
+    }
+
+    @Managed
+    public boolean isAdaptiveSizingPaused()
+    {
+        return sizer != null && sizer.isPaused();
+    }
+
+    /**
+     * Pause adaptive sizing, e.g. to hold a core pool size set by hand.
+     */
+    @Managed
+    public void setAdaptiveSizingPaused(boolean paused)
+    {
+        if (sizer != null) {
+            sizer.setPaused(paused);
+        }
+    }
+
+    @Managed
+    public String getAdaptiveSizingLastDecision()
+    {
+        return sizer == null ? "disabled" : sizer.getLastDecision();
+    }
+
+    @Managed
+    public long getAdaptiveSizingIncreases()
+    {
+        return sizer == null ? 0 : sizer.getIncreases();
+    }
+
+    @Managed
+    public long getAdaptiveSizingDecreases()
+    {
+        return sizer == null ? 0 : sizer.getDecreases();
+    }
+
+    @Managed
+    public double getAdaptiveSizingQueueTimeP99Ms()
+    {
+        return sizer == null ? 0 : sizer.getLastQueueTimeNanos() / 1e6;
+    }
+
+    @Managed
+    public double getAdaptiveSizingTargetQueueTimeMs()
+    {
+        return sizer == null ? 0 : sizer.getTargetQueueNanos() / 1e6;
+    }
 }
@@ -25,4 +25,17 @@ public final class TimedExecutors
     {
         return new TimerWrapper(threadPoolName).setMetricsRegistry(registry);
     }
+
+    public static CallableWrapper createTimerWrapper(String threadPoolName, MetricsRegistry registry, TimerMetricsMode metricsMode)
+    {
+        return new TimerWrapper(threadPoolName).setMetricsRegistry(registry, metricsMode);
+    }
+
+    /**
+     * Create a timer wrapper that times only one in {@code sampleRate} tasks.
+     */
+    public static CallableWrapper createTimerWrapper(String threadPoolName, MetricsRegistry registry, TimerMetricsMode metricsMode, int sampleRate)
+    {
+        return new TimerWrapper(threadPoolName).setSampleRate(sampleRate).setMetricsRegistry(registry, metricsMode);
+    }
 }
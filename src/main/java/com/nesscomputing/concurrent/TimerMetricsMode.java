@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Selects how the timing wrapper of a thread pool records its metrics.
+ */
+public enum TimerMetricsMode
+{
+    /**
+     * Yammer {@code Meter}s for enqueue, dequeue and exception rates and {@code Timer}s for the
+     * queued and total duration.  Every worker thread updates the same meters and timers.
+     */
+    YAMMER {
+        @Override
+        TimerWrapper.Metrics createMetrics(String threadPoolName, MetricsRegistry registry)
+        {
+            return new TimerWrapper.YammerMetrics(threadPoolName, registry);
+        }
+    },
+    /**
+     * Striped counters and log-linear histograms that are merged on read and exported as gauges:
+     * counts for enqueue, dequeue and exception, and count, mean, max and percentiles (in
+     * milliseconds) for the queued and total duration.  As with the Yammer timers, count, mean and
+     * max cover the lifetime of the pool while the percentiles only cover the last one to two
+     * minutes.  There are no rates; derive them from the counts.  Use this for busy pools where the
+     * shared timers become a contention point.
+     */
+    STRIPED {
+        @Override
+        TimerWrapper.Metrics createMetrics(String threadPoolName, MetricsRegistry registry)
+        {
+            return new TimerWrapper.StripedMetrics(threadPoolName, registry);
+        }
+    };
+
+    abstract TimerWrapper.Metrics createMetrics(String threadPoolName, MetricsRegistry registry);
+}
@@ -16,18 +16,47 @@
 package com.nesscomputing.concurrent;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.MetricsRegistry;
 import com.yammer.metrics.core.Timer;
 
-class TimerWrapper extends CallableWrapper
+import com.nesscomputing.config.Config;
+
+/**
+ * Records enqueue, dequeue and exception counts and queued and total durations of the tasks of a
+ * thread pool.  With a sample rate of N above 1, only every Nth task submitted from a thread is timed,
+ * and the counts are collected in striped counters that every thread flushes to the metrics once per
+ * N tasks.  They lag by less than N per active thread; counts left by threads that went away are
+ * flushed by the next thread that does.
+ */
+class TimerWrapper extends FusibleCallableWrapper
 {
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
     private final String threadPoolName;
     private Metrics metrics;
+    private int sampleRate = ThreadPoolConfiguration.DEFAULT_TIMING_SAMPLE_RATE;
+    private volatile StripedHistogram queueTimes;
+
+    private final StripedCounter pendingEnqueues = new StripedCounter();
+    private final StripedCounter pendingDequeues = new StripedCounter();
+
+    private final ThreadLocal<Sampler> samplers = new ThreadLocal<Sampler>() {
+        @Override
+        protected Sampler initialValue()
+        {
+            return new Sampler();
+        }
+    };
 
     public TimerWrapper(String threadPoolName)
     {
@@ -36,41 +65,287 @@ class TimerWrapper extends CallableWrapper
 
     TimerWrapper setMetricsRegistry(MetricsRegistry registry)
     {
-        this.metrics = new Metrics(threadPoolName, registry);
+        return setMetricsRegistry(registry, ThreadPoolConfiguration.DEFAULT_TIMER_METRICS_MODE);
+    }
+
+    TimerWrapper setMetricsRegistry(MetricsRegistry registry, TimerMetricsMode mode)
+    {
+        this.metrics = mode.createMetrics(threadPoolName, registry);
         return this;
     }
 
+    TimerWrapper setSampleRate(int sampleRate)
+    {
+        Preconditions.checkArgument(sampleRate >= 1, "sample rate must be at least 1, not %s", sampleRate);
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * Also record the queue time of every timed task, in nanoseconds, into the given histogram.  Used by
+     * {@link AdaptivePoolSizer} to see how long tasks wait.
+     */
+    TimerWrapper recordQueueTimesTo(StripedHistogram queueTimes)
+    {
+        this.queueTimes = queueTimes;
+        return this;
+    }
+
+    /**
+     * Standalone wrapping of a callable.  When fused with other wrappers by
+     * {@link CallableWrappers#combine(Iterable)} the hooks below are used directly.
+     */
     @Override
-    @SuppressWarnings("PMD.PrematureDeclaration")
     public <T> Callable<T> wrap(final Callable<T> callable)
     {
-        final long enqueueNanos = System.nanoTime();
+        if (metrics == null) {
+            return callable;
+        }
+        final long submitNanos = needsSubmitNanos() ? System.nanoTime() : 0;
+        return new TimedCallable<T>(this, capture(), submitNanos, callable);
+    }
+
+    /**
+     * Standalone wrapping of a runnable.  Times the runnable directly instead of adapting it
+     * to a {@link Callable} and back, so fire-and-forget tasks cost a single wrapper object.
+     */
+    @Override
+    public Runnable wrap(final Runnable runnable)
+    {
+        if (metrics == null) {
+            return runnable;
+        }
+        final long submitNanos = needsSubmitNanos() ? System.nanoTime() : 0;
+        return new TimedRunnable(this, capture(), submitNanos, runnable);
+    }
+
+    /**
+     * When sampling, sampled tasks take their own timestamp so the others need no clock read at all.
+     */
+    @Override
+    protected boolean needsSubmitNanos()
+    {
+        return sampleRate == 1;
+    }
+
+    @Override
+    protected Object capture()
+    {
         final Metrics myMetrics = metrics;
         if (myMetrics == null) {
-            return callable;
+            return null;
         }
 
-        myMetrics.enqueueMeter.mark();
-
-        return new Callable<T>() {
-            @Override
-            public T call() throws Exception
-            {
-                myMetrics.queueTimer.update(System.nanoTime() - enqueueNanos, TimeUnit.NANOSECONDS);
-                myMetrics.dequeueMeter.mark();
-                try {
-                    return callable.call();
-                } catch (Throwable t) {
-                    myMetrics.exceptionMeter.mark();
-                    throw t;
-                } finally {
-                    myMetrics.totalTimer.update(System.nanoTime() - enqueueNanos, TimeUnit.NANOSECONDS);
-                }
+        if (sampleRate == 1) {
+            myMetrics.enqueued(1);
+            return myMetrics;
+        }
+
+        pendingEnqueues.increment();
+        final Sampler sampler = samplers.get();
+        if (++sampler.enqueues < sampleRate) {
+            return myMetrics;
+        }
+        sampler.enqueues = 0;
+        flush(pendingEnqueues, myMetrics, true);
+        return new Sample(myMetrics, System.nanoTime());
+    }
+
+    @Override
+    protected Object before(Object captured, long submitNanos)
+    {
+        if (captured == null) {
+            return null;
+        }
+
+        if (sampleRate == 1) {
+            final Metrics myMetrics = (Metrics) captured;
+            recordQueueTime(myMetrics, System.nanoTime() - submitNanos);
+            myMetrics.dequeued(1);
+            return null;
+        }
+
+        final Metrics myMetrics;
+        if (captured instanceof Sample) {
+            myMetrics = ((Sample) captured).metrics;
+            recordQueueTime(myMetrics, System.nanoTime() - ((Sample) captured).enqueueNanos);
+        } else {
+            myMetrics = (Metrics) captured;
+        }
+
+        pendingDequeues.increment();
+        final Sampler sampler = samplers.get();
+        if (++sampler.dequeues >= sampleRate) {
+            sampler.dequeues = 0;
+            flush(pendingDequeues, myMetrics, false);
+        }
+        return null;
+    }
+
+    private static void flush(StripedCounter pending, Metrics myMetrics, boolean enqueues)
+    {
+        // Another thread may just have flushed our counts along with its own.
+        final long count = pending.drain();
+        if (count > 0) {
+            if (enqueues) {
+                myMetrics.enqueued(count);
+            } else {
+                myMetrics.dequeued(count);
+            }
+        }
+    }
+
+    @Override
+    protected void after(Object captured, Object beforeState, long submitNanos, Throwable failure)
+    {
+        if (captured == null) {
+            return;
+        }
+
+        if (captured instanceof Sample) {
+            final Sample sample = (Sample) captured;
+            if (failure != null) {
+                sample.metrics.failed();
+            }
+            sample.metrics.recordTotalTime(System.nanoTime() - sample.enqueueNanos);
+        } else {
+            final Metrics myMetrics = (Metrics) captured;
+            if (failure != null) {
+                myMetrics.failed();
+            }
+            if (sampleRate == 1) {
+                myMetrics.recordTotalTime(System.nanoTime() - submitNanos);
+            }
+        }
+    }
+
+    private void recordQueueTime(Metrics myMetrics, long queueNanos)
+    {
+        myMetrics.recordQueueTime(queueNanos);
+        final StripedHistogram myQueueTimes = queueTimes;
+        if (myQueueTimes != null) {
+            myQueueTimes.update(queueNanos);
+        }
+    }
+
+    /**
+     * Per thread sampling state, the tasks since the last flush.  Only ever touched by its own thread.
+     */
+    private static class Sampler
+    {
+        int enqueues;
+        int dequeues;
+    }
+
+    /**
+     * Captured state of a task that is timed while sampling.
+     */
+    private static class Sample
+    {
+        final Metrics metrics;
+        final long enqueueNanos;
+
+        Sample(Metrics metrics, long enqueueNanos)
+        {
+            this.metrics = metrics;
+            this.enqueueNanos = enqueueNanos;
+        }
+    }
+
+    private static class TimedCallable<T> implements Callable<T>, Prioritized
+    {
+        private final TimerWrapper timer;
+        private final Object captured;
+        private final long submitNanos;
+        private final Callable<T> callable;
+
+        TimedCallable(TimerWrapper timer, Object captured, long submitNanos, Callable<T> callable)
+        {
+            this.timer = timer;
+            this.captured = captured;
+            this.submitNanos = submitNanos;
+            this.callable = callable;
+        }
+
+        @Override
+        public T call() throws Exception
+        {
+            timer.before(captured, submitNanos);
+            Throwable failure = null;
+            try {
+                return callable.call();
+            } catch (Throwable t) {
+                failure = t;
+                throw t;
+            } finally {
+                timer.after(captured, null, submitNanos, failure);
+            }
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return PrioritizedTasks.priorityOf(callable);
+        }
+    }
+
+    private static class TimedRunnable implements Runnable, Prioritized, Rejectable
+    {
+        private final TimerWrapper timer;
+        private final Object captured;
+        private final long submitNanos;
+        private final Runnable runnable;
+
+        TimedRunnable(TimerWrapper timer, Object captured, long submitNanos, Runnable runnable)
+        {
+            this.timer = timer;
+            this.captured = captured;
+            this.submitNanos = submitNanos;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run()
+        {
+            timer.before(captured, submitNanos);
+            Throwable failure = null;
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                failure = t;
+                throw t;
+            } finally {
+                timer.after(captured, null, submitNanos, failure);
             }
-        };
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return PrioritizedTasks.priorityOf(runnable);
+        }
+
+        @Override
+        public void reject(RejectedExecutionException e)
+        {
+            RejectableTasks.reject(runnable, e);
+        }
+    }
+
+    abstract static class Metrics
+    {
+        abstract void enqueued(long count);
+
+        abstract void dequeued(long count);
+
+        abstract void failed();
+
+        abstract void recordQueueTime(long nanos);
+
+        abstract void recordTotalTime(long nanos);
     }
 
-    static class Metrics
+    static class YammerMetrics extends Metrics
     {
         Meter exceptionMeter;
         Meter enqueueMeter;
@@ -78,7 +353,7 @@ class TimerWrapper extends CallableWrapper
         Timer queueTimer;
         Timer totalTimer;
 
-        public Metrics(String threadPoolName, MetricsRegistry registry)
+        public YammerMetrics(String threadPoolName, MetricsRegistry registry)
         {
             String baseName = threadPoolName + ".";
             exceptionMeter = registry.newMeter(TimedExecutors.class, baseName + "exception", "exception", TimeUnit.MINUTES);
@@ -87,17 +362,161 @@ class TimerWrapper extends CallableWrapper
             queueTimer = registry.newTimer(TimedExecutors.class, baseName + "queued-duration");
             totalTimer = registry.newTimer(TimedExecutors.class, baseName + "total-duration");
         }
+
+        @Override
+        void enqueued(long count)
+        {
+            enqueueMeter.mark(count);
+        }
+
+        @Override
+        void dequeued(long count)
+        {
+            dequeueMeter.mark(count);
+        }
+
+        @Override
+        void failed()
+        {
+            exceptionMeter.mark();
+        }
+
+        @Override
+        void recordQueueTime(long nanos)
+        {
+            queueTimer.update(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        void recordTotalTime(long nanos)
+        {
+            totalTimer.update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    static class StripedMetrics extends Metrics
+    {
+        private static final double[] PERCENTILES = {50, 75, 95, 99, 99.9};
+        private static final long PERCENTILE_WINDOW_MINUTES = 1;
+
+        final StripedCounter exceptionCounter = new StripedCounter();
+        final StripedCounter enqueueCounter = new StripedCounter();
+        final StripedCounter dequeueCounter = new StripedCounter();
+        final StripedHistogram queueHistogram = new StripedHistogram();
+        final StripedHistogram totalHistogram = new StripedHistogram();
+
+        public StripedMetrics(String threadPoolName, MetricsRegistry registry)
+        {
+            String baseName = threadPoolName + ".";
+            registry.newGauge(TimedExecutors.class, baseName + "exception", new CounterGauge(exceptionCounter));
+            registry.newGauge(TimedExecutors.class, baseName + "enqueue", new CounterGauge(enqueueCounter));
+            registry.newGauge(TimedExecutors.class, baseName + "dequeue", new CounterGauge(dequeueCounter));
+            registerHistogram(registry, baseName + "queued-duration", queueHistogram);
+            registerHistogram(registry, baseName + "total-duration", totalHistogram);
+        }
+
+        private static void registerHistogram(MetricsRegistry registry, String name, final StripedHistogram histogram)
+        {
+            registry.newGauge(TimedExecutors.class, name + ".count", new Gauge<Long>() {
+                @Override
+                public Long value()
+                {
+                    return histogram.snapshot().getCount();
+                }
+            });
+            registry.newGauge(TimedExecutors.class, name + ".mean", new Gauge<Double>() {
+                @Override
+                public Double value()
+                {
+                    return histogram.snapshot().getMean() / NANOS_PER_MILLI;
+                }
+            });
+            registry.newGauge(TimedExecutors.class, name + ".max", new Gauge<Double>() {
+                @Override
+                public Double value()
+                {
+                    return histogram.snapshot().getMax() / NANOS_PER_MILLI;
+                }
+            });
+            // Like the samples of the Yammer timers, percentiles only cover recent values.
+            final StripedHistogram.RecentValues recent = new StripedHistogram.RecentValues(histogram, PERCENTILE_WINDOW_MINUTES, TimeUnit.MINUTES, Ticker.systemTicker());
+            for (final double percentile : PERCENTILES) {
+                registry.newGauge(TimedExecutors.class, name + ".p" + percentileName(percentile), new Gauge<Double>() {
+                    @Override
+                    public Double value()
+                    {
+                        return recent.snapshot().getValueAtPercentile(percentile) / NANOS_PER_MILLI;
+                    }
+                });
+            }
+        }
+
+        private static String percentileName(double percentile)
+        {
+            // 50 -> "50", 99.9 -> "999"
+            return String.valueOf(percentile).replace(".0", "").replace(".", "");
+        }
+
+        @Override
+        void enqueued(long count)
+        {
+            enqueueCounter.add(count);
+        }
+
+        @Override
+        void dequeued(long count)
+        {
+            dequeueCounter.add(count);
+        }
+
+        @Override
+        void failed()
+        {
+            exceptionCounter.increment();
+        }
+
+        @Override
+        void recordQueueTime(long nanos)
+        {
+            queueHistogram.update(nanos);
+        }
+
+        @Override
+        void recordTotalTime(long nanos)
+        {
+            totalHistogram.update(nanos);
+        }
+    }
+
+    private static class CounterGauge extends Gauge<Long>
+    {
+        private final StripedCounter counter;
+
+        CounterGauge(StripedCounter counter)
+        {
+            this.counter = counter;
+        }
+
+        @Override
+        public Long value()
+        {
+            return counter.sum();
+        }
     }
 }
 
 class TimerWrapperProvider implements Provider<TimerWrapper>
 {
     private MetricsRegistry registry;
+    private TimerMetricsMode metricsMode;
+    private int sampleRate;
     private final String threadPoolName;
 
-    public TimerWrapperProvider(String threadPoolName)
+    public TimerWrapperProvider(String threadPoolName, TimerMetricsMode defaultMetricsMode, int defaultSampleRate)
     {
         this.threadPoolName = threadPoolName;
+        this.metricsMode = defaultMetricsMode;
+        this.sampleRate = defaultSampleRate;
     }
 
     @Inject(optional=true)
@@ -106,13 +525,21 @@ class TimerWrapperProvider implements Provider<TimerWrapper>
         this.registry = registry;
     }
 
+    @Inject
+    void setConfig(Config config)
+    {
+        ThreadPoolConfiguration poolConfig = config.getBean("ness.thread-pool." + threadPoolName, ThreadPoolConfiguration.class);
+        metricsMode = Objects.firstNonNull(poolConfig.getTimerMetricsMode(), metricsMode);
+        sampleRate = Objects.firstNonNull(poolConfig.getTimingSampleRate(), sampleRate);
+    }
+
     @Override
     public TimerWrapper get()
     {
-        TimerWrapper wrapper = new TimerWrapper(threadPoolName);
+        TimerWrapper wrapper = new TimerWrapper(threadPoolName).setSampleRate(sampleRate);
         if (registry != null) {
-            wrapper = wrapper.setMetricsRegistry(registry);
+            wrapper = wrapper.setMetricsRegistry(registry, metricsMode);
         }
         return wrapper;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Executes tasks without letting a rejection throw or reach the rejected execution handler.  Only
+ * executors that can turn a task away without running it on the caller are tried: thread pools with a
+ * metered or aborting handler, fork join pools and virtual thread executors.  Others, such as a same
+ * thread executor or a pool whose handler runs the task on the caller, always refuse.
+ * @see TryExecutorService
+ */
+final class TryExecution
+{
+    /** Null while not trying, otherwise whether a rejection counts in the metrics of the pool. */
+    private static final ThreadLocal<Boolean> TRYING = new ThreadLocal<Boolean>();
+
+    /** Thrown by a metered handler while trying, caught right away, so it needs no stack trace. */
+    private static final RejectedExecutionException NO_CAPACITY = new NoCapacityException();
+
+    private TryExecution()
+    {
+    }
+
+    /**
+     * @return true, after counting the rejection, if the executor is a thread pool that is shut down or
+     * that can neither queue another task nor start another thread.
+     */
+    static boolean isSaturated(Executor executor)
+    {
+        return isSaturated(executor, true);
+    }
+
+    /**
+     * Execute the task.  A thread pool with a metered handler turns a rejected task away without calling
+     * the handler it meters, and counts the rejection; other executors that {@link #canTry(Executor) can
+     * be tried} reject as usual.
+     * @return false if the task was rejected, or the executor can not be tried.
+     */
+    static boolean tryExecute(Executor executor, Runnable task)
+    {
+        return tryExecute(executor, task, true);
+    }
+
+    /**
+     * @param countRejection false for a task that will be tried again, so it is no rejection yet.
+     */
+    static boolean isSaturated(Executor executor, boolean countRejection)
+    {
+        if (!(executor instanceof ThreadPoolExecutor)) {
+            return false;
+        }
+        final ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor;
+        final BlockingQueue<Runnable> queue = threadPool.getQueue();
+        // A synchronous queue has no capacity but may still have a worker waiting.  getPoolSize() takes
+        // the executor's lock, so only look when the queue is full.
+        final boolean saturated = threadPool.isShutdown()
+                || (!(queue instanceof SynchronousQueue) && queue.remainingCapacity() == 0 && threadPool.getPoolSize() >= threadPool.getMaximumPoolSize());
+        if (saturated && countRejection) {
+            final MeteredRejectedExecutionHandler rejections = meteredHandlerOf(threadPool);
+            if (rejections != null) {
+                rejections.recordAborted();
+            }
+        }
+        return saturated;
+    }
+
+    /**
+     * @param countRejection false for a task that will be tried again, so it is no rejection yet.
+     */
+    static boolean tryExecute(Executor executor, Runnable task, boolean countRejection)
+    {
+        if (!canTry(executor)) {
+            return false;
+        }
+        final boolean metered = executor instanceof ThreadPoolExecutor && meteredHandlerOf((ThreadPoolExecutor) executor) != null;
+        if (metered) {
+            TRYING.set(countRejection);
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        finally {
+            if (metered) {
+                TRYING.remove();
+            }
+        }
+    }
+
+    /**
+     * @return true if a rejection by the executor never runs the task on the caller, or anywhere else.
+     */
+    static boolean canTry(Executor executor)
+    {
+        if (executor instanceof ThreadPoolExecutor) {
+            final ThreadPoolExecutor threadPool = (ThreadPoolExecutor) executor;
+            return meteredHandlerOf(threadPool) != null || unwrap(threadPool.getRejectedExecutionHandler()) instanceof ThreadPoolExecutor.AbortPolicy;
+        }
+        return executor instanceof ForkJoinPool || executor instanceof VirtualThreadExecutorService;
+    }
+
+    /**
+     * @return true if the calling thread is trying to execute a task, so a metered handler must throw
+     * {@link #noCapacity()} instead of handling a rejection.
+     */
+    static boolean isTrying()
+    {
+        return TRYING.get() != null;
+    }
+
+    /**
+     * @return true if the calling thread is trying to execute a task and a rejection counts.
+     */
+    static boolean isCountingRejections()
+    {
+        return Boolean.TRUE.equals(TRYING.get());
+    }
+
+    static RejectedExecutionException noCapacity()
+    {
+        return NO_CAPACITY;
+    }
+
+    private static MeteredRejectedExecutionHandler meteredHandlerOf(ThreadPoolExecutor executor)
+    {
+        final RejectedExecutionHandler handler = unwrap(executor.getRejectedExecutionHandler());
+        return handler instanceof MeteredRejectedExecutionHandler ? (MeteredRejectedExecutionHandler) handler : null;
+    }
+
+    private static RejectedExecutionHandler unwrap(RejectedExecutionHandler handler)
+    {
+        if (handler instanceof GrowBeforeQueueTaskQueue.QueueingHandler) {
+            return ((GrowBeforeQueueTaskQueue.QueueingHandler) handler).getHandler();
+        }
+        return handler;
+    }
+
+    private static final class NoCapacityException extends RejectedExecutionException
+    {
+        private static final long serialVersionUID = 1L;
+
+        NoCapacityException()
+        {
+            super("No capacity");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace()
+        {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An {@link ExecutorService} that turns tasks away without throwing when it is saturated.  The executor
+ * services bound by {@link NessThreadPoolModule} implement it; {@link NessExecutors#tryExecute(ExecutorService, Runnable)}
+ * and {@link NessExecutors#trySubmit(ExecutorService, Callable)} work with any executor service.  One that
+ * might run a rejected task on the caller, such as a same thread executor, turns every task away.
+ * <p>
+ * A thread pool whose queue is full and that can not grow turns a task away before it is wrapped.  A
+ * task that is rejected anyway, e.g. because the pool filled up in the meantime or has no queue, does
+ * not go to the rejected execution handler, so it neither runs on the caller nor blocks.  Either way the
+ * rejection counts in the rejection metrics of the pool, and no exception is created.
+ */
+public interface TryExecutorService extends ExecutorService
+{
+    /**
+     * Execute the task if the pool has room for it.
+     * @return false if the task was turned away.
+     */
+    boolean tryExecute(Runnable command);
+
+    /**
+     * Submit the task if the pool has room for it.
+     * @return the future of the task, or null if it was turned away.
+     */
+    <T> ListenableFuture<T> trySubmit(Callable<T> task);
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import org.weakref.jmx.Managed;
+
+/**
+ * Management bean for a {@link VirtualThreadExecutorService}.  The maximum pool size is the
+ * concurrency limit and may be changed at runtime if the pool was created with one.  The queue
+ * holds the tasks waiting for a permit.
+ */
+public class VirtualThreadExecutorManagementBean implements ExecutorServiceManagementBean
+{
+    private final VirtualThreadExecutorService service;
+
+    VirtualThreadExecutorManagementBean(VirtualThreadExecutorService service)
+    {
+        this.service = service;
+    }
+
+    @Override
+    @Managed
+    public boolean isShutdown()
+    {
+        return service.isShutdown();
+    }
+
+    @Override
+    @Managed
+    public boolean isTerminated()
+    {
+        return service.isTerminated();
+    }
+
+    @Override
+    @Managed
+    public boolean isTerminating()
+    {
+        return service.isShutdown() && !service.isTerminated();
+    }
+
+    @Override
+    @Managed
+    public String getRejectedExecutionHandler()
+    {
+        return "null";
+    }
+
+    @Override
+    @Managed
+    public int getCorePoolSize()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public void setCorePoolSize(int corePoolSize)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Managed
+    public int getMaximumPoolSize()
+    {
+        return service.getMaxConcurrency();
+    }
+
+    @Override
+    @Managed
+    public void setMaximumPoolSize(int maximumPoolSize)
+    {
+        service.setMaxConcurrency(maximumPoolSize);
+    }
+
+    @Override
+    @Managed
+    public long getKeepAliveTime()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public void setKeepAliveTime(String keepAliveTime)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Managed
+    public void setKeepAliveTime(long keepAliveTimeMs)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    @Managed
+    public int getQueueCurrentSize()
+    {
+        return service.getWaitingCount();
+    }
+
+    @Override
+    @Managed
+    public int getQueueRemainingSize()
+    {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    @Managed
+    public int getCurrentPoolSize()
+    {
+        return service.getPoolSize();
+    }
+
+    @Override
+    @Managed
+    public int getCurrentlyActiveThreads()
+    {
+        return service.getActiveCount();
+    }
+
+    @Override
+    @Managed
+    public int getLargestPoolSize()
+    {
+        return service.getLargestPoolSize();
+    }
+
+    @Override
+    @Managed
+    public long getEnqueuedTaskCount()
+    {
+        return service.getSubmittedTaskCount();
+    }
+
+    @Override
+    @Managed
+    public long getCompletedTaskCount()
+    {
+        return service.getCompletedTaskCount();
+    }
+
+    @Override
+    @Managed
+    public long getRejectedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public long getAbortedTaskCount()
+    {
+        return 0;
+    }
+
+    @Override
+    @Managed
+    public long getRejectionTimeMs()
+    {
+        return 0;
+    }
+}
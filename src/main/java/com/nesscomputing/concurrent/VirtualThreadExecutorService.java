@@ -0,0 +1,381 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * An {@link java.util.concurrent.ExecutorService} that starts a new virtual thread for every task.
+ * An optional cap limits how many tasks run at the same time; tasks over the cap park their (cheap)
+ * thread on a semaphore, so submission never blocks and there is no queue to overflow.
+ * <p>
+ * The library builds against Java 7, so virtual threads are looked up reflectively.  Check
+ * {@link #isSupported()} before creating a pool by name; {@link NessThreadPoolModule} falls back to a
+ * regular thread pool on JVMs without virtual threads.
+ */
+public class VirtualThreadExecutorService extends AbstractExecutorService
+{
+    private static final boolean SUPPORTED = lookupSupported();
+
+    private final ThreadFactory threadFactory;
+    private final ResizableSemaphore permits;
+    private volatile int maxConcurrency;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition terminated = lock.newCondition();
+    private final Set<Thread> threads = Sets.newConcurrentHashSet();
+    private final Set<Worker> pending = Sets.newConcurrentHashSet();
+    private volatile boolean shutdown;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger largestPoolSize = new AtomicInteger();
+    private final AtomicLong submittedTaskCount = new AtomicLong();
+    private final AtomicLong completedTaskCount = new AtomicLong();
+
+    /**
+     * @param maxConcurrency maximum number of tasks running at the same time, 0 for no limit.
+     * @throws IllegalStateException if this JVM has no virtual threads.
+     */
+    VirtualThreadExecutorService(String threadPoolName, int maxConcurrency)
+    {
+        this(createThreadFactory(threadPoolName), maxConcurrency);
+    }
+
+    VirtualThreadExecutorService(ThreadFactory threadFactory, int maxConcurrency)
+    {
+        Preconditions.checkArgument(maxConcurrency >= 0, "max concurrency must not be negative");
+        this.threadFactory = threadFactory;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = maxConcurrency > 0 ? new ResizableSemaphore(maxConcurrency) : null;
+    }
+
+    /**
+     * @return true if this JVM has virtual threads.
+     */
+    public static boolean isSupported()
+    {
+        return SUPPORTED;
+    }
+
+    private static boolean lookupSupported()
+    {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a factory for virtual threads named {@code threadPoolName-N}.
+     * @throws IllegalStateException if this JVM has no virtual threads.
+     */
+    static ThreadFactory createThreadFactory(String threadPoolName)
+    {
+        Preconditions.checkState(SUPPORTED, "Virtual threads are not available, thread pool %s needs Java 21", threadPoolName);
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadPoolName + "-", 0L);
+            final Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create virtual threads for thread pool " + threadPoolName, e);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        Preconditions.checkNotNull(command, "null runnable");
+        if (shutdown) {
+            throw new RejectedExecutionException("Executor service has been shut down");
+        }
+
+        final Worker worker = new Worker(command);
+        final Thread thread = threadFactory.newThread(worker);
+        threads.add(thread);
+        pending.add(worker);
+
+        // Registered before the check, so that either shutdown sees the thread or we see the shutdown.
+        if (shutdown) {
+            finished(thread);
+            if (worker.claim()) {
+                throw new RejectedExecutionException("Executor service has been shut down");
+            }
+            // Otherwise shutdownNow() already took the command and returned it.
+            return;
+        }
+
+        submittedTaskCount.incrementAndGet();
+        final int poolSize = threads.size();
+        int largest = largestPoolSize.get();
+        while (poolSize > largest && !largestPoolSize.compareAndSet(largest, poolSize)) {
+            largest = largestPoolSize.get();
+        }
+
+        try {
+            thread.start();
+        } catch (RuntimeException | Error e) {
+            // E.g. out of memory for another thread.  Without this the thread would block termination forever.
+            submittedTaskCount.decrementAndGet();
+            finished(thread);
+            if (worker.claim()) {
+                throw new RejectedExecutionException("Could not start a thread", e);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        shutdown = true;
+        signalIfTerminated();
+    }
+
+    /**
+     * Interrupts all running tasks.  Tasks that did not start yet, e.g. because they wait for a permit,
+     * never run and are returned.
+     */
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        shutdown = true;
+
+        final List<Runnable> notStarted = Lists.newArrayList();
+        for (Worker worker : pending) {
+            if (worker.claim()) {
+                notStarted.add(worker.command);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        signalIfTerminated();
+        return notStarted;
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return shutdown && threads.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!isTerminated()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = terminated.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getMaxConcurrency()
+    {
+        return maxConcurrency;
+    }
+
+    void setMaxConcurrency(int newMaxConcurrency)
+    {
+        Preconditions.checkState(permits != null, "Pool was created without a concurrency limit");
+        Preconditions.checkArgument(newMaxConcurrency > 0, "max concurrency must be positive");
+
+        synchronized (permits) {
+            final int delta = newMaxConcurrency - maxConcurrency;
+            if (delta > 0) {
+                permits.release(delta);
+            } else if (delta < 0) {
+                permits.reducePermits(-delta);
+            }
+            maxConcurrency = newMaxConcurrency;
+        }
+    }
+
+    int getPoolSize()
+    {
+        return threads.size();
+    }
+
+    int getActiveCount()
+    {
+        return running.get();
+    }
+
+    int getWaitingCount()
+    {
+        return permits == null ? 0 : permits.getQueueLength();
+    }
+
+    int getLargestPoolSize()
+    {
+        return largestPoolSize.get();
+    }
+
+    long getSubmittedTaskCount()
+    {
+        return submittedTaskCount.get();
+    }
+
+    long getCompletedTaskCount()
+    {
+        return completedTaskCount.get();
+    }
+
+    private void signalIfTerminated()
+    {
+        if (isTerminated()) {
+            lock.lock();
+            try {
+                terminated.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void finished(Thread thread)
+    {
+        threads.remove(thread);
+        if (shutdown) {
+            signalIfTerminated();
+        }
+    }
+
+    private class Worker implements Runnable
+    {
+        private final Runnable command;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Worker(Runnable command)
+        {
+            this.command = command;
+        }
+
+        /**
+         * @return true if the caller, either this worker or {@link #shutdownNow()}, gets to handle the command.
+         */
+        boolean claim()
+        {
+            if (claimed.compareAndSet(false, true)) {
+                pending.remove(this);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                if (permits != null && !acquire()) {
+                    return;
+                }
+                try {
+                    if (!claim()) {
+                        // Handed back by shutdownNow().
+                        return;
+                    }
+                    running.incrementAndGet();
+                    try {
+                        command.run();
+                    } finally {
+                        completedTaskCount.incrementAndGet();
+                        running.decrementAndGet();
+                    }
+                } finally {
+                    if (permits != null) {
+                        permits.release();
+                    }
+                }
+            } finally {
+                finished(Thread.currentThread());
+            }
+        }
+
+        /**
+         * @return false if shutdownNow() took the command while waiting for a permit.
+         */
+        private boolean acquire()
+        {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        permits.acquire();
+                        return true;
+                    } catch (InterruptedException e) {
+                        if (claimed.get()) {
+                            return false;
+                        }
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static class ResizableSemaphore extends Semaphore
+    {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore(int permits)
+        {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction)
+        {
+            super.reducePermits(reduction);
+        }
+    }
+}
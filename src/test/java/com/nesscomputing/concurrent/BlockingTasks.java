@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * Tasks that hold their worker until the test releases them, and the executors they run on.  After the
+ * test, the rule releases the tasks and checks that every executor handed to {@link #shutDownAfter}
+ * terminates.
+ */
+class BlockingTasks extends ExternalResource
+{
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<ExecutorService> executors = Lists.newArrayList();
+
+    /**
+     * @return the executor, which is shut down after the test.
+     */
+    <T extends ExecutorService> T shutDownAfter(T executor)
+    {
+        executors.add(executor);
+        return executor;
+    }
+
+    /**
+     * @return a task that blocks until the tasks are released.
+     */
+    Runnable task()
+    {
+        return task(new CountDownLatch(0));
+    }
+
+    /**
+     * @return a task that counts down the latch once it runs, then blocks until the tasks are released.
+     */
+    Runnable task(final CountDownLatch started)
+    {
+        return new Runnable() {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                await();
+            }
+        };
+    }
+
+    /**
+     * Hands blocking tasks to the executor and waits until they all run.
+     */
+    void block(Executor executor, int tasks) throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(task(started));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Blocks until the tasks are released, for tasks of the test's own.
+     */
+    void await()
+    {
+        Uninterruptibles.awaitUninterruptibly(release);
+    }
+
+    void release()
+    {
+        release.countDown();
+    }
+
+    @Override
+    protected void after()
+    {
+        release();
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        try {
+            for (ExecutorService executor : executors) {
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(e);
+        }
+    }
+}
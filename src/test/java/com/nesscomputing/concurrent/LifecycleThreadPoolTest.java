@@ -15,19 +15,30 @@
  */
 package com.nesscomputing.concurrent;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.MBeanServer;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.Provider;
 import com.google.inject.name.Named;
 import com.google.inject.name.Names;
@@ -136,4 +147,210 @@ public class LifecycleThreadPoolTest
         assertTrue(service.isShutdown());
         assertTrue(service.isTerminated());
     }
+
+    @Test
+    public void testVirtualThreadPool() throws Exception
+    {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (ConfigModule.forTesting());
+                install (new LifecycleModule());
+                install (NessThreadPoolModule.virtualThreadPool("test", 4).disableThreadDelegation());
+            }
+        }).injectMembers(this);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        final Thread currentThread = Thread.currentThread();
+
+        Future<Boolean> future = service.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call()
+            {
+                return currentThread == Thread.currentThread();
+            }
+        });
+
+        assertFalse("must not be on same thread", future.get());
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(service.isShutdown());
+        assertTrue(service.isTerminated());
+    }
+
+    @Test
+    public void testWorkStealingPool() throws Exception
+    {
+        Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (new ThreadDelegatedScopeModule());
+                install (ConfigModule.forTesting());
+                install (new LifecycleModule());
+                install (NessThreadPoolModule.workStealingPool("test", 2));
+
+                bind (Object.class).annotatedWith(Names.named("delegated")).toProvider(new Provider<Object>() {
+                    @Override
+                    public Object get()
+                    {
+                        return new Object();
+                    }
+                }).in(ThreadDelegatedScope.SCOPE);
+            }
+        });
+        injector.injectMembers(this);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        ExecutorServiceManagementBean management = injector.getInstance(Key.get(ExecutorServiceManagementBean.class, Names.named("test")));
+        assertTrue(management instanceof ForkJoinPoolManagementBean);
+        assertEquals(2, ((ForkJoinPoolManagementBean) management).getParallelism());
+
+        final Thread currentThread = Thread.currentThread();
+        final Object threadDelegatedObject = scopedProvider.get();
+
+        // A fork join task handed in as a Runnable must still be decorated and complete.
+        ForkJoinTask<Boolean> task = ForkJoinTask.adapt(new Callable<Boolean>() {
+            @Override
+            public Boolean call()
+            {
+                assertTrue(threadDelegatedObject == scopedProvider.get());
+                return currentThread == Thread.currentThread();
+            }
+        });
+        service.execute((Runnable) task);
+
+        assertFalse("must not be on same thread", task.get());
+        assertTrue(management.getLargestPoolSize() >= 1);
+        assertTrue(management.getLargestPoolSize() <= 2);
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(service.isShutdown());
+        assertTrue(service.isTerminated());
+    }
+
+    @Test
+    public void testPriorityPool() throws Exception
+    {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (new ThreadDelegatedScopeModule());
+                install (ConfigModule.forTesting());
+                install (new LifecycleModule());
+                install (NessThreadPoolModule.priorityPool("test", 1, 10));
+            }
+        }).injectMembers(this);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        // Occupy the only thread, so that everything else queues up.
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        service.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                blocked.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+        });
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        final List<Integer> order = Collections.synchronizedList(Lists.<Integer>newArrayList());
+        final List<Future<?>> futures = Lists.newArrayList();
+        futures.add(service.submit(new PriorityTask(order, PrioritizedTasks.DEFAULT_PRIORITY)));
+        futures.add(service.submit(PrioritizedTasks.withPriority(new Runnable() {
+            @Override
+            public void run()
+            {
+                order.add(5);
+            }
+        }, 5)));
+        futures.add(service.submit(new PriorityTask(order, 10)));
+        futures.add(service.submit(new PriorityTask(order, -1)));
+        futures.add(service.submit(new PriorityTask(order, 10)));
+
+        release.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(ImmutableList.of(10, 10, 5, 0, -1), order);
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(service.isShutdown());
+        assertTrue(service.isTerminated());
+    }
+
+    @Test
+    public void testAdaptiveSizing() throws Exception
+    {
+        final Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (ConfigModule.forTesting());
+                install (new LifecycleModule());
+                install (NessThreadPoolModule.defaultPool("test").withDefaultMinThreads(1).withDefaultMaxThreads(4).withDefaultQueueSize(100)
+                        .withDefaultAdaptiveSizing(true).withDefaultAdaptiveSizingInterval(10, TimeUnit.MILLISECONDS));
+            }
+        });
+        injector.injectMembers(this);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        final ThreadPoolExecutorManagementBean management = (ThreadPoolExecutorManagementBean) injector.getInstance(Key.get(ExecutorServiceManagementBean.class, Names.named("test")));
+        assertTrue(management.isAdaptiveSizingEnabled());
+        assertEquals(1, management.getCorePoolSize());
+
+        // Tasks that queue up behind busy threads grow the pool, one thread per interval.
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 8; i++) {
+            service.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+            });
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(4, management.getCorePoolSize());
+        assertEquals(3, management.getAdaptiveSizingIncreases());
+
+        release.countDown();
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(service.isTerminated());
+    }
+
+    private static class PriorityTask implements Callable<Void>, Prioritized
+    {
+        private final List<Integer> order;
+        private final int priority;
+
+        PriorityTask(List<Integer> order, int priority)
+        {
+            this.order = order;
+            this.priority = priority;
+        }
+
+        @Override
+        public Void call()
+        {
+            order.add(priority);
+            return null;
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return priority;
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.nesscomputing.concurrent.AdaptivePoolSizer.Decision;
+
+public class TestAdaptivePoolSizer
+{
+    @Rule
+    public final BlockingTasks blocking = new BlockingTasks();
+
+    private final ThreadPoolExecutor executor = blocking.shutDownAfter(new ThreadPoolExecutor(1, 4, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>()));
+
+    @Test
+    public void testGrowsWhenQueuedAndShrinksWhenIdle() throws Exception
+    {
+        final AdaptivePoolSizer sizer = new AdaptivePoolSizer("test", executor, 1, 3, TimeUnit.MILLISECONDS.toNanos(10), null);
+
+        final CountDownLatch started = new CountDownLatch(3);
+        for (int i = 0; i < 5; i++) {
+            executor.execute(blocking.task(started));
+        }
+
+        assertEquals(Decision.GROW, sizer.adjust());
+        assertEquals(Decision.GROW, sizer.adjust());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        assertEquals(3, executor.getCorePoolSize());
+
+        // Bounded by the configured maximum, not the executor's.
+        assertEquals(Decision.HOLD, sizer.adjust());
+        assertEquals(2, sizer.getIncreases());
+
+        blocking.release();
+        while (executor.getActiveCount() > 0 || !executor.getQueue().isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Decision.SHRINK, sizer.adjust());
+        assertEquals(2, executor.getCorePoolSize());
+        assertEquals(Decision.SHRINK, sizer.adjust());
+        assertEquals(1, executor.getCorePoolSize());
+        assertEquals(Decision.HOLD, sizer.adjust());
+        assertEquals(2, sizer.getDecreases());
+        assertTrue(sizer.getLastDecision(), sizer.getLastDecision().startsWith("SHRINK 2 -> 1"));
+    }
+
+    @Test
+    public void testGrowsOnQueueTime() throws Exception
+    {
+        final StripedHistogram queueTimes = new StripedHistogram();
+        final AdaptivePoolSizer sizer = new AdaptivePoolSizer("test", executor, 1, 4, TimeUnit.MILLISECONDS.toNanos(10), queueTimes);
+
+        queueTimes.update(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Decision.GROW, sizer.adjust());
+        assertEquals(2, executor.getCorePoolSize());
+
+        // Only the queue times since the last adjustment count.
+        queueTimes.update(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(Decision.SHRINK, sizer.adjust());
+        assertEquals(1, executor.getCorePoolSize());
+    }
+
+    @Test
+    public void testStartedSizersShareAScheduler() throws Exception
+    {
+        final ThreadPoolExecutor other = new ThreadPoolExecutor(1, 4, 30, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>());
+        try {
+            final AdaptivePoolSizer sizer = new AdaptivePoolSizer("test", executor, 1, 4, TimeUnit.MILLISECONDS.toNanos(10), null);
+            final AdaptivePoolSizer otherSizer = new AdaptivePoolSizer("other", other, 1, 4, TimeUnit.MILLISECONDS.toNanos(10), null);
+
+            sizer.start(5, TimeUnit.SECONDS);
+            otherSizer.start(5, TimeUnit.SECONDS);
+            // Surplus threads leave within an interval, not after the thread timeout.
+            assertEquals(1, executor.getKeepAliveTime(TimeUnit.SECONDS));
+            assertEquals(5, other.getKeepAliveTime(TimeUnit.SECONDS));
+
+            sizer.stop();
+            assertTrue(AdaptivePoolSizer.isSchedulerRunning());
+            otherSizer.stop();
+            assertFalse(AdaptivePoolSizer.isSchedulerRunning());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void testPaused() throws Exception
+    {
+        final StripedHistogram queueTimes = new StripedHistogram();
+        final AdaptivePoolSizer sizer = new AdaptivePoolSizer("test", executor, 1, 4, TimeUnit.MILLISECONDS.toNanos(10), queueTimes);
+
+        sizer.setPaused(true);
+        queueTimes.update(TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(Decision.HOLD, sizer.adjust());
+        assertEquals(1, executor.getCorePoolSize());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), sizer.getLastQueueTimeNanos(), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestAsyncAdmission
+{
+    @Rule
+    public final BlockingTasks blocking = new BlockingTasks();
+
+    private final List<Integer> order = Collections.synchronizedList(Lists.<Integer>newArrayList());
+
+    private ThreadPoolExecutor executor;
+    private MeteredRejectedExecutionHandler rejections;
+    private AsyncExecutorService service;
+
+    @Before
+    public void setUp()
+    {
+        rejections = new MeteredRejectedExecutionHandler("test", new ThreadPoolExecutor.AbortPolicy(), null);
+        executor = blocking.shutDownAfter(new NotifyingLoggingExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1), Executors.defaultThreadFactory(), rejections));
+        service = (AsyncExecutorService) DecoratingExecutors.decorate(executor, CallableWrappers.combine(ImmutableList.<CallableWrapper>of()));
+    }
+
+    @Test
+    public void testWaitsForRoomInOrder() throws Exception
+    {
+        // Fill the pool with tasks from elsewhere, so only the room listeners of the pool find room.
+        executor.execute(blocking.task());
+        executor.execute(blocking.task());
+
+        final List<ListenableFuture<Integer>> futures = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            futures.add(service.submitAsync(new Recorder(i)));
+        }
+        for (ListenableFuture<Integer> future : futures) {
+            assertFalse(future.isDone());
+        }
+
+        blocking.release();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS).intValue());
+        }
+        assertEquals(ImmutableList.of(0, 1, 2, 3, 4), order);
+        assertEquals("waiting is no rejection", 0, rejections.getRejectedCount());
+    }
+
+    @Test
+    public void testCancelledTasksDropOut() throws Exception
+    {
+        final ListenableFuture<Integer> blocker = service.submitAsync(new Callable<Integer>() {
+            @Override
+            public Integer call()
+            {
+                blocking.await();
+                return -1;
+            }
+        });
+        final ListenableFuture<Integer> queued = service.submitAsync(new Recorder(0));
+        final ListenableFuture<Integer> cancelled = service.submitAsync(new Recorder(1));
+        final ListenableFuture<Integer> last = service.submitAsync(new Recorder(2));
+        assertTrue(cancelled.cancel(false));
+
+        blocking.release();
+        assertEquals(-1, blocker.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(0, queued.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(2, last.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(ImmutableList.of(0, 2), order);
+    }
+
+    @Test
+    public void testShutdownFailsWaitingTasks() throws Exception
+    {
+        executor.execute(blocking.task());
+        executor.execute(blocking.task());
+        final ListenableFuture<Integer> waiting = service.submitAsync(new Recorder(0));
+
+        executor.shutdown();
+        try {
+            waiting.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(order.isEmpty());
+    }
+
+    @Test
+    public void testStopsListeningWhenNoTaskWaits() throws Exception
+    {
+        executor.execute(blocking.task());
+        executor.execute(blocking.task());
+        final ListenableFuture<Integer> waiting = service.submitAsync(new Recorder(0));
+
+        blocking.release();
+        assertEquals(0, waiting.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(0, ((NotifyingLoggingExecutor) executor).getRoomListeners().size());
+    }
+
+    @Test
+    public void testExecutorWithoutRoomListenersTakesTasksRightAway() throws Exception
+    {
+        final AsyncExecutorService sameThread = (AsyncExecutorService) DecoratingExecutors.decorate(MoreExecutors.sameThreadExecutor(), CallableWrappers.combine(ImmutableList.<CallableWrapper>of()));
+        assertEquals(0, sameThread.submitAsync(new Recorder(0)).get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(ImmutableList.of(0), order);
+    }
+
+    private class Recorder implements Callable<Integer>
+    {
+        private final int index;
+
+        Recorder(int index)
+        {
+            this.index = index;
+        }
+
+        @Override
+        public Integer call()
+        {
+            order.add(index);
+            return index;
+        }
+    }
+}
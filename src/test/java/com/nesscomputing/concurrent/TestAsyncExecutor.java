@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.config.ConfigModule;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.guice.LifecycleModule;
+import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScope;
+import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScopeModule;
+
+public class TestAsyncExecutor
+{
+    @Inject
+    Lifecycle lifecycle;
+
+    @Inject
+    @Named("test")
+    ExecutorService service;
+
+    @Inject
+    @Named("test")
+    ListeningExecutorService listeningService;
+
+    @Inject
+    @Named("test")
+    AsyncExecutor async;
+
+    @Inject
+    Provider<ScopedObject> scopedProvider;
+
+    @Before
+    public void setUp()
+    {
+        ThreadDelegatedScope.SCOPE.changeScope(null);
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (new ThreadDelegatedScopeModule());
+                install (ConfigModule.forTesting());
+                install (new LifecycleModule());
+                install (new NessThreadPoolModule("test"));
+
+                bind (ScopedObject.class).toProvider(ScopedObject.TestObjectProvider.class).in(ThreadDelegatedScope.SCOPE);
+            }
+        }).injectMembers(this);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+    }
+
+    @After
+    public void tearDown()
+    {
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(service.isTerminated());
+        ThreadDelegatedScope.SCOPE.changeScope(null);
+    }
+
+    @Test
+    public void testListeningServiceIsThePool() throws Exception
+    {
+        assertSame(service, listeningService);
+        final ListenableFuture<ScopedObject> future = listeningService.submit(new ScopedCallable());
+        assertSame(scopedProvider.get(), future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStagesRunInScopeOfCaller() throws Exception
+    {
+        final ScopedObject scoped = scopedProvider.get();
+        final SettableFuture<String> input = SettableFuture.create();
+
+        final ListenableFuture<ScopedObject> applied = async.thenApplyAsync(input, new Function<String, ScopedObject>() {
+            @Override
+            public ScopedObject apply(String value)
+            {
+                assertEquals("done", value);
+                return scopedProvider.get();
+            }
+        });
+        final ListenableFuture<ScopedObject> composed = async.thenComposeAsync(applied, new AsyncFunction<ScopedObject, ScopedObject>() {
+            @Override
+            public ListenableFuture<ScopedObject> apply(ScopedObject value)
+            {
+                return async.supplyAsync(new ScopedCallable());
+            }
+        });
+
+        // Completed from a thread outside of the scope.
+        final Thread completer = new Thread() {
+            @Override
+            public void run()
+            {
+                input.set("done");
+            }
+        };
+        completer.start();
+        completer.join();
+
+        assertSame(scoped, applied.get(10, TimeUnit.SECONDS));
+        assertSame(scoped, composed.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailurePassesThroughStages() throws Exception
+    {
+        final SettableFuture<String> input = SettableFuture.create();
+        final AtomicReference<Throwable> seen = new AtomicReference<Throwable>();
+        final ListenableFuture<String> observed = async.whenCompleteAsync(input, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String result)
+            {
+                fail();
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                seen.set(t);
+            }
+        });
+        final ListenableFuture<Integer> applied = async.thenApplyAsync(observed, new Function<String, Integer>() {
+            @Override
+            public Integer apply(String value)
+            {
+                fail();
+                return null;
+            }
+        });
+
+        final IllegalStateException failure = new IllegalStateException();
+        input.setException(failure);
+        try {
+            applied.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertSame(failure, seen.get());
+        try {
+            observed.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    private class ScopedCallable implements Callable<ScopedObject>
+    {
+        @Override
+        public ScopedObject call()
+        {
+            return scopedProvider.get();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+
+public class TestBatchSubmission
+{
+    @Rule
+    public final BlockingTasks blocking = new BlockingTasks();
+
+    private final AtomicInteger wrapped = new AtomicInteger();
+    private ThreadPoolExecutor executor;
+
+    @Test
+    public void testSubmitAllQueuesWholeBatch() throws Exception
+    {
+        executor = blocking.shutDownAfter(new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES, QueueType.RING_BUFFER.createQueue(64)));
+        final BatchingExecutorService service = decorate(executor);
+        blocking.block(service, 2);
+
+        final List<Callable<Integer>> tasks = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(new ValueTask(i));
+        }
+        final List<ListenableFuture<Integer>> futures = service.submitAll(tasks);
+        assertEquals(10, executor.getQueue().size());
+
+        blocking.release();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(12, wrapped.get());
+    }
+
+    @Test
+    public void testBatchKeepsPriorities() throws Exception
+    {
+        executor = blocking.shutDownAfter(new PriorityThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, QueueType.PRIORITY.createQueue(16), Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy()));
+        final BatchingExecutorService service = decorate(executor);
+        blocking.block(service, 1);
+
+        final List<Integer> order = Collections.synchronizedList(Lists.<Integer>newArrayList());
+        final List<Runnable> tasks = Lists.newArrayList();
+        for (final int priority : new int[] {1, 5, -1, 3}) {
+            tasks.add(PrioritizedTasks.withPriority(new Runnable() {
+                @Override
+                public void run()
+                {
+                    order.add(priority);
+                }
+            }, priority));
+        }
+        service.executeBatch(tasks);
+
+        blocking.release();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(5, 3, 1, -1), order);
+    }
+
+    @Test
+    public void testOverflowIsExecutedOneByOne() throws Exception
+    {
+        executor = blocking.shutDownAfter(new ThreadPoolExecutor(1, 3, 1, TimeUnit.MINUTES, QueueType.RING_BUFFER.createQueue(2)));
+        final BatchingExecutorService service = decorate(executor);
+        blocking.block(service, 1);
+
+        final List<Callable<Integer>> tasks = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            final int value = i;
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call()
+                {
+                    blocking.await();
+                    return value;
+                }
+            });
+        }
+        final List<ListenableFuture<Integer>> futures = service.submitAll(tasks);
+        // Two fit the queue, the other two start threads of their own.
+        assertEquals(3, executor.getPoolSize());
+
+        blocking.release();
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testInvokeAllWaitsForEveryTask() throws Exception
+    {
+        executor = blocking.shutDownAfter(new ThreadPoolExecutor(4, 4, 1, TimeUnit.MINUTES, QueueType.RING_BUFFER.createQueue(64)));
+        executor.prestartAllCoreThreads();
+        final BatchingExecutorService service = decorate(executor);
+
+        final List<Callable<Integer>> tasks = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            tasks.add(new ValueTask(i));
+        }
+        final List<Future<Integer>> futures = service.invokeAll(tasks);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(futures.get(i).isDone());
+            assertEquals(Integer.valueOf(i), futures.get(i).get());
+        }
+        assertEquals(50, wrapped.get());
+    }
+
+    @Test
+    public void testPoolAndDecorationSubmitTheSameTasks() throws Exception
+    {
+        executor = blocking.shutDownAfter(new PriorityThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, QueueType.PRIORITY.createQueue(16), Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy()));
+        final BatchingExecutorService service = decorate(executor);
+        blocking.block(service, 1);
+
+        final Callable<Integer> task = PrioritizedTasks.withPriority(new ValueTask(1), 7);
+        final Future<Integer> direct = executor.submit(task);
+        final Future<Integer> decorated = service.submit(task);
+        assertTrue(direct instanceof BatchTask);
+        assertTrue(decorated instanceof BatchTask);
+        assertEquals(7, ((Prioritized) direct).getPriority());
+        assertEquals(7, ((Prioritized) decorated).getPriority());
+
+        blocking.release();
+        assertEquals(Integer.valueOf(1), direct.get(10, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), decorated.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExecutedFailureKeepsTheWorker() throws Exception
+    {
+        executor = blocking.shutDownAfter(new PriorityThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, QueueType.PRIORITY.createQueue(16), Executors.defaultThreadFactory(), new ThreadPoolExecutor.AbortPolicy()));
+        final BatchingExecutorService service = decorate(executor);
+        blocking.block(service, 1);
+
+        final List<Integer> order = Collections.synchronizedList(Lists.<Integer>newArrayList());
+        final List<Thread> threads = Collections.synchronizedList(Lists.<Thread>newArrayList());
+        for (final int priority : new int[] {1, 5, 3}) {
+            executor.execute(PrioritizedTasks.withPriority(new Runnable() {
+                @Override
+                public void run()
+                {
+                    order.add(priority);
+                    threads.add(Thread.currentThread());
+                    throw new IllegalStateException("expected");
+                }
+            }, priority));
+        }
+
+        blocking.release();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(5, 3, 1), order);
+        // The worker survived every failure.
+        assertEquals(1, ImmutableSet.copyOf(threads).size());
+        assertEquals(4, executor.getCompletedTaskCount());
+    }
+
+    private BatchingExecutorService decorate(ThreadPoolExecutor pool)
+    {
+        return (BatchingExecutorService) DecoratingExecutors.decorate(pool, new CallableWrapper() {
+            @Override
+            public <T> Callable<T> wrap(Callable<T> callable)
+            {
+                wrapped.incrementAndGet();
+                return callable;
+            }
+        });
+    }
+
+    private static class ValueTask implements Callable<Integer>
+    {
+        private final int value;
+
+        ValueTask(int value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public Integer call()
+        {
+            return value;
+        }
+    }
+}
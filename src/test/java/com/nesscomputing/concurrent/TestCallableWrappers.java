@@ -0,0 +1,338 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+
+public class TestCallableWrappers
+{
+    private final List<String> events = Lists.newArrayList();
+
+    @Test
+    public void testFusedOrderMatchesNesting() throws Exception
+    {
+        final CallableWrapper combined = CallableWrappers.combine(ImmutableList.<CallableWrapper>of(new RecordingWrapper("a"), new RecordingWrapper("b")));
+
+        final Callable<String> wrapped = combined.wrap(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                events.add("call");
+                return "result";
+            }
+        });
+
+        assertEquals(ImmutableList.of("capture a", "capture b"), events);
+        assertEquals("result", wrapped.call());
+        assertEquals(ImmutableList.of("capture a", "capture b", "before b", "before a", "call", "after a", "after b"), events);
+    }
+
+    @Test
+    public void testFusedRunnableIsSingleTask()
+    {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run()
+            {
+                events.add("run");
+            }
+        };
+
+        final CallableWrapper combined = CallableWrappers.combine(ImmutableList.<CallableWrapper>of(new RecordingWrapper("a"), new RecordingWrapper("b")));
+        final Runnable fused = combined.wrap(task);
+        final Runnable single = new RecordingWrapper("c").wrap(task);
+
+        // One fused task object, no matter how many wrappers participate.
+        assertSame(fused.getClass(), single.getClass());
+
+        fused.run();
+        assertEquals(ImmutableList.of("capture a", "capture b", "capture c", "before b", "before a", "run", "after a", "after b"), events);
+    }
+
+    @Test
+    public void testFailureReachesAfterHooks() throws Exception
+    {
+        final IllegalStateException exc = new IllegalStateException();
+        final CallableWrapper combined = CallableWrappers.combine(ImmutableList.<CallableWrapper>of(new RecordingWrapper("a"), new RecordingWrapper("b")));
+
+        try {
+            combined.wrap(new Callable<Void>() {
+                @Override
+                public Void call()
+                {
+                    throw exc;
+                }
+            }).call();
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(exc, e);
+        }
+
+        assertEquals(ImmutableList.of("capture a", "capture b", "before b", "before a", "failed a", "failed b"), events);
+    }
+
+    @Test
+    public void testLongFusedChainKeepsEveryState() throws Exception
+    {
+        final List<CallableWrapper> wrappers = Lists.newArrayList();
+        for (String name : ImmutableList.of("a", "b", "c", "d", "e")) {
+            wrappers.add(new RecordingWrapper(name));
+        }
+        final Runnable fused = CallableWrappers.combine(wrappers).wrap(new Runnable() {
+            @Override
+            public void run()
+            {
+                events.add("run");
+            }
+        });
+
+        fused.run();
+        assertEquals(ImmutableList.of("capture a", "capture b", "capture c", "capture d", "capture e",
+                                      "before e", "before d", "before c", "before b", "before a", "run",
+                                      "after a", "after b", "after c", "after d", "after e"), events);
+    }
+
+    @Test
+    public void testRefusedRunnableReachesOuterAfterHooks() throws Exception
+    {
+        final RejectedExecutionException refusal = new RejectedExecutionException("refused");
+        final FusibleCallableWrapper refusing = new FusibleCallableWrapper() {
+            @Override
+            protected Object capture()
+            {
+                return null;
+            }
+
+            @Override
+            protected Object before(Object captured, long submitNanos)
+            {
+                throw refusal;
+            }
+
+            @Override
+            protected void after(Object captured, Object beforeState, long submitNanos, Throwable failure)
+            {
+                fail();
+            }
+        };
+        final BatchTask<String> future = new BatchTask<String>(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                events.add("call");
+                return "result";
+            }
+        }, 0);
+
+        // Does not throw through the worker, the future fails instead.
+        CallableWrappers.combine(ImmutableList.<CallableWrapper>of(refusing, new RecordingWrapper("b"), new RecordingWrapper("c"))).wrap(future).run();
+        assertEquals(ImmutableList.of("capture b", "capture c", "before c", "before b", "failed b", "failed c"), events);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(refusal, e.getCause());
+        }
+    }
+
+    @Test
+    public void testMixedWrappers() throws Exception
+    {
+        final CallableWrapper plain = new CallableWrapper() {
+            @Override
+            public <T> Callable<T> wrap(final Callable<T> callable)
+            {
+                return new Callable<T>() {
+                    @Override
+                    public T call() throws Exception
+                    {
+                        events.add("plain");
+                        return callable.call();
+                    }
+                };
+            }
+        };
+
+        final Callable<Object> task = new Callable<Object>() {
+            @Override
+            public Object call()
+            {
+                events.add("call");
+                return null;
+            }
+        };
+
+        final Callable<Object> wrapped = CallableWrappers.combine(ImmutableList.of(new RecordingWrapper("a"), plain, new RecordingWrapper("b"))).wrap(task);
+        assertNotSame(task, wrapped);
+
+        wrapped.call();
+        assertEquals(ImmutableList.of("capture a", "capture b", "before b", "plain", "before a", "call", "after a", "after b"), events);
+    }
+
+    @Test
+    public void testPrioritySurvivesWrapping()
+    {
+        final CallableWrapper plain = new CallableWrapper() {
+            @Override
+            public <T> Callable<T> wrap(final Callable<T> callable)
+            {
+                return new Callable<T>() {
+                    @Override
+                    public T call() throws Exception
+                    {
+                        return callable.call();
+                    }
+                };
+            }
+        };
+
+        final List<Runnable> executed = Lists.newArrayList();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command)
+            {
+                executed.add(command);
+            }
+        };
+
+        final Runnable task = PrioritizedTasks.withPriority(new Runnable() {
+            @Override
+            public void run()
+            {
+            }
+        }, 7);
+
+        DecoratingExecutors.decorate(executor, CallableWrappers.combine(ImmutableList.<CallableWrapper>of(new RecordingWrapper("a"), new RecordingWrapper("b")))).execute(task);
+        DecoratingExecutors.decorate(executor, plain).execute(task);
+        DecoratingExecutors.decorate(executor, CallableWrappers.combine(ImmutableList.of(new RecordingWrapper("a"), plain))).execute(task);
+
+        assertEquals(3, executed.size());
+        for (Runnable runnable : executed) {
+            assertNotSame(task, runnable);
+            assertEquals(7, PrioritizedTasks.priorityOf(runnable));
+        }
+    }
+
+    @Test
+    public void testReentrantRunsKeepTheirOwnState() throws Exception
+    {
+        final List<Object> afterStates = Lists.newArrayList();
+        final FusibleCallableWrapper counting = new FusibleCallableWrapper() {
+            private int invocations = 0;
+
+            @Override
+            protected Object capture()
+            {
+                return null;
+            }
+
+            @Override
+            protected Object before(Object captured, long submitNanos)
+            {
+                return ++invocations;
+            }
+
+            @Override
+            protected void after(Object captured, Object beforeState, long submitNanos, Throwable failure)
+            {
+                afterStates.add(beforeState);
+            }
+        };
+
+        final Callable<?>[] self = new Callable<?>[1];
+        self[0] = counting.wrap(new Callable<Object>() {
+            private boolean nested = false;
+
+            @Override
+            public Object call() throws Exception
+            {
+                if (!nested) {
+                    nested = true;
+                    self[0].call();
+                }
+                return null;
+            }
+        });
+
+        self[0].call();
+        assertEquals(ImmutableList.<Object>of(2, 1), afterStates);
+    }
+
+    @Test
+    public void testWrappedCallableRuns()
+    {
+        final Callable<String> wrapped = new RecordingWrapper("a").wrap(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                events.add("call");
+                return "result";
+            }
+        });
+
+        ((Runnable) wrapped).run();
+        assertEquals(ImmutableList.of("capture a", "before a", "call", "after a"), events);
+    }
+
+    private class RecordingWrapper extends FusibleCallableWrapper
+    {
+        private final String name;
+
+        RecordingWrapper(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        protected Object capture()
+        {
+            events.add("capture " + name);
+            return name;
+        }
+
+        @Override
+        protected Object before(Object captured, long submitNanos)
+        {
+            assertEquals(name, captured);
+            events.add("before " + name);
+            return name + "-state";
+        }
+
+        @Override
+        protected void after(Object captured, Object beforeState, long submitNanos, Throwable failure)
+        {
+            assertEquals(name, captured);
+            assertEquals(name + "-state", beforeState);
+            events.add((failure == null ? "after " : "failed ") + name);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestConcurrencyLimiter
+{
+    @Rule
+    public final BlockingTasks blocking = new BlockingTasks();
+
+    private final ThreadPoolExecutor shared = blocking.shutDownAfter(new ThreadPoolExecutor(4, 4, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>()));
+
+    @Test
+    public void testLimitsTasksInFlight() throws Exception
+    {
+        final ExecutorService view = NessExecutors.limitConcurrency(shared, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        final List<Future<Integer>> futures = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            final int value = i;
+            futures.add(view.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception
+                {
+                    final int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.sleep(1);
+                    running.decrementAndGet();
+                    return value;
+                }
+            }));
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.valueOf(i), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void testOtherCallersAreNotStarved() throws Exception
+    {
+        final ExecutorService view = NessExecutors.limitConcurrency(shared, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        for (int i = 0; i < 20; i++) {
+            view.execute(blocking.task(started));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // The heavy caller holds one thread and nothing of the shared queue.
+        assertEquals(0, shared.getQueue().size());
+        assertEquals("done", shared.submit(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                return "done";
+            }
+        }).get(10, TimeUnit.SECONDS));
+        assertFalse(view.isTerminated());
+    }
+
+    @Test
+    public void testShutdown() throws Exception
+    {
+        final ExecutorService view = NessExecutors.limitConcurrency(shared, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            view.execute(blocking.task(started));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertEquals(2, view.shutdownNow().size());
+        assertTrue(view.isShutdown());
+        assertFalse(view.awaitTermination(10, TimeUnit.MILLISECONDS));
+
+        blocking.release();
+        assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+        assertFalse(shared.isShutdown());
+    }
+
+    @Test
+    public void testDecoratedPoolWrapsOnCallerThread() throws Exception
+    {
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger wrapped = new AtomicInteger();
+        final ExecutorService decorated = DecoratingExecutors.decorate(shared, new CallableWrapper() {
+            @Override
+            public <T> Callable<T> wrap(Callable<T> callable)
+            {
+                assertSame(caller, Thread.currentThread());
+                wrapped.incrementAndGet();
+                return callable;
+            }
+        });
+        final ExecutorService view = NessExecutors.limitConcurrency(decorated, 1);
+
+        final List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            futures.add(view.submit(new Runnable() {
+                @Override
+                public void run()
+                {
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(10, wrapped.get());
+    }
+
+    @Test
+    public void testCallerRunsPoolDoesNotNest() throws Exception
+    {
+        final ThreadPoolExecutor pool = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy()));
+        final ExecutorService view = NessExecutors.limitConcurrency(pool, 1);
+        blocking.block(view, 1);
+
+        // Waiting tasks run inline on the pool thread once the first one finishes, one after the other.
+        final AtomicInteger minDepth = new AtomicInteger(Integer.MAX_VALUE);
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < 500; i++) {
+            futures.add(view.submit(new Runnable() {
+                @Override
+                public void run()
+                {
+                    final int depth = Thread.currentThread().getStackTrace().length;
+                    minDepth.set(Math.min(minDepth.get(), depth));
+                    maxDepth.set(Math.max(maxDepth.get(), depth));
+                }
+            }));
+        }
+        blocking.release();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(maxDepth.get() - minDepth.get() < 20);
+    }
+
+    @Test
+    public void testRejectionThrownByInlineTaskIsNotRequeued() throws Exception
+    {
+        final ThreadPoolExecutor pool = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy()));
+        pool.execute(blocking.task());
+
+        final ExecutorService view = NessExecutors.limitConcurrency(pool, 2);
+        final AtomicInteger runs = new AtomicInteger();
+        try {
+            view.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    runs.incrementAndGet();
+                    throw new RejectedExecutionException("thrown by the task");
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals("thrown by the task", e.getMessage());
+        }
+        assertEquals(1, runs.get());
+
+        // Neither queued again nor holding a permit.
+        view.shutdown();
+        assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testRejectedTasksWaitInTheView() throws Exception
+    {
+        final ThreadPoolExecutor pool = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(1)));
+        final ExecutorService view = NessExecutors.limitConcurrency(pool, 3);
+        blocking.block(view, 1);
+
+        final Thread caller = Thread.currentThread();
+        final Callable<Thread> whichThread = new Callable<Thread>() {
+            @Override
+            public Thread call()
+            {
+                return Thread.currentThread();
+            }
+        };
+        // The first one fills the pool queue, the pool rejects the second one.
+        final Future<Thread> queued = view.submit(whichThread);
+        final Future<Thread> rejected = view.submit(whichThread);
+        assertFalse(rejected.isDone());
+
+        blocking.release();
+        assertNotSame(caller, queued.get(10, TimeUnit.SECONDS));
+        assertNotSame(caller, rejected.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSharedPoolShutdownFailsWaitingTasks() throws Exception
+    {
+        final ThreadPoolExecutor pool = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(1)));
+        final ExecutorService view = NessExecutors.limitConcurrency(pool, 2);
+        blocking.block(view, 1);
+
+        final Future<String> queued = view.submit(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                return "done";
+            }
+        });
+        final Future<String> waiting = view.submit(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                return "never";
+            }
+        });
+        pool.shutdown();
+        blocking.release();
+
+        assertEquals("done", queued.get(10, TimeUnit.SECONDS));
+        try {
+            waiting.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void testDroppedWorkerFailsItsTaskAndHandsThePermitOn() throws Exception
+    {
+        final ThreadPoolExecutor pool = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(1)));
+        blocking.block(pool, 1);
+
+        final ExecutorService view = NessExecutors.limitConcurrency(pool, 1);
+        final Future<String> dropped = view.submit(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                return "never";
+            }
+        });
+        final Future<String> next = view.submit(new Callable<String>() {
+            @Override
+            public String call()
+            {
+                return "done";
+            }
+        });
+
+        // Drop the worker from the shared queue, as an adaptive queue would.
+        final Runnable worker = pool.getQueue().poll();
+        assertTrue(RejectableTasks.reject(worker, new RejectedExecutionException("dropped")));
+        try {
+            dropped.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals("dropped", e.getCause().getMessage());
+        }
+
+        // Running a dropped worker does nothing.
+        worker.run();
+        blocking.release();
+        assertEquals("done", next.get(10, TimeUnit.SECONDS));
+        view.shutdown();
+        assertTrue(view.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
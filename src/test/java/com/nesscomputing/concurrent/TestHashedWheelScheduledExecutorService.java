@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+public class TestHashedWheelScheduledExecutorService
+{
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    @Test
+    public void testTasksFireNoEarlierThanTheirDelay() throws Exception
+    {
+        // With a 100 microsecond tick these delays land on the first three levels of the wheel.
+        try (ShutdownScheduledExecutorService service = NessExecutors.autoShutdown(NessExecutors.hashedWheelScheduler("test", 100, TimeUnit.MICROSECONDS))) {
+            final List<ScheduledFuture<Long>> futures = Lists.newArrayList();
+            for (final long delayMillis : new long[] { 0, 3, 50, 500 }) {
+                final long scheduledNanos = System.nanoTime();
+                futures.add(service.schedule(new Callable<Long>() {
+                    @Override
+                    public Long call()
+                    {
+                        return System.nanoTime() - scheduledNanos;
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS));
+            }
+
+            final long[] delays = new long[] { 0, 3, 50, 500 };
+            for (int i = 0; i < delays.length; i++) {
+                final long elapsedNanos = futures.get(i).get(10, TimeUnit.SECONDS);
+                assertTrue("task " + i + " fired early", elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(delays[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testHugeDelaysDoNotOverflow() throws Exception
+    {
+        try (ShutdownScheduledExecutorService service = NessExecutors.autoShutdown(NessExecutors.hashedWheelScheduler("test", 1, TimeUnit.MILLISECONDS))) {
+            final AtomicInteger runs = new AtomicInteger();
+            final Runnable counting = new Runnable() {
+                @Override
+                public void run()
+                {
+                    runs.incrementAndGet();
+                }
+            };
+            final List<ScheduledFuture<?>> futures = Lists.newArrayList();
+            futures.add(service.schedule(counting, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+            futures.add(service.schedule(counting, Long.MAX_VALUE, TimeUnit.DAYS));
+            futures.add(service.scheduleAtFixedRate(counting, Long.MAX_VALUE, Long.MAX_VALUE, TimeUnit.MILLISECONDS));
+
+            Thread.sleep(50);
+            assertEquals(0, runs.get());
+            for (ScheduledFuture<?> future : futures) {
+                assertTrue(future.getDelay(TimeUnit.DAYS) > 365 * 100);
+            }
+        }
+    }
+
+    @Test
+    public void testCancelledTasksDoNotRun() throws Exception
+    {
+        final HashedWheelScheduledExecutorService wheel = NessExecutors.hashedWheelScheduler("test", 1, TimeUnit.MILLISECONDS);
+        try (ShutdownScheduledExecutorService service = NessExecutors.autoShutdown(wheel)) {
+            final AtomicInteger runs = new AtomicInteger();
+            final Runnable task = new Runnable() {
+                @Override
+                public void run()
+                {
+                    runs.incrementAndGet();
+                }
+            };
+
+            final List<ScheduledFuture<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < 1000; i++) {
+                futures.add(service.schedule(task, 20 + i % 100, TimeUnit.MILLISECONDS));
+            }
+            for (ScheduledFuture<?> future : futures) {
+                assertTrue(future.cancel(false));
+            }
+
+            final ScheduledFuture<?> last = service.schedule(task, 150, TimeUnit.MILLISECONDS);
+            last.get(10, TimeUnit.SECONDS);
+            assertEquals(1, runs.get());
+
+            // The count is published at the end of the tick that ran the last task.
+            for (int i = 0; i < 100 && wheel.getPendingCount() != 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, wheel.getPendingCount());
+        }
+    }
+
+    @Test
+    public void testPeriodicTasks() throws Exception
+    {
+        final ExecutorService taskExecutor = Executors.newSingleThreadExecutor();
+        try (ShutdownScheduledExecutorService service = NessExecutors.autoShutdown(NessExecutors.hashedWheelScheduler("test", 1, TimeUnit.MILLISECONDS, taskExecutor))) {
+            final CountDownLatch fixedRate = new CountDownLatch(5);
+            final CountDownLatch fixedDelay = new CountDownLatch(5);
+            final ScheduledFuture<?> rateFuture = service.scheduleAtFixedRate(countDown(fixedRate), 0, 5, TimeUnit.MILLISECONDS);
+            final ScheduledFuture<?> delayFuture = service.scheduleWithFixedDelay(countDown(fixedDelay), 0, 5, TimeUnit.MILLISECONDS);
+
+            assertTrue(fixedRate.await(10, TimeUnit.SECONDS));
+            assertTrue(fixedDelay.await(10, TimeUnit.SECONDS));
+            assertTrue(rateFuture.cancel(false));
+            assertTrue(delayFuture.cancel(false));
+            assertTrue(rateFuture.isDone());
+        }
+        finally {
+            taskExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownCancelsPendingTasks() throws Exception
+    {
+        final HashedWheelScheduledExecutorService service = NessExecutors.hashedWheelScheduler("test", 1, TimeUnit.MILLISECONDS);
+        final ScheduledFuture<?> future = service.schedule(NOOP, 1, TimeUnit.HOURS);
+
+        final List<Runnable> unfired = service.shutdownNow();
+        assertTrue(service.isTerminated());
+        assertEquals(1, unfired.size());
+        assertTrue(future.isCancelled());
+
+        try {
+            service.schedule(NOOP, 1, TimeUnit.MILLISECONDS);
+            fail("must reject tasks after shutdown");
+        }
+        catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertTrue(service.awaitTermination(0, TimeUnit.SECONDS));
+    }
+
+    private static Runnable countDown(final CountDownLatch latch)
+    {
+        return new Runnable() {
+            @Override
+            public void run()
+            {
+                latch.countDown();
+            }
+        };
+    }
+}
@@ -16,17 +16,25 @@
 package com.nesscomputing.concurrent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 
 import org.junit.After;
@@ -116,6 +124,102 @@ public class TestInvokeExplosively
         }
     }
 
+    @Test
+    public void testStreamingBoundsTasksInFlight() throws Exception
+    {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger taken = new AtomicInteger();
+
+        final Iterator<Callable<Integer>> tasks = new AbstractIterator<Callable<Integer>>() {
+            @Override
+            protected Callable<Integer> computeNext()
+            {
+                final int value = taken.getAndIncrement();
+                if (value == 100) {
+                    return endOfData();
+                }
+                return new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception
+                    {
+                        final int now = running.incrementAndGet();
+                        while (true) {
+                            final int max = maxRunning.get();
+                            if (now <= max || maxRunning.compareAndSet(max, now)) {
+                                break;
+                            }
+                        }
+                        Thread.sleep(1);
+                        running.decrementAndGet();
+                        return value;
+                    }
+                };
+            }
+        };
+
+        final Set<Integer> results = Sets.newHashSet();
+        assertTrue(NessExecutors.invokeAllExplosively(executor, tasks, 4, new CompletionListener<Integer>() {
+            @Override
+            public void onCompletion(Future<Integer> future)
+            {
+                assertTrue(future.isDone());
+                results.add(Futures.getUnchecked(future));
+            }
+        }));
+
+        assertEquals(100, results.size());
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testStreamingDeliversInCompletionOrderAndFailsFast() throws Exception
+    {
+        final Exception exc = new IllegalStateException();
+        final SettableFuture<String> first = SettableFuture.create();
+        final SettableFuture<String> second = SettableFuture.create();
+        final SettableFuture<String> never = SettableFuture.create();
+
+        final List<Callable<String>> tasks = Lists.newArrayList();
+        tasks.add(new FutureCallable<>(second));
+        tasks.add(new FutureCallable<>(first));
+        tasks.add(new FutureCallable<>(never));
+        tasks.add(new Callable<String>() {
+            @Override
+            public String call() throws Exception
+            {
+                first.set("first");
+                Thread.sleep(100);
+                second.setException(exc);
+                return "trigger";
+            }
+        });
+        // More than can be submitted before the failure is seen.
+        for (int i = 0; i < 3; i++) {
+            tasks.add(new FutureCallable<>(never));
+        }
+        final Iterator<Callable<String>> iterator = tasks.iterator();
+
+        final List<Future<String>> completed = Lists.newArrayList();
+        assertFalse(NessExecutors.invokeAllExplosively(executor, iterator, 4, new CompletionListener<String>() {
+            @Override
+            public void onCompletion(Future<String> future)
+            {
+                completed.add(future);
+            }
+        }));
+
+        assertTrue(iterator.hasNext());
+        assertEquals("first", completed.get(0).get());
+        final Future<String> last = completed.get(completed.size() - 1);
+        try {
+            last.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(exc, e.getCause());
+        }
+    }
+
     @SafeVarargs
     private static <T> List<Callable<T>> tasksFor(Callable<T> runner, Future<T>... futures)
     {
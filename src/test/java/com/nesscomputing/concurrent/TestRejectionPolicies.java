@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.AbstractModule;
+import com.google.inject.CreationException;
+import com.google.inject.Guice;
+import com.google.inject.Provider;
+
+import org.junit.Test;
+
+import com.nesscomputing.config.ConfigModule;
+import com.nesscomputing.lifecycle.guice.LifecycleModule;
+
+public class TestRejectionPolicies
+{
+    @Test
+    public void testBlockWithTimeoutWaitsForRoom() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MeteredRejectedExecutionHandler handler = new MeteredRejectedExecutionHandler("test", RejectionPolicies.blockWithTimeout(10, TimeUnit.SECONDS), null);
+        final ThreadPoolExecutor executor = createSaturatedPool(handler, release);
+        try {
+            final AtomicInteger ran = new AtomicInteger();
+            final Thread releaser = new Thread() {
+                @Override
+                public void run()
+                {
+                    Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+                    release.countDown();
+                }
+            };
+            releaser.start();
+            executor.execute(new CountingTask(ran));
+            releaser.join();
+
+            assertEquals(1, handler.getRejectedCount());
+            assertEquals(0, handler.getAbortedCount());
+            assertTrue(handler.getRejectionTimeMillis() >= 40);
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(1, ran.get());
+        }
+        finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBlockWithTimeoutGivesUp() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final MeteredRejectedExecutionHandler handler = new MeteredRejectedExecutionHandler("test", RejectionPolicies.blockWithTimeout(20, TimeUnit.MILLISECONDS), null);
+        final ThreadPoolExecutor executor = createSaturatedPool(handler, release);
+        try {
+            executor.execute(new CountingTask(new AtomicInteger()));
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, handler.getRejectedCount());
+            assertEquals(1, handler.getAbortedCount());
+        }
+        finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCallerRunsWithLimit() throws Exception
+    {
+        final RejectedExecutionHandler handler = RejectionPolicies.callerRunsWithLimit(1);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        final AtomicInteger ran = new AtomicInteger();
+        try {
+            // While one rejected task runs on a caller, the next one is rejected.
+            handler.rejectedExecution(new Runnable() {
+                @Override
+                public void run()
+                {
+                    ran.incrementAndGet();
+                    try {
+                        handler.rejectedExecution(new CountingTask(ran), executor);
+                        fail();
+                    } catch (RejectedExecutionException e) {
+                        // expected
+                    }
+                }
+            }, executor);
+            assertEquals(1, ran.get());
+
+            handler.rejectedExecution(new CountingTask(ran), executor);
+            assertEquals(2, ran.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFallback() throws Exception
+    {
+        final AtomicInteger ran = new AtomicInteger();
+        final RejectedExecutionHandler handler = RejectionPolicies.fallbackTo("same-thread", new Provider<Executor>() {
+            @Override
+            public Executor get()
+            {
+                return MoreExecutors.sameThreadExecutor();
+            }
+        });
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        handler.rejectedExecution(new CountingTask(ran), executor);
+        assertEquals(1, ran.get());
+
+        executor.shutdown();
+        try {
+            handler.rejectedExecution(new CountingTask(ran), executor);
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, ran.get());
+        }
+    }
+
+    @Test
+    public void testFallbackSkipsTheDecorationOfTheFallbackPool() throws Exception
+    {
+        final AtomicInteger ran = new AtomicInteger();
+        final AtomicInteger wrapped = new AtomicInteger();
+        final ExecutorService decorated = DecoratingExecutors.decorate(MoreExecutors.sameThreadExecutor(), new CallableWrapper() {
+            @Override
+            public <T> Callable<T> wrap(Callable<T> callable)
+            {
+                wrapped.incrementAndGet();
+                return callable;
+            }
+        });
+        final RejectedExecutionHandler handler = RejectionPolicies.fallbackTo("decorated", new Provider<Executor>() {
+            @Override
+            public Executor get()
+            {
+                return decorated;
+            }
+        });
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        try {
+            // Decorated by the rejecting pool already, so not timed or counted a second time.
+            handler.rejectedExecution(new CountingTask(ran), executor);
+            assertEquals(1, ran.get());
+            assertEquals(0, wrapped.get());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = CreationException.class)
+    public void testFallbackCycleIsRejected()
+    {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (ConfigModule.forTesting("ness.thread-pool.first.rejected-handler", "FALLBACK",
+                                                 "ness.thread-pool.first.rejected-fallback-pool", "second",
+                                                 "ness.thread-pool.second.rejected-handler", "FALLBACK",
+                                                 "ness.thread-pool.second.rejected-fallback-pool", "first"));
+                install (new LifecycleModule());
+                install (NessThreadPoolModule.defaultPool("first"));
+                install (NessThreadPoolModule.defaultPool("second"));
+            }
+        });
+    }
+
+    /**
+     * A pool with one thread and a queue of one, both taken by tasks that wait for the latch.
+     */
+    private static ThreadPoolExecutor createSaturatedPool(RejectedExecutionHandler handler, final CountDownLatch release) throws InterruptedException
+    {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1), handler);
+        final CountDownLatch started = new CountDownLatch(1);
+        final Runnable blocker = new Runnable() {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+        };
+        executor.execute(blocker);
+        executor.execute(blocker);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        return executor;
+    }
+
+    private static class CountingTask implements Runnable
+    {
+        private final AtomicInteger counter;
+
+        CountingTask(AtomicInteger counter)
+        {
+            this.counter = counter;
+        }
+
+        @Override
+        public void run()
+        {
+            counter.incrementAndGet();
+        }
+    }
+}
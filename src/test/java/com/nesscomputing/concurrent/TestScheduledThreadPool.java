@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.CreationException;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nesscomputing.config.ConfigModule;
+import com.nesscomputing.lifecycle.Lifecycle;
+import com.nesscomputing.lifecycle.LifecycleStage;
+import com.nesscomputing.lifecycle.guice.LifecycleModule;
+import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScope;
+import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScopeModule;
+
+public class TestScheduledThreadPool
+{
+    @Inject
+    Lifecycle lifecycle;
+
+    @Inject
+    @Named("scheduled")
+    ScheduledExecutorService service;
+
+    @Inject
+    @Named("delegated")
+    Provider<Object> scopedProvider;
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    @Before
+    public void setUp()
+    {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (new ThreadDelegatedScopeModule());
+                install (ConfigModule.forTesting());
+                install (new LifecycleModule());
+                install (NessScheduledThreadPoolModule.scheduledPool("scheduled", 2));
+
+                bind (MetricsRegistry.class).toInstance(registry);
+
+                bind (Object.class).annotatedWith(Names.named("delegated")).toProvider(new Provider<Object>() {
+                    @Override
+                    public Object get()
+                    {
+                        return new Object();
+                    }
+                }).in(ThreadDelegatedScope.SCOPE);
+            }
+        }).injectMembers(this);
+
+        lifecycle.executeTo(LifecycleStage.START_STAGE);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (!service.isShutdown()) {
+            lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        }
+    }
+
+    @Test
+    public void testScheduledTaskIsDecorated() throws Exception
+    {
+        final Thread currentThread = Thread.currentThread();
+        final Object threadDelegatedObject = scopedProvider.get();
+
+        ScheduledFuture<Boolean> future = service.schedule(new Callable<Boolean>() {
+            @Override
+            public Boolean call()
+            {
+                assertTrue(threadDelegatedObject == scopedProvider.get());
+                return currentThread == Thread.currentThread();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        assertFalse("must not be on same thread", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPeriodicTaskReportsScheduleLag() throws Exception
+    {
+        final Object threadDelegatedObject = scopedProvider.get();
+        // Runs never overlap, so once the sixth run has started the first five have been recorded.
+        final CountDownLatch runs = new CountDownLatch(6);
+        ScheduledFuture<?> future = service.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (threadDelegatedObject == scopedProvider.get()) {
+                    runs.countDown();
+                }
+            }
+        }, 0, 5, TimeUnit.MILLISECONDS);
+
+        assertTrue(runs.await(10, TimeUnit.SECONDS));
+        future.cancel(false);
+
+        assertTrue(registry.newTimer(TimedExecutors.class, "scheduled.schedule-lag").count() >= 5);
+        assertTrue(registry.newTimer(TimedExecutors.class, "scheduled.total-duration").count() >= 5);
+    }
+
+    @Test
+    public void testStopDropsDelayedTasks() throws Exception
+    {
+        service.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+            }
+        }, 1, TimeUnit.HOURS);
+
+        lifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        assertTrue(service.isShutdown());
+        assertTrue(service.isTerminated());
+        assertEquals(0, registry.newTimer(TimedExecutors.class, "scheduled.schedule-lag").count());
+    }
+
+    @Test
+    public void testFallbackHandler() throws Exception
+    {
+        // Used to fail on injection, as only thread pools knew how to find the fallback pool.
+        final Injector injector = Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (ConfigModule.forTesting("ness.thread-pool.timer.rejected-handler", "FALLBACK",
+                                                 "ness.thread-pool.timer.rejected-fallback-pool", "fallback"));
+                install (new LifecycleModule());
+                install (NessScheduledThreadPoolModule.scheduledPool("timer", 1).disableThreadDelegation());
+                install (NessThreadPoolModule.defaultPool("fallback").disableThreadDelegation());
+            }
+        });
+        final Lifecycle timerLifecycle = injector.getInstance(Lifecycle.class);
+        timerLifecycle.executeTo(LifecycleStage.START_STAGE);
+
+        final ScheduledExecutorService timer = injector.getInstance(Key.get(ScheduledExecutorService.class, Names.named("timer")));
+        timer.shutdown();
+        try {
+            // A scheduled pool only rejects once it is shut down, and the fallback does not take those.
+            timer.schedule(new Runnable() {
+                @Override
+                public void run()
+                {
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        } finally {
+            timerLifecycle.executeTo(LifecycleStage.STOP_STAGE);
+        }
+    }
+
+    @Test(expected = CreationException.class)
+    public void testThreadPoolOptionsAreRejected()
+    {
+        Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure()
+            {
+                install (ConfigModule.forTesting("ness.thread-pool.timer.queue-size", "10"));
+                install (new LifecycleModule());
+                install (NessScheduledThreadPoolModule.scheduledPool("timer", 1));
+            }
+        });
+    }
+}
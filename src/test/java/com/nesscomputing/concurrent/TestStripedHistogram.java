@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+public class TestStripedHistogram
+{
+    @Test
+    public void testBucketsCoverEveryValue()
+    {
+        for (long value = 0; value < 100000; value++) {
+            final int index = StripedHistogram.bucketIndex(value);
+            assertTrue(value <= StripedHistogram.highestValueInBucket(index));
+            if (index > 0) {
+                assertTrue(value > StripedHistogram.highestValueInBucket(index - 1));
+            }
+        }
+        assertEquals(StripedHistogram.MAX_VALUE, StripedHistogram.highestValueInBucket(StripedHistogram.bucketIndex(StripedHistogram.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        final StripedHistogram histogram = new StripedHistogram(4);
+        for (long value = 1; value <= 10000; value++) {
+            histogram.update(value);
+        }
+
+        final StripedHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(5000.5, snapshot.getMean(), 0.001);
+        assertWithinBucket(5000, snapshot.getValueAtPercentile(50));
+        assertWithinBucket(9900, snapshot.getValueAtPercentile(99));
+        assertEquals(10000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testRecentValuesForgetOldWindows()
+    {
+        final StripedHistogram histogram = new StripedHistogram(1);
+        final AtomicLong nanos = new AtomicLong();
+        final StripedHistogram.RecentValues recent = new StripedHistogram.RecentValues(histogram, 1, TimeUnit.MINUTES, new Ticker() {
+            @Override
+            public long read()
+            {
+                return nanos.get();
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            histogram.update(1000);
+        }
+        assertEquals(100, recent.snapshot().getCount());
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        histogram.update(10);
+        assertEquals(101, recent.snapshot().getCount());
+
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(1));
+        histogram.update(10);
+        final StripedHistogram.Snapshot snapshot = recent.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(10, snapshot.getValueAtPercentile(99));
+        assertEquals(102, histogram.snapshot().getCount());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception
+    {
+        final StripedHistogram histogram = new StripedHistogram();
+        final StripedCounter counter = new StripedCounter();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call()
+                    {
+                        for (int j = 0; j < 10000; j++) {
+                            histogram.update(j);
+                            counter.increment();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(80000, histogram.snapshot().getCount());
+        assertEquals(80000, counter.sum());
+    }
+
+    private static void assertWithinBucket(long expected, long actual)
+    {
+        // Buckets are at most 1/16th of their value wide.
+        assertTrue("expected ~" + expected + " but was " + actual, Math.abs(expected - actual) <= expected / 16);
+    }
+}
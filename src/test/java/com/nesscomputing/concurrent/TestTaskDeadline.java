@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.yammer.metrics.core.MetricsRegistry;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestTaskDeadline
+{
+    @Rule
+    public final BlockingTasks blocking = new BlockingTasks();
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final ThreadPoolExecutor pool = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>()));
+    private final ExecutorService service = DecoratingExecutors.decorate(pool, CallableWrappers.combine(ImmutableList.<CallableWrapper>of(
+            new DeadlineWrapper("test").setMetricsRegistry(registry),
+            TimedExecutors.createTimerWrapper("test", registry))));
+
+    @After
+    public void tearDown()
+    {
+        assertNull(TaskDeadline.current());
+    }
+
+    @Test
+    public void testExpiredTaskIsDropped() throws Exception
+    {
+        blocking.block(service, 1);
+
+        final AtomicBoolean ran = new AtomicBoolean();
+        final Future<?> future;
+        try (TaskDeadline deadline = TaskDeadline.set(20, TimeUnit.MILLISECONDS)) {
+            future = service.submit(new Runnable() {
+                @Override
+                public void run()
+                {
+                    ran.set(true);
+                }
+            });
+        }
+        Thread.sleep(50);
+        blocking.release();
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlineExceededException);
+        }
+        assertFalse(ran.get());
+        assertEquals(1, registry.newMeter(TimedExecutors.class, "test.expired", "expired", TimeUnit.MINUTES).count());
+        // The other wrappers see the drop as a failure.
+        assertEquals(1, registry.newMeter(TimedExecutors.class, "test.exception", "exception", TimeUnit.MINUTES).count());
+    }
+
+    @Test
+    public void testExpiredExecutedTasksDoNotFailTheWorker() throws Exception
+    {
+        final Callable<Thread> currentThread = new Callable<Thread>() {
+            @Override
+            public Thread call()
+            {
+                return Thread.currentThread();
+            }
+        };
+        final Thread worker = service.submit(currentThread).get(10, TimeUnit.SECONDS);
+        blocking.block(service, 1);
+
+        final AtomicBoolean ran = new AtomicBoolean();
+        final Runnable task = new Runnable() {
+            @Override
+            public void run()
+            {
+                ran.set(true);
+            }
+        };
+        final AsyncExecutor async = new AsyncExecutor(service);
+        final ListenableFuture<?> first;
+        final ListenableFuture<?> second;
+        try (TaskDeadline deadline = TaskDeadline.set(20, TimeUnit.MILLISECONDS)) {
+            first = async.runAsync(task);
+            second = async.runAsync(task);
+            service.execute(task);
+        }
+        Thread.sleep(50);
+        blocking.release();
+
+        // The futures behind executed tasks fail, with one shared exception.
+        final Throwable firstFailure = failureOf(first);
+        assertTrue(firstFailure instanceof DeadlineExceededException);
+        assertSame(firstFailure, failureOf(second));
+
+        // A plain task is dropped without an exception going through the worker.
+        assertSame(worker, service.submit(currentThread).get(10, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        assertEquals(3, registry.newMeter(TimedExecutors.class, "test.expired", "expired", TimeUnit.MINUTES).count());
+    }
+
+    @Test
+    public void testDeadlineIsInEffectWhileTaskRuns() throws Exception
+    {
+        final TaskDeadline captured;
+        final Future<TaskDeadline> future;
+        try (TaskDeadline deadline = TaskDeadline.set(1, TimeUnit.MINUTES)) {
+            captured = deadline;
+            future = service.submit(new Callable<TaskDeadline>() {
+                @Override
+                public TaskDeadline call()
+                {
+                    return TaskDeadline.current();
+                }
+            });
+        }
+        assertSame(captured, future.get(10, TimeUnit.SECONDS));
+
+        // And is gone again afterwards.
+        assertNull(service.submit(new Callable<TaskDeadline>() {
+            @Override
+            public TaskDeadline call()
+            {
+                return TaskDeadline.current();
+            }
+        }).get(10, TimeUnit.SECONDS));
+        assertEquals(0, registry.newMeter(TimedExecutors.class, "test.expired", "expired", TimeUnit.MINUTES).count());
+    }
+
+    @Test
+    public void testEarlierDeadlineIsKept() throws Exception
+    {
+        try (TaskDeadline outer = TaskDeadline.set(1, TimeUnit.SECONDS)) {
+            try (TaskDeadline inner = TaskDeadline.set(1, TimeUnit.MINUTES)) {
+                assertSame(inner, TaskDeadline.current());
+                assertTrue(inner.remaining(TimeUnit.SECONDS) <= 1);
+            }
+            assertSame(outer, TaskDeadline.current());
+            assertFalse(outer.isExpired());
+        }
+    }
+
+    private static Throwable failureOf(Future<?> future) throws Exception
+    {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail();
+        return null;
+    }
+}
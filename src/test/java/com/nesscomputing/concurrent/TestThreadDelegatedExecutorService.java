@@ -16,13 +16,19 @@ package com.nesscomputing.concurrent;
  */
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
@@ -35,6 +41,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedContext;
 import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScope;
 import com.nesscomputing.scopes.threaddelegate.ThreadDelegatedScopeModule;
 
@@ -172,6 +179,62 @@ public class TestThreadDelegatedExecutorService
         }
     }
 
+    @Test
+    public void testCallbacksRunInCapturedContext() throws Exception
+    {
+        final ScopedObject t1 = injector.getInstance(ScopedObject.class);
+        final Executor view = ThreadDelegatingDecorator.captureContext(unwrappedExecutor);
+        final Executor directView = ThreadDelegatingDecorator.captureContext(MoreExecutors.sameThreadExecutor());
+
+        final SettableFuture<Integer> input = SettableFuture.create();
+        ListenableFuture<Integer> chain = input;
+        for (int i = 0; i < 10; i++) {
+            chain = Futures.transform(chain, new Function<Integer, Integer>() {
+                @Override
+                public Integer apply(Integer value)
+                {
+                    Assert.assertSame(t1, injector.getInstance(ScopedObject.class));
+                    return value + 1;
+                }
+            }, i % 2 == 0 ? view : directView);
+        }
+
+        final Future<ScopedObject> fromCallback = unwrappedExecutor.submit(ThreadDelegatingDecorator.inCurrentContext(new ScopedCallable()));
+
+        // Complete the future from a thread with a context of its own.
+        ThreadDelegatedScope.SCOPE.changeScope(null);
+        input.set(0);
+        Assert.assertNotSame(t1, injector.getInstance(ScopedObject.class));
+
+        Assert.assertEquals(10, chain.get().intValue());
+        Assert.assertSame(t1, fromCallback.get());
+    }
+
+    @Test
+    public void testSameContextKeepsScope() throws Exception
+    {
+        final ScopedObject t1 = injector.getInstance(ScopedObject.class);
+        final ThreadDelegatedContext context = ThreadDelegatedScope.SCOPE.getContext();
+
+        // Runs on the submitting thread, which already is in the caller context.
+        final ExecutorService direct = ThreadDelegatingDecorator.wrapExecutorService(MoreExecutors.sameThreadExecutor());
+        Assert.assertSame(t1, direct.submit(new ScopedCallable()).get());
+        Assert.assertSame(context, ThreadDelegatedScope.SCOPE.getContext());
+
+        // A pool thread that hands work to a direct executor for the same request.
+        final ExecutorService wrapped = ThreadDelegatingDecorator.wrapExecutorService(unwrappedExecutor);
+        final Future<ScopedObject> nested = wrapped.submit(new Callable<ScopedObject>() {
+            @Override
+            public ScopedObject call() throws Exception
+            {
+                final ScopedObject result = direct.submit(new ScopedCallable()).get();
+                Assert.assertSame(context, ThreadDelegatedScope.SCOPE.getContext());
+                return result;
+            }
+        });
+        Assert.assertSame(t1, nested.get());
+        Assert.assertSame(context, ThreadDelegatedScope.SCOPE.getContext());
+    }
 
     public class ScopedCallable implements Callable<ScopedObject>
     {
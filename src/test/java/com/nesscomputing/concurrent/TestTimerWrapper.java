@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.yammer.metrics.core.Metered;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTimerWrapper
+{
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run()
+        {
+        }
+    };
+
+    private MetricsRegistry registry;
+
+    @Before
+    public void setUp()
+    {
+        registry = new MetricsRegistry();
+    }
+
+    @Test
+    public void testEveryTaskTimed()
+    {
+        final CallableWrapper timer = TimedExecutors.createTimerWrapper("test", registry);
+        for (int i = 0; i < 8; i++) {
+            timer.wrap(NOOP).run();
+        }
+
+        assertEquals(8, metered("enqueue").count());
+        assertEquals(8, metered("dequeue").count());
+        assertEquals(8, timer("queued-duration").count());
+        assertEquals(8, timer("total-duration").count());
+    }
+
+    @Test
+    public void testRunnableTimedWithoutCallableAdapter()
+    {
+        final CallableWrapper timer = TimedExecutors.createTimerWrapper("test", registry);
+        final AtomicInteger ran = new AtomicInteger();
+        final Runnable wrapped = timer.wrap(PrioritizedTasks.withPriority(new Runnable() {
+            @Override
+            public void run()
+            {
+                ran.incrementAndGet();
+                Uninterruptibles.sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
+            }
+        }, 7));
+        // The timed runnable wraps the task itself, where the callable adapter would have hidden its priority.
+        assertEquals(7, PrioritizedTasks.priorityOf(wrapped));
+
+        Uninterruptibles.sleepUninterruptibly(20, TimeUnit.MILLISECONDS);
+        wrapped.run();
+
+        assertEquals(1, ran.get());
+        assertEquals(1, metered("enqueue").count());
+        assertEquals(1, metered("dequeue").count());
+        assertEquals(1, timer("queued-duration").count());
+        assertTrue(timer("queued-duration").max() >= 20);
+        assertEquals(1, timer("total-duration").count());
+        assertTrue(timer("total-duration").max() >= 40);
+    }
+
+    @Test
+    public void testSampledTiming()
+    {
+        final CallableWrapper timer = TimedExecutors.createTimerWrapper("test", registry, TimerMetricsMode.YAMMER, 4);
+        for (int i = 0; i < 10; i++) {
+            timer.wrap(NOOP).run();
+        }
+
+        // Counts are flushed every 4 tasks, so 2 are still pending.
+        assertEquals(8, metered("enqueue").count());
+        assertEquals(8, metered("dequeue").count());
+        assertEquals(2, timer("queued-duration").count());
+        assertEquals(2, timer("total-duration").count());
+    }
+
+    @Test
+    public void testSampledCountsOutliveThreads() throws Exception
+    {
+        final CallableWrapper timer = TimedExecutors.createTimerWrapper("test", registry, TimerMetricsMode.YAMMER, 4);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < 3; i++) {
+                    timer.wrap(NOOP).run();
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        for (int i = 0; i < 4; i++) {
+            timer.wrap(NOOP).run();
+        }
+
+        // The flush of this thread also picks up the counts the other one left behind.
+        assertEquals(7, metered("enqueue").count());
+        assertEquals(7, metered("dequeue").count());
+    }
+
+    @Test
+    public void testSampledExceptionsAreExact()
+    {
+        final CallableWrapper timer = TimedExecutors.createTimerWrapper("test", registry, TimerMetricsMode.YAMMER, 100);
+        for (int i = 0; i < 3; i++) {
+            try {
+                timer.wrap(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        throw new IllegalStateException();
+                    }
+                }).run();
+                fail();
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        }
+
+        assertEquals(3, metered("exception").count());
+        assertEquals(0, timer("total-duration").count());
+    }
+
+    private Metered metered(String name)
+    {
+        return (Metered) registry.allMetrics().get(new MetricName(TimedExecutors.class, "test." + name));
+    }
+
+    private Timer timer(String name)
+    {
+        return (Timer) registry.allMetrics().get(new MetricName(TimedExecutors.class, "test." + name));
+    }
+}
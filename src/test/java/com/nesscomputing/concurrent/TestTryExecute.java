@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestTryExecute
+{
+    @Rule
+    public final BlockingTasks blocking = new BlockingTasks();
+
+    private final AtomicInteger wrapped = new AtomicInteger();
+    private final AtomicInteger callerRuns = new AtomicInteger();
+
+    private ThreadPoolExecutor executor;
+    private MeteredRejectedExecutionHandler rejections;
+
+    @Test
+    public void testFullQueueTurnsTasksAway() throws Exception
+    {
+        final TryExecutorService service = createService(new ArrayBlockingQueue<Runnable>(1));
+        executor.execute(blocking.task());
+        executor.execute(blocking.task());
+
+        assertFalse(service.tryExecute(blocking.task()));
+        assertNull(service.trySubmit(new Answer()));
+        assertEquals("saturated pools do not wrap", 0, wrapped.get());
+        assertEquals(0, callerRuns.get());
+        assertEquals(2, rejections.getRejectedCount());
+        assertEquals(2, rejections.getAbortedCount());
+
+        blocking.release();
+        final ListenableFuture<Integer> future = awaitSubmit(service);
+        assertEquals(42, future.get(10, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testRejectionSkipsHandler() throws Exception
+    {
+        // Without a queue there is no cheap check up front, so the task goes to the pool and is rejected.
+        final TryExecutorService service = createService(new SynchronousQueue<Runnable>());
+        blocking.block(executor, 1);
+
+        assertFalse(service.tryExecute(blocking.task()));
+        assertEquals(0, callerRuns.get());
+        assertEquals(1, rejections.getAbortedCount());
+
+        // Plain execute still goes to the handler.
+        ((ExecutorService) service).execute(blocking.task());
+        assertEquals(1, callerRuns.get());
+    }
+
+    @Test
+    public void testNessExecutorsFallsBack() throws Exception
+    {
+        createService(new ArrayBlockingQueue<Runnable>(1));
+        executor.execute(blocking.task());
+        executor.execute(blocking.task());
+        assertFalse(NessExecutors.tryExecute(executor, blocking.task()));
+        assertNull(NessExecutors.trySubmit(executor, new Answer()));
+        assertEquals(2, rejections.getAbortedCount());
+    }
+
+    @Test
+    public void testRefusesExecutorsThatRunOnTheCaller() throws Exception
+    {
+        final AtomicInteger ran = new AtomicInteger();
+        final Runnable counter = new Runnable() {
+            @Override
+            public void run()
+            {
+                ran.incrementAndGet();
+            }
+        };
+        assertFalse(NessExecutors.tryExecute(MoreExecutors.sameThreadExecutor(), counter));
+
+        executor = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadPoolExecutor.CallerRunsPolicy()));
+        assertFalse(NessExecutors.tryExecute(executor, counter));
+        assertEquals(0, ran.get());
+    }
+
+    private TryExecutorService createService(BlockingQueue<Runnable> queue)
+    {
+        rejections = new MeteredRejectedExecutionHandler("test", new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor e)
+            {
+                callerRuns.incrementAndGet();
+            }
+        }, null);
+        executor = blocking.shutDownAfter(new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, queue, rejections));
+        return (TryExecutorService) DecoratingExecutors.decorate(executor, new CallableWrapper() {
+            @Override
+            public <T> Callable<T> wrap(Callable<T> callable)
+            {
+                wrapped.incrementAndGet();
+                return callable;
+            }
+        });
+    }
+
+    private static ListenableFuture<Integer> awaitSubmit(TryExecutorService service) throws InterruptedException
+    {
+        ListenableFuture<Integer> future;
+        while ((future = service.trySubmit(new Answer())) == null) {
+            Thread.sleep(1);
+        }
+        return future;
+    }
+
+    private static class Answer implements Callable<Integer>
+    {
+        @Override
+        public Integer call()
+        {
+            return 42;
+        }
+    }
+}
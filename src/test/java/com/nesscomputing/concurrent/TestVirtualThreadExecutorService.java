@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestVirtualThreadExecutorService
+{
+    private VirtualThreadExecutorService service;
+
+    @Before
+    public void setUp()
+    {
+        // The executor does not care what kind of threads it gets, so this also runs without virtual threads.
+        service = new VirtualThreadExecutorService(new ThreadFactoryBuilder().setNameFormat("test-%d").build(), 2);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        service.shutdownNow();
+        assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(6);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+
+        for (int i = 0; i < 6; i++) {
+            service.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    final int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(now, maxRunning.get()));
+                    }
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        while (service.getActiveCount() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(6, service.getSubmittedTaskCount());
+
+        service.setMaxConcurrency(3);
+        while (service.getActiveCount() < 3) {
+            Thread.sleep(10);
+        }
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(3, maxRunning.get());
+    }
+
+    @Test
+    public void testShutdownNowReturnsWaitingTasks() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(2);
+        final AtomicInteger ran = new AtomicInteger();
+        final List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            futures.add(service.submit(new Runnable() {
+                @Override
+                public void run()
+                {
+                    ran.incrementAndGet();
+                    started.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        while (service.getWaitingCount() < 3) {
+            Thread.sleep(10);
+        }
+
+        final List<Runnable> notStarted = service.shutdownNow();
+        assertEquals(3, notStarted.size());
+        for (Runnable task : notStarted) {
+            assertTrue(futures.contains(task));
+            ((Future<?>) task).cancel(false);
+        }
+        assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(2, ran.get());
+        for (Future<?> future : futures) {
+            assertTrue(future.isDone());
+        }
+    }
+
+    @Test
+    public void testFailedThreadStartDoesNotBlockTermination() throws Exception
+    {
+        final VirtualThreadExecutorService failing = new VirtualThreadExecutorService(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                return new Thread(r) {
+                    @Override
+                    public synchronized void start()
+                    {
+                        throw new OutOfMemoryError("unable to create new native thread");
+                    }
+                };
+            }
+        }, 0);
+        try {
+            failing.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertTrue(e.getCause() instanceof OutOfMemoryError);
+        }
+        failing.shutdown();
+        assertTrue(failing.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testShutdown() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        service.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        service.shutdown();
+        assertTrue(service.isShutdown());
+        assertFalse(service.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+        try {
+            service.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        release.countDown();
+        assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1, service.getCompletedTaskCount());
+    }
+}
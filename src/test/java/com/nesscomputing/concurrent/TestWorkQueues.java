@@ -0,0 +1,707 @@
+/**
+ * Copyright (C) 2012 Ness Computing, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nesscomputing.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import com.nesscomputing.concurrent.BatchExecution.BatchTask;
+
+import org.junit.Test;
+
+public class TestWorkQueues
+{
+    @Test
+    public void testCapacityIsEnforced() throws Exception
+    {
+        for (QueueType queueType : QueueType.values()) {
+            final BlockingQueue<Runnable> queue = queueType.createQueue(2);
+            assertTrue(queue.offer(new Task(0)));
+            assertTrue(queue.offer(new Task(0)));
+            assertFalse(queueType.name(), queue.offer(new Task(0)));
+            assertFalse(queueType.name(), queue.offer(new Task(0), 10, TimeUnit.MILLISECONDS));
+            assertEquals(queueType.name(), 2, queue.size());
+            assertEquals(queueType.name(), 0, queue.remainingCapacity());
+
+            assertTrue(queue.poll() != null);
+            assertTrue(queue.offer(new Task(0)));
+            assertEquals(2, queue.drainTo(Lists.<Runnable>newArrayList()));
+            assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+            assertEquals(2, queue.remainingCapacity());
+        }
+    }
+
+    @Test
+    public void testPoolRunsEveryTask() throws Exception
+    {
+        for (QueueType queueType : QueueType.values()) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 4, 1, TimeUnit.SECONDS, queueType.createQueue(16));
+            final CountDownLatch latch = new CountDownLatch(1000);
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    final Runnable task = new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                            latch.countDown();
+                        }
+                    };
+                    while (true) {
+                        try {
+                            executor.execute(task);
+                            break;
+                        }
+                        catch (RejectedExecutionException e) {
+                            Thread.sleep(1);
+                        }
+                    }
+                }
+                assertTrue(queueType.name(), latch.await(10, TimeUnit.SECONDS));
+            }
+            finally {
+                executor.shutdown();
+            }
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testTransferQueueHandsOffToWaitingConsumer() throws Exception
+    {
+        final int handOffs = 100;
+        final BoundedTransferQueue<Runnable> queue = new BoundedTransferQueue<Runnable>(2);
+        final Thread consumer = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    for (int i = 0; i < handOffs; i++) {
+                        queue.take();
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        consumer.start();
+
+        for (int i = 0; i < handOffs; i++) {
+            // Only offer once the consumer is parked in take(), so every offer is a hand off.
+            while (!queue.hasWaitingConsumer()) {
+                Thread.yield();
+            }
+            assertTrue(queue.offer(new Task(0)));
+        }
+        consumer.join();
+
+        // The hand offs neither took nor gave back capacity.
+        assertEquals(0, queue.size());
+        assertEquals(2, queue.remainingCapacity());
+        assertTrue(queue.offer(new Task(0)));
+        assertTrue(queue.offer(new Task(0)));
+        assertFalse(queue.offer(new Task(0)));
+        assertNotNull(queue.poll());
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void testTransferQueueRemoveGivesBackOnlyUnlinkedCapacity()
+    {
+        final BoundedTransferQueue<Runnable> queue = new BoundedTransferQueue<Runnable>(2);
+        final Task first = new Task(0);
+        final Task second = new Task(0);
+        assertTrue(queue.offer(first));
+        assertTrue(queue.offer(second));
+
+        assertTrue(queue.remove(first));
+        // Already gone, so no capacity comes back a second time.
+        assertFalse(queue.remove(first));
+        assertFalse(queue.remove(new Task(0)));
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.remainingCapacity());
+
+        final Iterator<Runnable> it = queue.iterator();
+        assertSame(second, it.next());
+        assertSame(second, queue.poll());
+        // The consumer took it first, so removing it through the iterator gives nothing back.
+        it.remove();
+        assertEquals(0, queue.size());
+        assertEquals(2, queue.remainingCapacity());
+        assertTrue(queue.offer(new Task(0)));
+        assertTrue(queue.offer(new Task(0)));
+        assertFalse(queue.offer(new Task(0)));
+    }
+
+    @Test
+    public void testRingBufferDeliversEveryElementOnce() throws Exception
+    {
+        // 7 is not a power of two, so the slot index wraps by modulo.
+        final RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(7);
+        final int producers = 3;
+        final int perProducer = 20000;
+        final AtomicIntegerArray seen = new AtomicIntegerArray(producers * perProducer);
+        final ExecutorService executor = Executors.newFixedThreadPool(producers + 2);
+        try {
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int p = 0; p < producers; p++) {
+                final int base = p * perProducer;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        for (int i = 0; i < perProducer; i++) {
+                            queue.put(base + i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int c = 0; c < 2; c++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        Integer value;
+                        while ((value = queue.poll(1, TimeUnit.SECONDS)) != null) {
+                            seen.incrementAndGet(value);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        for (int i = 0; i < seen.length(); i++) {
+            assertEquals("element " + i, 1, seen.get(i));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRingBufferWakesWaitingConsumer() throws Exception
+    {
+        final RingBufferBlockingQueue<Runnable> queue = new RingBufferBlockingQueue<Runnable>(4);
+        final CountDownLatch taken = new CountDownLatch(1);
+        final Thread consumer = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    queue.take();
+                    taken.countDown();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        consumer.start();
+
+        Thread.sleep(50);
+        assertTrue(queue.offer(new Task(0)));
+        assertTrue(taken.await(10, TimeUnit.SECONDS));
+        consumer.join();
+    }
+
+    @Test
+    public void testRingBufferRemovesFromTheMiddle() throws Exception
+    {
+        final RingBufferBlockingQueue<Runnable> queue = new RingBufferBlockingQueue<Runnable>(4);
+        final List<Task> tasks = ImmutableList.of(new Task(0), new Task(1), new Task(2), new Task(3));
+        for (Task task : tasks) {
+            assertTrue(queue.offer(task));
+        }
+
+        assertTrue(queue.remove(tasks.get(1)));
+        assertFalse(queue.remove(tasks.get(1)));
+        for (Iterator<Runnable> it = queue.iterator(); it.hasNext(); ) {
+            if (it.next() == tasks.get(2)) {
+                it.remove();
+            }
+        }
+        assertEquals(2, queue.size());
+        assertEquals(ImmutableList.<Runnable>of(tasks.get(0), tasks.get(3)), ImmutableList.copyOf(queue));
+        // Removed tasks still hold their slots.
+        assertEquals(0, queue.remainingCapacity());
+        assertFalse(queue.offer(new Task(4)));
+
+        // The slots of removed elements are free again once the head has passed them.
+        assertEquals(tasks.get(0), queue.poll());
+        assertEquals(tasks.get(3), queue.poll());
+        assertTrue(queue.isEmpty());
+        for (Task task : tasks) {
+            assertTrue(queue.offer(task));
+        }
+        assertFalse(queue.offer(new Task(4)));
+    }
+
+    @Test
+    public void testSingleSlotRingBufferHoldsOneElement() throws Exception
+    {
+        final RingBufferBlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(i));
+            assertFalse(queue.offer(-1));
+            assertEquals(1, queue.size());
+            assertEquals(Integer.valueOf(i), queue.poll());
+            assertNull(queue.poll());
+        }
+
+        assertTrue(queue.offer(3));
+        assertTrue(queue.remove(3));
+        // The tombstone holds the only slot until the head passes it.
+        assertFalse(queue.offer(4));
+        assertNull(queue.poll());
+        assertTrue(queue.offer(4));
+        assertEquals(Integer.valueOf(4), queue.poll());
+    }
+
+    @Test
+    public void testRingBufferPoolPurgesCancelledTasks() throws Exception
+    {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, QueueType.RING_BUFFER.createQueue(10));
+        try {
+            final CountDownLatch release = new CountDownLatch(1);
+            executor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+            });
+
+            final List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < 5; i++) {
+                futures.add(executor.submit(new Task(0)));
+            }
+            futures.get(1).cancel(false);
+            futures.get(3).cancel(false);
+            executor.purge();
+            assertEquals(3, executor.getQueue().size());
+
+            release.countDown();
+            for (Future<?> future : futures) {
+                if (!future.isCancelled()) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPriorityOrderIsStable() throws Exception
+    {
+        final BlockingQueue<Runnable> queue = QueueType.PRIORITY.createQueue(10);
+        final List<Task> tasks = ImmutableList.of(new Task(0), new Task(1), new Task(0), new Task(2), new Task(1));
+        for (Task task : tasks) {
+            assertTrue(queue.offer(task));
+        }
+
+        final List<Runnable> drained = Lists.newArrayList();
+        queue.drainTo(drained);
+        assertEquals(ImmutableList.of(tasks.get(3), tasks.get(1), tasks.get(4), tasks.get(0), tasks.get(2)), drained);
+    }
+
+    @Test
+    public void testOfferAllTakesPrefix() throws Exception
+    {
+        for (QueueType queueType : new QueueType[] {QueueType.RING_BUFFER, QueueType.PRIORITY}) {
+            @SuppressWarnings("unchecked")
+            final BatchingQueue<Runnable> queue = (BatchingQueue<Runnable>) queueType.createQueue(4);
+            final List<Runnable> tasks = ImmutableList.<Runnable>of(new Task(0), new Task(0), new Task(0));
+            assertEquals(0, queue.offerAll(ImmutableList.<Runnable>of()));
+            assertEquals(3, queue.offerAll(tasks));
+            assertEquals(1, queue.offerAll(tasks));
+            assertEquals(0, queue.offerAll(tasks));
+            assertEquals(4, queue.size());
+
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queueType.name(), queue.poll() == tasks.get(i));
+            }
+            assertTrue(queueType.name(), queue.poll() == tasks.get(0));
+            assertNull(queue.poll());
+
+            // Wraps around the end of the ring.
+            assertEquals(3, queue.offerAll(tasks));
+            assertEquals(3, queue.drainTo(Lists.<Runnable>newArrayList()));
+        }
+    }
+
+    @Test
+    public void testGrowBeforeQueue() throws Exception
+    {
+        for (QueueType queueType : QueueType.values()) {
+            final GrowBeforeQueueTaskQueue queue = new GrowBeforeQueueTaskQueue(queueType.createQueue(2));
+            final ThreadPoolExecutor executor = new NotifyingLoggingExecutor(1, 3, 1, TimeUnit.SECONDS, queue, Executors.defaultThreadFactory(), queue.wrap(new ThreadPoolExecutor.AbortPolicy()));
+            queue.setExecutor(executor);
+
+            final CountDownLatch started = new CountDownLatch(3);
+            final CountDownLatch release = new CountDownLatch(1);
+            final Runnable task = new Runnable() {
+                @Override
+                public void run()
+                {
+                    started.countDown();
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+            };
+            try {
+                // Threads first, then the queue, then rejection.
+                for (int i = 0; i < 3; i++) {
+                    executor.execute(task);
+                    assertEquals(queueType.name(), i + 1, executor.getPoolSize());
+                    assertEquals(queueType.name(), 0, queue.size());
+                }
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+                executor.execute(task);
+                executor.execute(task);
+                assertEquals(queueType.name(), 2, queue.size());
+                try {
+                    executor.execute(task);
+                    fail(queueType.name());
+                } catch (RejectedExecutionException e) {
+                    // expected
+                }
+                assertEquals(queueType.name(), 3, executor.getPoolSize());
+            }
+            finally {
+                release.countDown();
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            }
+            assertEquals(queueType.name(), 5, executor.getCompletedTaskCount());
+        }
+    }
+
+    @Test
+    public void testGrowBeforeQueueBurstOnIdleWorker() throws Exception
+    {
+        for (QueueType queueType : QueueType.values()) {
+            final GrowBeforeQueueTaskQueue queue = new GrowBeforeQueueTaskQueue(queueType.createQueue(10));
+            final ThreadPoolExecutor executor = new NotifyingLoggingExecutor(1, 3, 1, TimeUnit.SECONDS, queue, Executors.defaultThreadFactory(), queue.wrap(new ThreadPoolExecutor.AbortPolicy()));
+            queue.setExecutor(executor);
+            executor.prestartCoreThread();
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final Runnable task = new Runnable() {
+                @Override
+                public void run()
+                {
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+            };
+            try {
+                // One idle worker can take only one task of a burst, the pool grows for the others.
+                for (int i = 0; i < 5; i++) {
+                    executor.execute(task);
+                }
+                assertEquals(queueType.name(), 3, executor.getPoolSize());
+            }
+            finally {
+                release.countDown();
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            }
+            assertEquals(queueType.name(), 5, executor.getCompletedTaskCount());
+        }
+    }
+
+    @Test
+    public void testGrowBeforeQueueCountsTasksThatDoNotRun() throws Exception
+    {
+        for (QueueType queueType : QueueType.values()) {
+            final GrowBeforeQueueTaskQueue queue = new GrowBeforeQueueTaskQueue(queueType.createQueue(2));
+            final ThreadPoolExecutor executor = new NotifyingLoggingExecutor(1, 2, 1, TimeUnit.MINUTES, queue, Executors.defaultThreadFactory(), queue.wrap(new ThreadPoolExecutor.AbortPolicy()));
+            queue.setExecutor(executor);
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final Runnable task = new Runnable() {
+                @Override
+                public void run()
+                {
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+            };
+            try {
+                for (int i = 0; i < 4; i++) {
+                    executor.execute(task);
+                }
+                assertEquals(queueType.name(), 2, executor.getPoolSize());
+                try {
+                    executor.execute(task);
+                    fail(queueType.name());
+                } catch (RejectedExecutionException e) {
+                    // expected
+                }
+                assertEquals(queueType.name(), 4, queue.getSubmittedCount());
+
+                assertTrue(queueType.name(), executor.remove(queue.peek()));
+                assertEquals(queueType.name(), 3, queue.getSubmittedCount());
+
+                assertEquals(queueType.name(), 1, executor.shutdownNow().size());
+                assertEquals(queueType.name(), 2, queue.getSubmittedCount());
+            }
+            finally {
+                release.countDown();
+                executor.shutdown();
+                assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            }
+            assertEquals(queueType.name(), 0, queue.getSubmittedCount());
+        }
+    }
+
+    @Test
+    public void testAdaptiveLifoDropsWhenOverloaded() throws Exception
+    {
+        final AtomicLong nanos = new AtomicLong();
+        final AdaptiveLifoQueue queue = new AdaptiveLifoQueue(10, 50, 400, TimeUnit.MILLISECONDS, new Ticker() {
+            @Override
+            public long read()
+            {
+                return nanos.get();
+            }
+        });
+        final List<Runnable> dropped = Lists.newArrayList();
+        queue.setRejectionHandler(null, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+            {
+                dropped.add(r);
+                throw new RejectedExecutionException();
+            }
+        });
+
+        // A task that waits through the end of the first interval marks the queue as overloaded.
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        final FutureTask<Void> stale = new FutureTask<Void>(new Task(0), null);
+        queue.offer(stale);
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(320));
+        final Task older = new Task(0);
+        final Task newer = new Task(0);
+        queue.offer(older);
+        queue.offer(newer);
+
+        // The stale task waited too long, but the queue was not overloaded yet.
+        assertTrue(queue.poll() == newer);
+        assertTrue(queue.isOverloaded());
+        assertTrue(queue.poll() == older);
+        assertEquals(ImmutableList.<Runnable>of(stale), dropped);
+        assertEquals(1, queue.getDroppedCount());
+        assertTrue(stale.isCancelled());
+
+        // Running empty for an interval ends the overload.
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(400));
+        final Task first = new Task(0);
+        queue.offer(first);
+        queue.offer(new Task(0));
+        assertTrue(queue.poll() == first);
+        assertFalse(queue.isOverloaded());
+
+        // A queue that is not overloaded drops nothing, however long the tasks wait.
+        final Task last = new Task(0);
+        queue.offer(last);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertTrue(queue.poll() == last);
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void testAdaptiveLifoStaysOverloadedUnderSustainedLoad() throws Exception
+    {
+        final AtomicLong nanos = new AtomicLong();
+        final AdaptiveLifoQueue queue = new AdaptiveLifoQueue(1000, 10, 100, TimeUnit.MILLISECONDS, new Ticker() {
+            @Override
+            public long read()
+            {
+                return nanos.get();
+            }
+        });
+
+        // Two tasks arrive for every one the pool runs, for ten intervals.
+        for (int ms = 0; ms < 1000; ms++) {
+            queue.offer(new Task(0));
+            final Task newest = new Task(0);
+            queue.offer(newest);
+            final Runnable task = queue.poll();
+            if (ms >= 200) {
+                assertTrue("at " + ms + "ms", queue.isOverloaded());
+                assertSame("at " + ms + "ms", newest, task);
+            }
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertTrue(queue.getDroppedCount() > 0);
+        // Only tasks older than twice the target are dropped, so the standing queue is kept.
+        assertTrue(queue.size() >= 20);
+        assertTrue(queue.size() <= 42);
+
+        // Once the queue runs empty for a whole interval, the overload ends.
+        while (queue.poll() != null) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        final Task first = new Task(0);
+        queue.offer(first);
+        queue.offer(new Task(0));
+        assertSame(first, queue.poll());
+        assertFalse(queue.isOverloaded());
+    }
+
+    @Test
+    public void testAdaptiveLifoFailsDroppedTasksWhateverTheHandlerDoes() throws Exception
+    {
+        final ThreadPoolExecutor running = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        final ThreadPoolExecutor shutDown = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        shutDown.shutdown();
+        try {
+            for (Future<?> future : dropTasks(new ThreadPoolExecutor.DiscardPolicy(), running)) {
+                assertRejected(future);
+            }
+            for (Future<?> future : dropTasks(new ThreadPoolExecutor.CallerRunsPolicy(), shutDown)) {
+                assertRejected(future);
+            }
+            // Queued again, but the future fails all the same; running the task later does nothing.
+            final RejectedExecutionHandler requeue = new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+                {
+                    executor.getQueue().offer(r);
+                }
+            };
+            final ThreadPoolExecutor requeueing = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(10));
+            final List<Future<?>> requeued = dropTasks(requeue, requeueing);
+            assertEquals(2, requeueing.getQueue().size());
+            for (Runnable task : requeueing.shutdownNow()) {
+                task.run();
+            }
+            for (Future<?> future : requeued) {
+                assertRejected(future);
+            }
+
+            // A caller runs handler still runs them.
+            for (Future<?> future : dropTasks(new ThreadPoolExecutor.CallerRunsPolicy(), running)) {
+                assertTrue(future.isDone());
+                assertNull(future.get());
+            }
+        }
+        finally {
+            running.shutdown();
+        }
+    }
+
+    /**
+     * Drop a future and a decorated future from an overloaded queue.
+     */
+    private static List<Future<?>> dropTasks(RejectedExecutionHandler handler, ThreadPoolExecutor executor)
+    {
+        final AtomicLong nanos = new AtomicLong();
+        final AdaptiveLifoQueue queue = new AdaptiveLifoQueue(10, 50, 400, TimeUnit.MILLISECONDS, new Ticker() {
+            @Override
+            public long read()
+            {
+                return nanos.get();
+            }
+        });
+        queue.setRejectionHandler(executor, handler);
+
+        final BatchTask<Void> plain = new BatchTask<Void>(Executors.<Void>callable(new Task(0), null), 0);
+        final BatchTask<Void> decorated = new BatchTask<Void>(Executors.<Void>callable(new Task(0), null), 0);
+        final CallableWrapper wrapper = CallableWrappers.fuse(ImmutableList.<FusibleCallableWrapper>of(new DeadlineWrapper("test")));
+        queue.offer(plain);
+        queue.offer(wrapper.wrap(decorated));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        final Task fresh = new Task(0);
+        queue.offer(fresh);
+
+        // The first poll finds the queue overloaded, the next one drops the stale tasks.
+        assertSame(fresh, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(2, queue.getDroppedCount());
+        return ImmutableList.<Future<?>>of(plain, decorated);
+    }
+
+    private static void assertRejected(Future<?> future) throws Exception
+    {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private static class Task implements Runnable, Prioritized
+    {
+        private final int priority;
+
+        Task(int priority)
+        {
+            this.priority = priority;
+        }
+
+        @Override
+        public void run()
+        {
+        }
+
+        @Override
+        public int getPriority()
+        {
+            return priority;
+        }
+    }
+}